@@ -0,0 +1,130 @@
+package orthopaths;
+
+import java.lang.management.ManagementFactory;
+
+/** <P>This class measures the time and the heap allocation per call
+ * of PathChecker.continueTest, in the same way as the "gc" profiler of
+ * JMH (normalized allocation rate, bytes per operation), by reading the
+ * per-thread allocation counter of the JVM before and after a batch
+ * of operations.</P>
+ * <P>The measured cases are:<UL>
+ * <LI>"objects": PathChecker, which creates HalfSegment, Vertex and
+ * node objects at every move</LI>
+ * <LI>"columns": ColumnarPathChecker created with the number of moves
+ * of the path, so that no array needs to grow</LI>
+ * <LI>"columns, continue+undo": ColumnarPathChecker performing a move
+ * and undoing it, at the end of an already checked path
+ * (the steady state of a search that explores the possible moves).
+ * </LI></UL>
+ * The checked path is a serpentine (see MemoryReport).
+ * The program exits with status 1 if the column checker allocates
+ * memory in steady state.</P>
+ */
+public class AllocationBenchmark
+{
+  /** Number of untimed repetitions before measuring. */
+  public static int WARMUP = 5;
+  /** Number of measured repetitions. */
+  public static int ITERATIONS = 5;
+
+  /** Thread bean used to read the allocation counter. */
+  protected static com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+  /** Return the number of bytes allocated so far by the current thread.
+   * @return allocated bytes */
+  protected static long allocated()
+  {  return bean.getThreadAllocatedBytes(Thread.currentThread().getId());  }
+
+  /** Result of a measured batch: time and allocated bytes. */
+  protected static long nanos, bytes;
+
+  /** Start a path with its first move and perform all the other moves,
+   * measuring only the moves after the first one.
+   * @param checker a path checker
+   * @param dirs the directions of the path */
+  protected static void runPath(PathChecker checker, int[] dirs)
+  {
+    checker.startTest(0,0, dirs[0], true);
+    long b0 = allocated();
+    long t0 = System.nanoTime();
+    for (int i=1; i<dirs.length; i++)
+      if (!checker.continueTest(dirs[i])) break;
+    nanos = System.nanoTime()-t0;
+    bytes = allocated()-b0;
+  }
+
+  /** At the end of the checked path, repeatedly perform one of the
+   * legal next moves and undo it, measuring all the steps.
+   * @param checker a path checker, whose path has been checked
+   * @param dirs the directions of the path
+   * @param ops number of moves to perform and undo */
+  protected static void runUndo(PathChecker checker, int[] dirs, int ops)
+  {
+    int last = dirs[dirs.length-1];
+    int[] tries = { last, (last+1)%4, (last+3)%4 };
+    long b0 = allocated();
+    long t0 = System.nanoTime();
+    for (int i=0; i<ops; i++)
+    {
+      checker.continueTest(tries[i%3]);
+      checker.undoTest();
+    }
+    nanos = System.nanoTime()-t0;
+    bytes = allocated()-b0;
+  }
+
+  /** Print the result of the last measured batch.
+   * @param name name of the case
+   * @param ops number of measured operations */
+  protected static void report(String name, long ops)
+  {
+    System.out.printf("%-26s %10.1f ns/op %12.0f ops/s %10.2f B/op%n",
+       name, (double)nanos/ops, 1e9*ops/nanos, (double)bytes/ops);
+  }
+
+  /** MAIN PROGRAM.
+   * Accept on the command line the number of moves (default 1000000).
+   * @param arg command line */
+  public static void main(String[] arg)
+  {
+    int moves = 1000000;
+    if (arg.length>0) moves = Integer.parseInt(arg[0]);
+    String path = MemoryReport.serpentine(moves);
+    int[] dirs = new int[moves];
+    for (int i=0; i<moves; i++) dirs[i] = Direction.decodDir(path.charAt(i));
+    long maxBytes = 0;
+
+    for (int i=0; i<WARMUP; i++) runPath(new PathChecker(), dirs);
+    for (int i=0; i<ITERATIONS; i++)
+    {
+      runPath(new PathChecker(), dirs);
+      report("objects", moves-1);
+    }
+
+    ColumnarPathChecker columns = new ColumnarPathChecker(moves);
+    for (int i=0; i<WARMUP; i++) runPath(columns, dirs);
+    for (int i=0; i<ITERATIONS; i++)
+    {
+      runPath(columns, dirs);
+      report("columns", moves-1);
+      maxBytes = Math.max(maxBytes, bytes);
+    }
+
+    for (int i=0; i<WARMUP; i++) runUndo(columns, dirs, moves);
+    for (int i=0; i<ITERATIONS; i++)
+    {
+      runUndo(columns, dirs, moves);
+      report("columns, continue+undo", moves);
+      maxBytes = Math.max(maxBytes, bytes);
+    }
+
+    if (maxBytes>0)
+    {
+      System.out.println("ERR the column checker allocated "+maxBytes+" bytes");
+      System.exit(1);
+    }
+    System.out.println("The column checker did not allocate memory");
+  }
+
+}
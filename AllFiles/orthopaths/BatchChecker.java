@@ -0,0 +1,248 @@
+package orthopaths;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** <P>This class checks many independent paths in parallel, on a
+ * fork-join pool. The batch is split recursively into slices of at
+ * most THRESHOLD paths; each slice is checked by its own path checker,
+ * which is reused for all the paths of the slice. Path checkers keep
+ * all their state in their instance, so workers share nothing but the
+ * input paths and the array of results, where each worker writes
+ * different positions.</P>
+ * <P>Each path is validated as in PathUtils.isGood (without touching
+ * the static fields of PathUtils), then checked starting from point
+ * (0,0). Results are returned in the order of the input paths.</P>
+ */
+public class BatchChecker
+{
+  /** Maximum number of paths checked sequentially by one task. */
+  public static int THRESHOLD = 64;
+
+  /** Result of checking one path of the batch. */
+  public static class Result
+  {
+    /** Position of the path within the batch. */
+    public final int index;
+    /** Problem found by the validation of the path, empty string if
+     * the path is correct (see PathUtils.Validation). */
+    public final String problem;
+    /** Index of the move where the problem occurred, -1 if none. */
+    public final long problemIndex;
+    /** True iff the path is self-crossing. */
+    public final boolean crossing;
+    /** Index of the move causing the first crossing, -1 if none. */
+    public final int crossingIndex;
+    /** Perturbations of the checked moves, up to the first crossing
+     * (empty if the path is not correct). */
+    public final float[] perturbations;
+    /** The checked path, detached from its checker, null if the path
+     * is not correct. */
+    public final CompactPath path;
+
+    /** Create the result of a path which is not correct.
+     * @param index position of the path within the batch
+     * @param val the validation of the path */
+    protected Result(int index, PathUtils.Validation val)
+    {
+      this.index = index;
+      this.problem = val.problem;
+      this.problemIndex = val.problemIndex;
+      this.crossing = false;
+      this.crossingIndex = -1;
+      this.perturbations = new float[0];
+      this.path = null;
+    }
+
+    /** Create the result of a correct path. The perturbations are
+     * those of the checked path, not copied.
+     * @param index position of the path within the batch
+     * @param cp the checked path */
+    protected Result(int index, CompactPath cp)
+    {
+      this.index = index;
+      this.problem = "";
+      this.problemIndex = -1;
+      this.crossing = cp.hasIntersection();
+      this.crossingIndex = crossing ? cp.length() : -1;
+      this.perturbations = cp.getPerturbations();
+      this.path = cp;
+    }
+
+    /** Return true iff the path is correct.
+     * @return true iff the validation found no problem */
+    public boolean isGood()  {  return problem.isEmpty();  }
+
+    /** Return a string representing this result.
+     * @return a string representing this result */
+    public String toString()
+    {
+      if (!isGood()) return index+": "+problem;
+      if (crossing) return index+": crossing at move "+crossingIndex;
+      return index+": OK, "+perturbations.length+" moves";
+    }
+  }
+
+  /** Pool running the checks. */
+  protected final ForkJoinPool pool;
+
+  /** If true, paths are checked by ColumnarPathChecker, otherwise
+   * by PathChecker. */
+  protected final boolean columns;
+
+  /** If true, perturbations are adjusted after checking each path
+   * (see PathChecker.adjustPerturbations). */
+  public boolean adjust = false;
+
+  /** Create a batch checker using column checkers on the common pool. */
+  public BatchChecker()
+  {  this(ForkJoinPool.commonPool(), true);  }
+
+  /** Create a batch checker.
+   * @param pool the fork-join pool running the checks
+   * @param columns if true, use ColumnarPathChecker, otherwise
+   * PathChecker */
+  public BatchChecker(ForkJoinPool pool, boolean columns)
+  {
+    this.pool = pool;
+    this.columns = columns;
+  }
+
+  /** Create the path checker used by one task.
+   * @return a new path checker */
+  protected PathChecker newChecker()
+  {
+    if (columns) return new ColumnarPathChecker();
+    return new PathChecker();
+  }
+
+  /** Validate and check one path. The checked path is detached from
+   * the checker (see PathChecker.detachPath), so that results do not
+   * keep alive the half segments of the checker.
+   * @param checker the path checker to use, it is cleared
+   * @param path the path
+   * @param index position of the path within the batch
+   * @return the result */
+  protected Result checkOne(PathChecker checker, CharSequence path, int index)
+  {
+    PathUtils.Validation val = PathUtils.validate(path);
+    if (!val.isGood()) return new Result(index, val);
+    checker.check(0,0, path, true);
+    if (adjust) checker.adjustPerturbations();
+    return new Result(index, checker.detachPath());
+  }
+
+  /** Task checking a slice of the batch. */
+  protected class Task extends RecursiveAction
+  {
+    /** Version of the serialized form (tasks are never serialized). */
+    private static final long serialVersionUID = 1L;
+
+    /** All the paths of the batch. */
+    protected final CharSequence[] paths;
+    /** Array receiving the results. */
+    protected final Result[] results;
+    /** The slice goes from index lo (included) to hi (excluded). */
+    protected final int lo, hi;
+
+    /** Create a task for a slice of the batch.
+     * @param paths the paths
+     * @param results array receiving the results
+     * @param lo first index of the slice
+     * @param hi index after the last one of the slice */
+    protected Task(CharSequence[] paths, Result[] results, int lo, int hi)
+    {
+      this.paths = paths;
+      this.results = results;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    /** Check the slice, or split it into two halves. */
+    protected void compute()
+    {
+      if (hi-lo<=THRESHOLD)
+      {
+        PathChecker checker = newChecker();
+        for (int i=lo; i<hi; i++)
+          results[i] = checkOne(checker, paths[i], i);
+        return;
+      }
+      int mid = (lo+hi) >>> 1;
+      invokeAll(new Task(paths, results, lo, mid),
+                new Task(paths, results, mid, hi));
+    }
+  }
+
+  /** Check the given paths in parallel.
+   * @param paths array of paths
+   * @return the results, in the same order as the paths */
+  public List<Result> check(CharSequence[] paths)
+  {
+    Result[] results = new Result[paths.length];
+    pool.invoke(new Task(paths, results, 0, paths.length));
+    return Arrays.asList(results);
+  }
+
+  /** Check the given paths in parallel.
+   * @param paths list of paths
+   * @return the results, in the same order as the paths */
+  public List<Result> check(List<? extends CharSequence> paths)
+  {  return check(paths.toArray(new CharSequence[paths.size()]));  }
+
+  /** Check the paths of the given stream in parallel. The stream
+   * is consumed before starting the checks.
+   * @param paths stream of paths
+   * @return the results, in the order of the stream */
+  public List<Result> check(Stream<? extends CharSequence> paths)
+  {  return check(paths.collect(Collectors.toList()));  }
+
+  /** MAIN PROGRAM.
+   * Check a batch of random walks with 1, 2, 4, ... threads up to
+   * the number of processors, and print the throughput.
+   * Accept on the command line the number of paths (default 100000)
+   * and the number of moves of each path (default 1000).
+   * @param arg command line */
+  public static void main(String[] arg)
+  {
+    int num = 100000;
+    int moves = 1000;
+    if (arg.length>0) num = Integer.parseInt(arg[0]);
+    if (arg.length>1) moves = Integer.parseInt(arg[1]);
+    Random rnd = new Random(1);
+    String[] paths = new String[num];
+    for (int i=0; i<num; i++) paths[i] = Workloads.randomWalk(rnd, moves);
+    int cpus = Runtime.getRuntime().availableProcessors();
+    List<Result> first = null;
+    double base = 0;
+    for (int threads=1; ; threads=Math.min(2*threads, cpus))
+    {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      BatchChecker batch = new BatchChecker(pool, true);
+      batch.check(paths); // warm up
+      long t0 = System.nanoTime();
+      List<Result> res = batch.check(paths);
+      double secs = (System.nanoTime()-t0)/1e9;
+      pool.shutdown();
+      long checked = 0;
+      int crossing = 0;
+      for (Result r : res)
+      {
+        checked += r.perturbations.length;
+        if (r.crossing) crossing++;
+      }
+      if (first==null) {  first = res; base = secs;  }
+      else for (int i=0; i<num; i++)
+        if (!Arrays.equals(first.get(i).perturbations, res.get(i).perturbations))
+          System.out.println("ERR different result for path "+i);
+      System.out.printf("%3d threads: %8.0f paths/s %12.0f moves/s"+
+         " speedup %5.2f (%d crossing)%n", threads, num/secs,
+         checked/secs, base/secs, crossing);
+      if (threads==cpus) break;
+    }
+  }
+
+}
@@ -0,0 +1,38 @@
+package orthopaths;
+
+/** <P>Read-only view of the moves of a checked path: the direction and
+ * the perturbation of each move, and whether the path is
+ * self-crossing.</P>
+ * <P>It is implemented by PathChecker.CheckedPath, which grows while
+ * the path is checked and refers to the half segments of the checker,
+ * and by CompactPath, a fixed copy detached from the checker. Classes
+ * which only read a checked path (e.g., VectorExport, TilePyramid,
+ * CheckedPathFile) accept both.</P>
+ */
+public interface CheckedMoves
+{
+  /** Return true iff the checked path is self-crossing.
+   * @return true iff an intersection has been detected */
+  boolean hasIntersection();
+
+  /** Return the number of moves of the checked path.
+   * @return number of checked moves */
+  int length();
+
+  /** Return the character representing the direction of the i-th
+   * move of the checked path.
+   * @param i index of a move within the path
+   * @return character representing the direction of the i-th move */
+  char getDirName(int i);
+
+  /** Return the direction of the i-th move of the checked path.
+   * @param i index of a move within the path
+   * @return direction of the i-th move */
+  int getDir(int i);
+
+  /** Return the perturbation associated with the i-th move of
+   * the checked path.
+   * @param i index of a move within the path
+   * @return perturbation of the i-th move */
+  float getPerturbation(int i);
+}
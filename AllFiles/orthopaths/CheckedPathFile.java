@@ -0,0 +1,553 @@
+package orthopaths;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/** <P>Binary file format for a checked path (see CheckedMoves),
+ * much smaller than the text written by FollowCurve and readable
+ * without parsing.</P>
+ * <P>Perturbations are stored as integer ranks: on each unit segment of
+ * the grid, the moves going through it are numbered in order of
+ * perturbation, and the middle one gets 0, as done by
+ * PathChecker.normalizePerturbations (for a normalized path the ranks
+ * are the perturbations themselves). The ranks keep the order of the
+ * perturbations on each segment, so the curve drawn with them has no
+ * crossings as the original one.</P>
+ * <P>The file has a header of HEADER bytes (magic number, version,
+ * number of moves per block, flags, number of moves, position of the
+ * index), then the blocks, then the index. Each block has BLOCK moves
+ * (the last one may have fewer), stored in two columns: the directions
+ * with two bits each, four per byte, then the ranks in zigzag varint
+ * coding (seven bits per byte, the highest bit set when more bytes
+ * follow), mostly one byte each. The index gives the position of each
+ * block as a long integer. A move is found in constant time: the index
+ * gives its block, and at most BLOCK varints of the block are decoded,
+ * never the moves of the previous blocks.</P>
+ * <P>The file is written by a Writer as the moves are produced, and read
+ * by a Reader, which maps it in memory. The main program converts the
+ * text files written by FollowCurve.</P>
+ */
+public class CheckedPathFile
+{
+  /** Magic number at the beginning of the file ("OPCP"). */
+  public static final int MAGIC = 0x4F504350;
+  /** Version of the format. */
+  public static final int VERSION = 1;
+  /** Size of the header, in bytes. */
+  public static final int HEADER = 32;
+  /** Flag: the path is self-crossing. */
+  public static final int INTERSECTING = 1;
+
+  /** Number of moves per block, for the files written from now on. */
+  public static int BLOCK = 128;
+  /** Size of the parts of the file mapped in memory at once by a Reader. */
+  public static int MAP_SIZE = 1<<30;
+
+  /** Return the maximum size of a block in bytes.
+   * @param block number of moves per block
+   * @return the size of the directions, plus 5 bytes per rank */
+  protected static int maxBlockBytes(int block)
+  {  return (block+3)/4 + 5*block;  }
+
+  /** Return the number of bytes by which consecutive parts mapped by a
+   * Reader overlap: enough for a whole block and for an entry of the
+   * index, so that neither is split between two parts.
+   * @param block number of moves per block
+   * @return the size of the overlap */
+  protected static int overlap(int block)
+  {  return Math.max(maxBlockBytes(block), 8);  }
+
+  /** Writer of a checked path file, move by move. The moves are
+   * written into the file block by block, only the index is kept in
+   * memory until the file is closed. */
+  public static class Writer implements Closeable
+  {
+    /** The file. */
+    protected final FileOutputStream file;
+    /** Buffered output to the file. */
+    protected final OutputStream out;
+    /** Number of moves per block. */
+    protected final int block;
+    /** Directions and ranks of the moves of the current block. */
+    protected final byte[] dirs;
+    protected final int[] ranks;
+    /** Buffer where the current block is encoded. */
+    protected final byte[] bytes;
+    /** Position of each block in the file. */
+    protected long[] index = new long[64];
+    /** Number of moves written. */
+    protected long length = 0;
+    /** Position of the next byte in the file. */
+    protected long position = HEADER;
+    /** Flags of the header. */
+    protected int flags = 0;
+
+    /** Create a file, with an empty path, with BLOCK moves per block
+     * (BLOCK must be at least 1).
+     * @param fileName name of the file
+     * @throws IOException if the file cannot be created */
+    public Writer(String fileName) throws IOException
+    {
+      if (BLOCK<1)
+        throw new IllegalArgumentException("Wrong number of moves per block "+BLOCK);
+      block = BLOCK;
+      dirs = new byte[(block+3)/4];
+      ranks = new int[block];
+      bytes = new byte[maxBlockBytes(block)];
+      file = new FileOutputStream(fileName);
+      out = new BufferedOutputStream(file, 1<<16);
+      out.write(new byte[HEADER]); // written again by close
+    }
+
+    /** Mark the path as self-crossing, or not.
+     * @param crossing true iff the path is self-crossing */
+    public void setIntersecting(boolean crossing)
+    {
+      if (crossing) flags |= INTERSECTING;
+      else flags &= ~INTERSECTING;
+    }
+
+    /** Append a move.
+     * @param dir its direction
+     * @param rank its perturbation, as an integer rank
+     * @throws IOException if writing fails */
+    public void append(int dir, int rank) throws IOException
+    {
+      int j = (int)(length % block);
+      if (j==0) Arrays.fill(dirs, (byte)0);
+      dirs[j>>2] |= (byte)(dir << ((j & 3) << 1));
+      ranks[j] = rank;
+      length++;
+      if (j==block-1) writeBlock(block);
+    }
+
+    /** Encode the moves of the current block and write them.
+     * @param m number of moves in the block
+     * @throws IOException if writing fails */
+    protected void writeBlock(int m) throws IOException
+    {
+      long k = (length-1) / block;
+      if (k==index.length) index = Arrays.copyOf(index, 2*index.length);
+      index[(int)k] = position;
+      int nb = (m+3)/4;
+      System.arraycopy(dirs, 0, bytes, 0, nb);
+      for (int j=0; j<m; j++)
+      {
+        int z = (ranks[j] << 1) ^ (ranks[j] >> 31); // zigzag
+        while ((z & ~0x7F)!=0)
+        {
+          bytes[nb++] = (byte)((z & 0x7F) | 0x80);
+          z >>>= 7;
+        }
+        bytes[nb++] = (byte)z;
+      }
+      out.write(bytes, 0, nb);
+      position += nb;
+    }
+
+    /** Return the number of moves written so far.
+     * @return number of moves */
+    public long length()  {  return length;  }
+
+    /** Write the last block, the index and the header, and close the
+     * file.
+     * @throws IOException if writing fails */
+    public void close() throws IOException
+    {
+      try
+      {
+        int m = (int)(length % block);
+        if (m>0) writeBlock(m);
+        long blocks = (length+block-1) / block;
+        long indexPos = position;
+        DataOutputStream data = new DataOutputStream(out);
+        for (int k=0; k<blocks; k++) data.writeLong(index[k]);
+        data.flush();
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        head.putInt(MAGIC).putInt(VERSION).putInt(block).putInt(flags);
+        head.putLong(length).putLong(indexPos);
+        head.flip();
+        FileChannel ch = file.getChannel();
+        while (head.hasRemaining()) ch.write(head, head.position());
+      }
+      finally
+      {
+        out.close();
+      }
+    }
+  }
+
+  /** Reader of a checked path file, mapped in memory. The last block
+   * read is kept decoded, so that the moves can be read in order at
+   * the cost of one varint each. A reader must not be used by several
+   * threads at the same time. */
+  public static class Reader implements Closeable
+  {
+    /** The file. */
+    protected final FileChannel channel;
+    /** Parts of the file mapped in memory: part r starts at position
+     * r*MAP_SIZE, and covers also a whole block or index entry
+     * starting before its end (see overlap). */
+    protected final MappedByteBuffer[] parts;
+    /** Size of the parts, as MAP_SIZE when the file was opened. */
+    protected final long partSize;
+    /** Number of moves per block. */
+    protected final int block;
+    /** Number of moves. */
+    protected final long length;
+    /** Flags of the header. */
+    protected final int flags;
+    /** Position of the index. */
+    protected final long indexPos;
+    /** Ranks of the decoded block. */
+    protected final int[] ranks;
+    /** Index of the decoded block, -1 if none. */
+    protected long decoded = -1;
+
+    /** Open a file.
+     * @param fileName name of the file
+     * @throws IOException if the file cannot be read or is not a
+     * checked path file */
+    public Reader(String fileName) throws IOException
+    {
+      channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+      try
+      {
+        long size = channel.size();
+        if (size<HEADER) throw new IOException(fileName+" is not a checked path file");
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        while (head.hasRemaining() && (channel.read(head, head.position())>0));
+        head.flip();
+        if (head.getInt()!=MAGIC) throw new IOException(fileName+" is not a checked path file");
+        int version = head.getInt();
+        if (version!=VERSION) throw new IOException("Unknown version "+version+" of "+fileName);
+        block = head.getInt();
+        flags = head.getInt();
+        length = head.getLong();
+        indexPos = head.getLong();
+        if ((block<=0) || (indexPos+8*((length+block-1)/block)>size))
+          throw new IOException(fileName+" is truncated");
+        ranks = new int[block];
+        partSize = MAP_SIZE;
+        int num = (int)((size-1) / partSize) + 1;
+        parts = new MappedByteBuffer[num];
+        for (int r=0; r<num; r++)
+        {
+          long start = r*partSize;
+          long end = Math.min(size, start+partSize+overlap(block));
+          parts[r] = channel.map(FileChannel.MapMode.READ_ONLY, start, end-start);
+        }
+      }
+      catch (IOException exc)
+      {
+        channel.close();
+        throw exc;
+      }
+    }
+
+    /** Return the number of moves.
+     * @return length of the path */
+    public long length()  {  return length;  }
+
+    /** Return true iff the path is self-crossing.
+     * @return true iff the flag INTERSECTING is set */
+    public boolean hasIntersection()  {  return (flags & INTERSECTING)!=0;  }
+
+    /** Return the byte at a position of the file.
+     * @param pos the position
+     * @return the byte */
+    protected byte byteAt(long pos)
+    {  return parts[(int)(pos / partSize)].get((int)(pos % partSize));  }
+
+    /** Return the position of a block in the file.
+     * @param k index of the block
+     * @return its position */
+    protected long blockPos(long k)
+    {
+      long pos = indexPos + 8*k;
+      return parts[(int)(pos / partSize)].getLong((int)(pos % partSize));
+    }
+
+    /** Return the direction of the i-th move.
+     * @param i index of a move
+     * @return direction of the i-th move */
+    public int getDir(long i)
+    {
+      int j = (int)(i % block);
+      return (byteAt(blockPos(i / block) + (j>>2)) >>> ((j & 3) << 1)) & 3;
+    }
+
+    /** Return the character representing the direction of the i-th move.
+     * @param i index of a move
+     * @return character of the i-th move */
+    public char getDirName(long i)
+    {  return Direction.letterDir[getDir(i)];  }
+
+    /** Return the perturbation of the i-th move, as an integer rank.
+     * The block of the move is decoded, unless it was the last one.
+     * @param i index of a move
+     * @return rank of the perturbation of the i-th move */
+    public int getRank(long i)
+    {
+      long k = i / block;
+      if (k!=decoded) decode(k);
+      return ranks[(int)(i % block)];
+    }
+
+    /** Return the perturbation of the i-th move.
+     * @param i index of a move
+     * @return the rank of the perturbation (see getRank) */
+    public float getPerturbation(long i)  {  return getRank(i);  }
+
+    /** Decode the ranks of a block.
+     * @param k index of the block */
+    protected void decode(long k)
+    {
+      int m = (int)Math.min(block, length - k*block);
+      long pos = blockPos(k);
+      MappedByteBuffer part = parts[(int)(pos / partSize)];
+      int p = (int)(pos % partSize) + (m+3)/4;
+      for (int j=0; j<m; j++)
+      {
+        int z = 0, shift = 0, b;
+        do
+        {
+          b = part.get(p++);
+          z |= (b & 0x7F) << shift;
+          shift += 7;
+        }
+        while (b<0);
+        ranks[j] = (z >>> 1) ^ -(z & 1);
+      }
+      decoded = k;
+    }
+
+    /** Close the file.
+     * @throws IOException if closing fails */
+    public void close() throws IOException  {  channel.close();  }
+  }
+
+  /** Compute the integer ranks of the perturbations of a path: the
+   * moves going through the same unit segment, in either direction,
+   * are sorted by perturbation and numbered from -len/2, where len is
+   * their number, as in PathChecker.normalizePerturbations. Moves with
+   * equal perturbations on the same segment get the same rank.
+   * @param dirs directions of the moves
+   * @param perts perturbations of the moves
+   * @param n number of moves
+   * @return the ranks */
+  public static int[] ranks(byte[] dirs, float[] perts, int n)
+  {
+    // coordinates of the lower left end of each unit segment
+    int[] xs = new int[n], ys = new int[n];
+    int x = 0, y = 0, minX = 0, minY = 0;
+    for (int i=0; i<n; i++)
+    {
+      int d = dirs[i];
+      int nx = x+Direction.xDir(d), ny = y+Direction.yDir(d);
+      xs[i] = Math.min(x, nx);
+      ys[i] = Math.min(y, ny);
+      x = nx;
+      y = ny;
+      minX = Math.min(minX, x);
+      minY = Math.min(minY, y);
+    }
+    // key of the segment: 31 bits for each coordinate, 1 bit for the
+    // orientation, as the path has less than 2^31 moves
+    long[] keys = new long[n];
+    for (int i=0; i<n; i++)
+      keys[i] = ((long)(xs[i]-minX) << 32) | ((long)(ys[i]-minY) << 1) |
+                (dirs[i] & 1);
+    xs = ys = null;
+    long[] sorted = keys.clone();
+    Arrays.sort(sorted);
+    int unique = 0;
+    for (int i=0; i<n; i++)
+      if ((i==0) || (sorted[i]!=sorted[i-1])) sorted[unique++] = sorted[i];
+    // segment and perturbation of each move, in increasing order of
+    // both; floats are mapped to unsigned integers in the same order
+    long[] order = new long[n];
+    for (int i=0; i<n; i++)
+    {
+      long g = Arrays.binarySearch(sorted, 0, unique, keys[i]);
+      int bits = Float.floatToIntBits(perts[i]);
+      bits ^= (bits >> 31) & 0x7FFFFFFF;
+      order[i] = (g << 32) | ((bits ^ 0x80000000) & 0xFFFFFFFFL);
+    }
+    keys = null;
+    long[] sortedOrder = order.clone();
+    Arrays.sort(sortedOrder);
+    int[] ranks = new int[n];
+    for (int i=0; i<n; i++)
+    {
+      long g = order[i] >>> 32;
+      int first = lowerBound(sortedOrder, g << 32);
+      int len = lowerBound(sortedOrder, (g+1) << 32) - first;
+      ranks[i] = lowerBound(sortedOrder, order[i]) - first - len/2;
+    }
+    return ranks;
+  }
+
+  /** Return the position of the first element not smaller than a key.
+   * @param a a sorted array
+   * @param key the key
+   * @return the position, a.length if all the elements are smaller */
+  protected static int lowerBound(long[] a, long key)
+  {
+    int lo = 0, hi = a.length;
+    while (lo<hi)
+    {
+      int mid = (lo+hi) >>> 1;
+      if (a[mid]<key) lo = mid+1;
+      else hi = mid;
+    }
+    return lo;
+  }
+
+  /** Write a checked path to a file, with the ranks of its
+   * perturbations.
+   * @param path the checked path
+   * @param fileName name of the file
+   * @throws IOException if writing fails */
+  public static void write(CheckedMoves path, String fileName)
+         throws IOException
+  {
+    int n = path.length();
+    byte[] dirs = new byte[n];
+    float[] perts = new float[n];
+    for (int i=0; i<n; i++)
+    {
+      dirs[i] = (byte)path.getDir(i);
+      perts[i] = path.getPerturbation(i);
+    }
+    write(dirs, perts, n, path.hasIntersection(), fileName);
+  }
+
+  /** Write a path given by directions and perturbations to a file,
+   * with the ranks of its perturbations.
+   * @param dirs directions of the moves
+   * @param perts perturbations of the moves
+   * @param n number of moves
+   * @param crossing true iff the path is self-crossing
+   * @param fileName name of the file
+   * @throws IOException if writing fails */
+  public static void write(byte[] dirs, float[] perts, int n,
+                           boolean crossing, String fileName)
+         throws IOException
+  {
+    int[] ranks = ranks(dirs, perts, n);
+    try (Writer out = new Writer(fileName))
+    {
+      out.setIntersecting(crossing);
+      for (int i=0; i<n; i++) out.append(dirs[i], ranks[i]);
+    }
+  }
+
+  /** Convert a text file written by FollowCurve into a checked path
+   * file. The line of the text containing the checked path, as
+   * directions each followed by its perturbation, is read token by
+   * token; the line of the original path, with directions only, is
+   * skipped. The text does not say if the path is self-crossing, so
+   * the flag is not set.
+   * @param textName name of the text file
+   * @param fileName name of the checked path file
+   * @return the number of moves
+   * @throws IOException if reading or writing fails, or if the
+   * text is not correct */
+  public static int convert(String textName, String fileName)
+         throws IOException
+  {
+    byte[] dirs = new byte[1024];
+    float[] perts = new float[1024];
+    int n = 0;
+    try (PushbackInputStream in = new PushbackInputStream(
+            new BufferedInputStream(new FileInputStream(textName), 1<<16)))
+    {
+      StringBuilder tok = new StringBuilder();
+      int k = 0; // position of the token within its line
+      int c;
+      while ((c = nextToken(in, tok))>=0)
+      {
+        if (c=='\n') {  k = 0; continue;  }
+        int d = (tok.length()==1) ? Direction.decodDir(tok.charAt(0)) : Direction.NO_DIR;
+        if (k%2==0)
+        {
+          if (d==Direction.NO_DIR) throw new IOException(tok+" is not a valid direction");
+          if (k==0) n = 0;
+          if (n==dirs.length)
+          {
+            dirs = Arrays.copyOf(dirs, 2*n);
+            perts = Arrays.copyOf(perts, 2*n);
+          }
+          dirs[n] = (byte)d;
+        }
+        else if ((k==1) && (d!=Direction.NO_DIR))
+        {
+          // the original path: skip the rest of the line
+          while (((c = in.read())>=0) && (c!='\n'));
+          k = 0;
+          continue;
+        }
+        else
+        {
+          try
+          {  perts[n++] = Float.parseFloat(tok.toString());
+          }
+          catch (NumberFormatException exc)
+          {  throw new IOException("Wrong perturbation "+tok);
+          }
+        }
+        k++;
+      }
+    }
+    write(dirs, perts, n, false, fileName);
+    return n;
+  }
+
+  /** Read the next token of a text, or the end of the line.
+   * @param in the text
+   * @param tok receives the token
+   * @return 0 if a token was read, '\n' at the end of a line, -1 at
+   * the end of the text
+   * @throws IOException if reading fails */
+  protected static int nextToken(PushbackInputStream in, StringBuilder tok)
+            throws IOException
+  {
+    int c = in.read();
+    while ((c==' ') || (c=='\t') || (c=='\r')) c = in.read();
+    if ((c<0) || (c=='\n')) return c;
+    tok.setLength(0);
+    while ((c>=0) && (c!=' ') && (c!='\t') && (c!='\r') && (c!='\n'))
+    {
+      tok.append((char)c);
+      c = in.read();
+    }
+    if (c>=0) in.unread(c);
+    return 0;
+  }
+
+  /** MAIN PROGRAM.
+   * Convert a text file written by FollowCurve (first argument) into a
+   * checked path file (second argument, default: the name of the text
+   * file with extension .cpf), and print the sizes.
+   * @param arg command line arguments
+   * @throws IOException if reading or writing fails */
+  public static void main(String[] arg) throws IOException
+  {
+    if (arg.length<1)
+    {
+      System.out.println("Need file name");
+      return;
+    }
+    String name = (arg.length>1) ? arg[1] : arg[0]+".cpf";
+    int n = convert(arg[0], name);
+    System.out.println(n+" moves: "+new File(arg[0]).length()+" bytes of text, "+
+                       new File(name).length()+" bytes in "+name);
+  }
+
+}
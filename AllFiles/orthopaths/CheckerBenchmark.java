@@ -0,0 +1,145 @@
+package orthopaths;
+
+import java.util.Random;
+
+/** <P>This class measures the performance of the path checker on the
+ * workloads generated by class Workloads, for increasing path lengths,
+ * in order to detect regressions and to draw scaling curves against
+ * the length of the path and against the sum of vertex degrees
+ * (the quantity plotted in Figure 15 of the paper).</P>
+ * <P>For each workload and length, it prints the number of moves
+ * actually checked (a self-crossing path is checked only up to its
+ * first crossing), the sum and the maximum of vertex degrees, and for
+ * each engine the time per move, the throughput in moves per second
+ * and the heap allocation per move (measured as in class
+ * AllocationBenchmark). The engines are PathChecker with a hash
+ * dictionary ("objects"), ColumnarPathChecker created with the
+ * length of the path ("columns") and ExactPathChecker with a hash
+ * dictionary ("exact").</P>
+ * <P>The lengths grow by a factor 4 up to a maximum given on the
+ * command line. A workload is not measured on longer paths once a
+ * single check takes more than TIME_LIMIT seconds.</P>
+ */
+public class CheckerBenchmark
+{
+  /** Number of untimed repetitions before measuring. */
+  public static int WARMUP = 3;
+  /** Number of measured repetitions, the best one is reported. */
+  public static int ITERATIONS = 5;
+  /** Maximum time of a single check, in seconds, for measuring
+   * a workload on longer paths. */
+  public static double TIME_LIMIT = 2.0;
+
+  /** Names of the workloads. */
+  public static final String[] WORKLOADS =
+      { "random", "random-free", "motif12", "fractal14", "spiral", "coil" };
+
+  /** Names of the engines. */
+  public static final String[] ENGINES = { "objects", "columns", "exact" };
+
+  /** Return a path of the given workload, with about the given
+   * number of moves.
+   * @param workload index in WORKLOADS
+   * @param moves number of moves
+   * @return a string of directions */
+  public static String generate(int workload, int moves)
+  {
+    switch (workload)
+    {
+      case 0: return Workloads.randomWalk(new Random(moves), moves);
+      case 1: return Workloads.randomCrossingFree(new Random(moves), moves);
+      case 2: return Workloads.repeat(Workloads.MOTIF_12,
+                         Math.max(1, moves/Workloads.MOTIF_12.length()));
+      case 3:
+      {
+        int level = 1;
+        for (long n=81; n<=moves; n*=9) level++;
+        return Workloads.fractal(level);
+      }
+      case 4: return Workloads.spiral(moves);
+      default: return Workloads.coil(Math.max(1, moves/4), 1);
+    }
+  }
+
+  /** Create a path checker of the given engine.
+   * @param engine index in ENGINES
+   * @param moves number of moves of the paths it will check
+   * @return a new path checker */
+  protected static PathChecker newChecker(int engine, int moves)
+  {
+    if (engine==0) return new PathChecker(VertexSet.HASH);
+    if (engine==2) return new ExactPathChecker(VertexSet.HASH);
+    return new ColumnarPathChecker(moves);
+  }
+
+  /** Best time and allocation per move of the last measure. */
+  protected static double nanosPerMove, bytesPerMove;
+
+  /** Check a path several times with the given engine, and set
+   * nanosPerMove and bytesPerMove from the fastest check.
+   * The column checker is created once and reused.
+   * @param engine index in ENGINES
+   * @param path a path
+   * @return the number of checked moves */
+  protected static int measure(int engine, String path)
+  {
+    PathChecker reused = newChecker(engine, path.length());
+    int checked = 0;
+    nanosPerMove = Double.MAX_VALUE;
+    for (int i=0; i<WARMUP+ITERATIONS; i++)
+    {
+      PathChecker checker = (engine!=1) ? newChecker(engine, 0) : reused;
+      long b0 = AllocationBenchmark.allocated();
+      long t0 = System.nanoTime();
+      checked = checker.check(0,0, path, true).length();
+      long nanos = System.nanoTime()-t0;
+      long bytes = AllocationBenchmark.allocated()-b0;
+      boolean tooSlow = (nanos>1e9*TIME_LIMIT);
+      if ((i<WARMUP) && !tooSlow) continue;
+      if ((double)nanos/checked<nanosPerMove)
+      {
+        nanosPerMove = (double)nanos/checked;
+        bytesPerMove = (double)bytes/checked;
+      }
+      if (tooSlow) break;
+    }
+    return checked;
+  }
+
+  /** MAIN PROGRAM.
+   * Accept on the command line the maximum number of moves
+   * (default 1048576) and optionally the name of a workload.
+   * @param arg command line */
+  public static void main(String[] arg)
+  {
+    int maxMoves = 1<<20;
+    String only = null;
+    if (arg.length>0) maxMoves = Integer.parseInt(arg[0]);
+    if (arg.length>1) only = arg[1];
+    System.out.printf("%-12s %9s %9s %13s %7s %-8s %10s %12s %9s%n",
+        "workload", "moves", "checked", "degree sum", "max deg",
+        "engine", "ns/move", "moves/s", "B/move");
+    for (int w=0; w<WORKLOADS.length; w++)
+    {
+      if ((only!=null) && !only.equals(WORKLOADS[w])) continue;
+      boolean slow = false;
+      int lastLength = 0;
+      for (int moves=1<<10; (moves<=maxMoves) && !slow; moves*=4)
+      {
+        String path = generate(w, moves);
+        if (path.length()==lastLength) continue; // same fractal level
+        lastLength = path.length();
+        Workloads.Degrees deg = new Workloads.Degrees(path);
+        for (int e=0; e<ENGINES.length; e++)
+        {
+          int checked = measure(e, path);
+          System.out.printf("%-12s %9d %9d %13d %7d %-8s %10.1f %12.0f %9.1f%n",
+              WORKLOADS[w], path.length(), checked, deg.sum, deg.max,
+              ENGINES[e], nanosPerMove, 1e9/nanosPerMove, bytesPerMove);
+          if (nanosPerMove*checked>1e9*TIME_LIMIT) slow = true;
+        }
+      }
+    }
+  }
+
+}
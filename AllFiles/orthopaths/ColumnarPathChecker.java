@@ -0,0 +1,258 @@
+package orthopaths;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <P>Path checker running on a column-oriented storage engine
+ * (class SegmentStore) instead of HalfSegment objects.
+ * It performs the same steps as class PathChecker and gives the same
+ * answers and perturbations, but each move only writes a few entries
+ * of primitive arrays: about 100 bytes per move including the vertex
+ * table, against more than 200 bytes of objects in PathChecker
+ * (see class MemoryReport).</P>
+ * <P>When the checker is created with the number of moves of the path,
+ * continueTest and undoTest do not allocate any memory: arrays grow only
+ * if the path turns out to be longer (see class AllocationBenchmark).
+ * The dictionary of the superclass is not used.</P>
+*/
+public class ColumnarPathChecker extends PathChecker
+{
+  /** Columns of half segments and vertices. */
+  protected SegmentStore store;
+
+  /** Last created half segment while scanning the input path,
+   * SegmentStore.NONE if there is none. */
+  protected int last = SegmentStore.NONE;
+
+  /** Expected number of moves, used to size the checked path. */
+  protected int capacity;
+
+  /** Inner class for the checked path: it contains the indices
+   * of the half segments generated from the moves. */
+  public class ColumnarCheckedPath extends CheckedPath
+  {
+    /** Half segments generated from the moves. */
+    protected int[] moves;
+
+    /** Create a checked path given the dimension of the array.
+     * @param capacity number of positions to allocate */
+    public ColumnarCheckedPath(int capacity)
+    {
+      super(0);
+      moves = new int[Math.max(capacity,1)];
+    }
+
+    /** Make room for the given number of moves.
+     * @param n expected number of moves */
+    public void reserve(int n)
+    {
+      if (n>moves.length) moves = java.util.Arrays.copyOf(moves, n);
+    }
+
+    /** Add a new move given its half segment.
+     * @param s a half segment */
+    protected void append(int s)
+    {
+      if (currInd==moves.length)
+        moves = java.util.Arrays.copyOf(moves, 2*moves.length);
+      moves[currInd++] = s;
+    }
+
+    /** Return the character representing the direction of the i-th
+     * move of the checked path.
+     * @param i index of a move within the path
+     * @return character representing the direction of the i-th move */
+    public char getDirName(int i)
+    {  return Direction.letterDir[store.dir(moves[i])];  }
+
+    /** Return the direction of the i-th move of the checked path.
+     * @param i index of a move within the path
+     * @return direction of the i-th move */
+    public int getDir(int i)
+    {  return store.dir(moves[i]);  }
+
+    /** Return the perturbation associated with the i-th move of
+     * the checked path.
+     * @param i index of a move within the path
+     * @return perturbation of the i-th move */
+    public float getPerturbation(int i)
+    {  return store.perturbation(moves[i]);  }
+  }
+
+  /** Create a new path checker on a column store. */
+  public ColumnarPathChecker()
+  {  this(DEFAULT_CAPACITY);  }
+
+  /** Create a new path checker on a column store, with room
+   * for a path with the given number of moves.
+   * @param capacity expected number of moves */
+  public ColumnarPathChecker(int capacity)
+  {
+    super(VertexSet.HASH);
+    global_dict = null;
+    this.capacity = capacity;
+    store = new SegmentStore(capacity);
+  }
+
+  /** Return the store containing the half segments.
+   * @return the column store */
+  public SegmentStore getStore()  {  return store;  }
+
+  /** Reset the path checker. */
+  public void reset()
+  {
+    store.clear();
+    last = SegmentStore.NONE;
+  }
+
+  /** Create the initial half segment of the curve, starting from point
+   * (x,y) in direction dir, see PathChecker.startTest.
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param dir direction of the first move
+   * @param clear if true, delete all existing half segments */
+  public void startTest(int x, int y, int dir, boolean clear)
+  {
+    if (clear) reset();
+    startPoint = new Vertex(x,y);
+    output = new ColumnarCheckedPath(capacity);
+    if (journal!=null) journal.clear();
+    int v = store.vertexOf(x,y);
+    int first = store.newSegment(v, dir);
+    store.updatePerturb(first, SegmentStore.NONE, SegmentStore.NONE);
+    // fake mate in direction WEST, see PathChecker.startTest
+    int fake = store.makeMate(first, Direction.W);
+    store.updatePerturb(fake, SegmentStore.NONE, SegmentStore.NONE);
+    store.addFirstPair(v, first, fake);
+    storeLast(first);
+  }
+
+  /** Store the last half segment and append it to the checked path.
+   * @param s the new last half segment */
+  protected void storeLast(int s)
+  {
+    last = s;
+    ((ColumnarCheckedPath)output).append(s);
+    if (journal!=null) journal.mark();
+  }
+
+  /** The next move is in direction dir: create the opposite half segment
+   * of the last one and the next half segment, and add them to
+   * the radial list of their vertex, see PathChecker.continueTest.
+   * @param dir direction of the next move
+   * @return true iff it is possible to perform the next move without
+   * self-crossing */
+  public boolean continueTest(int dir)
+  {
+    SegmentStore st = store;
+    int from = st.startVertex(last);
+    int d = st.dir(last);
+    int v = st.vertexOf(st.x(from)+Direction.xDir(d), st.y(from)+Direction.yDir(d));
+    int oppos = st.makeOpposite(last, v);
+    int next = st.makeMate(oppos, dir);
+    if (st.starSize(v)==0)
+    {
+      // this is the first passage at the point, the entering half
+      // segment keeps its perturbation (see PathChecker.continueTest)
+      if (st.perturbation(oppos)==SegmentStore.UNDEF)
+        st.updatePerturb(oppos, SegmentStore.NONE, SegmentStore.NONE);
+      st.updatePerturb(next, SegmentStore.NONE, SegmentStore.NONE);
+      st.addFirstPair(v, oppos, next);
+      storeLast(next);
+      return true;
+    }
+    if ((st.addEntering(v, oppos)==SegmentStore.NONE) ||
+        (st.addExiting(v, next, oppos)==SegmentStore.NONE))
+    {
+      output.intersecting = true;
+      return false;
+    }
+    if (REBALANCE && st.rebalance(v, next, (SegmentStore.Journal)journal))
+      rescales++;
+    storeLast(next);
+    return true;
+  }
+
+  /** Create the journal of the perturbations of this checker,
+   * recording indices of the column store.
+   * @return a new journal */
+  protected PerturbationJournal newJournal()
+  {  return store.new Journal();  }
+
+  /** Undo the last testing step, see PathChecker.undoTest.
+   * The half segments created by the undone step are deleted.
+   * @return true iff there was something to undo */
+  public boolean undoTest()
+  {
+    if (last==SegmentStore.NONE) return false;
+    SegmentStore st = store;
+    int n = st.size();
+    if (output.intersecting)
+    {
+      int s = st.opposite[last];
+      st.remove(s);
+      if ((s==n-2) && (st.mate[s]==n-1)) st.truncate(n-2);
+      output.intersecting = false;
+    }
+    else
+    {
+      int s = last;
+      int m = st.mate[s];
+      st.remove(s);
+      last = st.opposite[m];
+      if ((Math.max(s,m)==n-1) && (Math.min(s,m)==n-2)) st.truncate(n-2);
+      output.currInd--;
+      if ((journal!=null) && (journal.undo()>0)) rescales++;
+    }
+    return true;
+  }
+
+  /** Return the last point of the checked path.
+   * @return the last vertex of the checked path */
+  public Vertex getLastPoint()
+  {
+    if (last==SegmentStore.NONE) return startPoint;
+    int v = store.startVertex(last);
+    int d = store.dir(last);
+    return new Vertex(store.x(v)+Direction.xDir(d), store.y(v)+Direction.yDir(d));
+  }
+
+  /** Return the next moves which would not make the path self-crossing,
+   * without performing any of them, see PathChecker.legalMoves.
+   * @return a mask of RIGHT, STRAIGHT and LEFT */
+  public int legalMoves()
+  {
+    if ((last==SegmentStore.NONE) || (output==null) || output.intersecting)
+      return 0;
+    SegmentStore st = store;
+    int from = st.startVertex(last);
+    int d = st.dir(last);
+    int v = st.findVertex(st.x(from)+Direction.xDir(d), st.y(from)+Direction.yDir(d));
+    if ((v==SegmentStore.NONE) || (st.starSize(v)==0))
+      return RIGHT|STRAIGHT|LEFT;
+    return relativeMoves(st.exitDirections(v, Direction.oppositeDir(d),
+                                           st.perturbation(last)), d);
+  }
+
+  /** If the perturbations around some vertex are too close, rescale
+   * them, see PathChecker.adjustPerturbations. */
+  public void adjustPerturbations()
+  {
+    store.adjustPerturbations();
+    if (journal!=null) journal.forget();
+    rescales++;
+  }
+
+  /** Rescale the perturbations of all the segments on each edge to
+   * consecutive integers, see PathChecker.normalizePerturbations.
+   * @param pool the pool running the tasks, null to work sequentially */
+  public void normalizePerturbations(ForkJoinPool pool)
+  {
+    if (pool==null) store.normalizePerturbations();
+    else store.normalizePerturbations(pool);
+    if ((last!=SegmentStore.NONE) && (store.dir(last)>=2)) store.normalize(last);
+    if (journal!=null) journal.forget();
+    rescales++;
+  }
+
+}
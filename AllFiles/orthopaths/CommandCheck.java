@@ -8,6 +8,7 @@ import java.io.*;
 import java.awt.image.*;
 import javax.imageio.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
 <P>Panel to interactively draw a curve without intersections.</P>
@@ -39,41 +40,24 @@ public class CommandCheck extends VisualCheck
      rawPath = restPath;
      restPath = ""; 
      //if (redraw) 
-     //   checker.global_dict.adjustPerturbations();
+     //   checker.adjustPerturbations();
      repaint();
   }
 
+  /** Draw the starting point, the grid, the raw curve and the curve with
+   * perturbations into a new image, as large as the drawing (see class
+   * Figure). Nothing is shown on the screen: this works in headless mode
+   * as well (java.awt.headless=true).
+   * @return the image */
+  public BufferedImage renderImage()
+  {  return new Figure(this, initX, initY).render();  }
+
+  /** Draw the image (see renderImage) and save it to file output_name,
+   * in png format.
+   * @return the image */
   public BufferedImage createTheImage()
   {
-    
-    //window.setSize(new Dimension(1200,1000));
-     float dim1 = BIG_FACTOR*(maxX-minX+2);
-     float dim2 = BIG_FACTOR*(maxY-minY+2);
-     //System.out.println("Image limits "+minX+","+minY+" -- "+maxX+","+maxY);
-     //System.out.println("Zoom "+BIG_FACTOR);
-     //System.out.println("Image dimensions "+dim1+" x "+dim2);
-     BufferedImage imm = (BufferedImage) createImage((int)dim1,(int)dim2);//getWidth(),getHeight());
-     Graphics2D grimm = imm.createGraphics();
-     grimm.setStroke(new BasicStroke(1.0f));
-     // Draw the first raw point (0,0)
-     grimm.setColor(Color.green);
-     int xi = mapX(initX);
-     int yi = mapY(initY);
-//     System.out.println("Disegno rettangolo verde centrato in "+xi+", "+yi);
-     grimm.fillRect(xi-4, yi-4, 8,8);
-     // Draw the grid
-     grimm.setColor(new Color(200,200,200));
-     drawGrid(grimm);
-     if ((rawPath!=null)&&(rawPath.length()>0))
-     {  // ------------- Draw the raw curve in yellow
-        grimm.setColor(Color.yellow);
-        drawRawCurve(grimm, initX, initY);
-     }
-     if ((!onlyRaw) && (path!=null)&&(path.length()>0))
-     {  // ------------- Draw the curve 
-        grimm.setColor(Color.black);
-        drawCurve(grimm, initX, initY);
-     }
+     BufferedImage imm = renderImage();
      try
      {
        ImageIO.write(imm,"png", new File(output_name));
@@ -86,22 +70,61 @@ public class CommandCheck extends VisualCheck
      return imm;
    }
       
-  /** Main: create the window and show it.
-   * After showing, it saves the image to a png file.
+  /** Save the curve with perturbations (see drawCurve) to a vector file,
+   * see class VectorExport.
+   * @param fileName name of the file, ending with .svg or .eps */
+  public void createTheVectorFile(String fileName)
+  {
+     try
+     {
+       VectorExport.write(path, initX, initY, fileName);
+       System.out.println("Curve saved to file "+ fileName);
+     }
+     catch(Exception exc)
+     {
+       exc.printStackTrace();
+     }
+  }
+
+  /** Save the curve with perturbations as a deep zoom tile pyramid,
+   * see class TilePyramid, with a unit segment BIG_FACTOR pixels long
+   * at the highest level.
+   * @param name name of the pyramid: the descriptor is name.dzi and
+   * the tiles are in directory name_files */
+  public void createTheTiles(String name)
+  {
+     try
+     {
+       new TilePyramid(path, initX, initY, BIG_FACTOR).write(name, ForkJoinPool.commonPool());
+       System.out.println("Tiles saved to "+ name +".dzi");
+     }
+     catch(Exception exc)
+     {
+       exc.printStackTrace();
+     }
+  }
+
+  /** Main: check the path and save its image to a png file.
+   * No window is created, so the program can run in headless mode
+   * (java -Djava.awt.headless=true, or on a system without display).
    * The input parameters are:<UL>
    * <LI> the path as a string of four letters NSWE</LI>
    * <LI> the output figure name, without extension</LI>
    * <LI> the coordinates of the starting point for drawing
    * <LI> (optional) -R to mean "reconfigure" the path after drawing
+   * <LI> (optional) -N to normalize the perturbations of the path
+   * to consecutive integers on each edge, in parallel
+   * <LI> (optional) -SVG or -EPS to save also the curve with
+   * perturbations in vector format, in the file with the figure name
+   * and extension .svg or .eps
+   * <LI> (optional) -TILES to save a tile pyramid (figure name with
+   * extension .dzi, tiles in directory figure name + _files) instead of
+   * the png image, for curves too large for a single image
    * </UL>
    * @param arg command line arguments */
   public static void main(String[] arg)
   {
     CommandCheck vc = new CommandCheck();
-    JFrame fr = vc.createWindow();
-    fr.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-    fr.setVisible(true);
-    fr.setSize(new Dimension(800,800));
     Scanner sc = new Scanner(System.in);
     String st;
     int i;
@@ -111,6 +134,9 @@ public class CommandCheck extends VisualCheck
     vc.createThePath();
     st = sc.next();
     vc.output_name = st + ".png";
+    String figure_name = st;
+    ArrayList<String> vector_names = new ArrayList<String>();
+    boolean tiles = false;
     i = sc.nextInt();
     vc.initX = i;
     i = sc.nextInt();
@@ -120,7 +146,16 @@ public class CommandCheck extends VisualCheck
       st = sc.next();
       if (st.equalsIgnoreCase("-R"))
       {
-        vc.checker.global_dict.adjustPerturbations();
+        vc.checker.adjustPerturbations();
+        vc.repaint();
+      }
+      else if (st.equalsIgnoreCase("-SVG") || st.equalsIgnoreCase("-EPS"))
+        vector_names.add(figure_name + "." + st.substring(1).toLowerCase());
+      else if (st.equalsIgnoreCase("-TILES"))
+        tiles = true;
+      else if (st.equalsIgnoreCase("-N"))
+      {
+        vc.checker.normalizePerturbations(ForkJoinPool.commonPool());
         vc.repaint();
       }
       else if (st.equalsIgnoreCase("-Z"))
@@ -140,7 +175,10 @@ public class CommandCheck extends VisualCheck
       else
           System.err.println("Unknown option "+st);
     }
-    vc.createTheImage();
+    // same perturbations as in the image, which may change them afterwards
+    for (String name : vector_names) vc.createTheVectorFile(name);
+    if (tiles) vc.createTheTiles(figure_name);
+    else vc.createTheImage();
     System.exit(1);
   }
 
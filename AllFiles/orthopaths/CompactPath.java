@@ -0,0 +1,90 @@
+package orthopaths;
+
+/** <P>Checked path detached from the path checker which produced it.
+ * It keeps only two arrays, as long as the path: the directions of the
+ * moves, one byte each, and their perturbations, as they were when the
+ * copy was taken (see PathChecker.snapshot and PathChecker.detachPath).
+ * A PathChecker.CheckedPath refers instead to the half segments of the
+ * checker, and through them to all its vertices and radial lists, so
+ * keeping it alive keeps alive the whole checker.</P>
+ * <P>The perturbations of a path change while the path is checked
+ * (see HalfSegmentSkipList.rescaleGroup), so they are copied once, at
+ * the end, in a single pass over the moves. A compact path cannot be
+ * extended, so it is not a PathChecker.CheckedPath: both implement the
+ * read-only interface CheckedMoves.</P>
+ */
+public class CompactPath implements CheckedMoves
+{
+  /** Directions of the moves. */
+  protected final byte[] dirs;
+  /** Perturbations of the moves. */
+  protected final float[] perturbations;
+  /** True iff the path is self-crossing. */
+  protected final boolean intersecting;
+
+  /** Create a compact copy of a checked path.
+   * @param cp the checked path */
+  public CompactPath(CheckedMoves cp)
+  {
+    int n = cp.length();
+    dirs = new byte[n];
+    perturbations = new float[n];
+    for (int i=0; i<n; i++)
+    {
+      dirs[i] = (byte)cp.getDir(i);
+      perturbations[i] = cp.getPerturbation(i);
+    }
+    intersecting = cp.hasIntersection();
+  }
+
+  /** Create a compact path from its arrays, which are not copied.
+   * @param dirs directions of the moves
+   * @param perturbations perturbations of the moves, same length as dirs
+   * @param intersecting true if the path is self-crossing */
+  public CompactPath(byte[] dirs, float[] perturbations, boolean intersecting)
+  {
+    if (dirs.length!=perturbations.length)
+      throw new IllegalArgumentException("Arrays of different length");
+    this.dirs = dirs;
+    this.perturbations = perturbations;
+    this.intersecting = intersecting;
+  }
+
+  /** Return true iff the path is self-crossing.
+   * @return true iff an intersection had been detected */
+  public boolean hasIntersection()  {  return intersecting;  }
+
+  /** Return the number of moves of the path.
+   * @return the number of moves */
+  public int length()  {  return dirs.length;  }
+
+  /** Return the character representing the direction of the i-th
+   * move of the checked path.
+   * @param i index of a move within the path
+   * @return character representing the direction of the i-th move */
+  public char getDirName(int i)
+  {  return Direction.letterDir[dirs[i]];  }
+
+  /** Return the direction of the i-th move of the checked path.
+   * @param i index of a move within the path
+   * @return direction of the i-th move */
+  public int getDir(int i)
+  {  return dirs[i];  }
+
+  /** Return the perturbation associated with the i-th move of
+   * the checked path.
+   * @param i index of a move within the path
+   * @return perturbation of the i-th move */
+  public float getPerturbation(int i)
+  {  return perturbations[i];  }
+
+  /** Return the directions of the moves. The array is not copied,
+   * and must not be modified.
+   * @return the directions */
+  public byte[] getDirs()  {  return dirs;  }
+
+  /** Return the perturbations of the moves. The array is not copied,
+   * and must not be modified.
+   * @return the perturbations */
+  public float[] getPerturbations()  {  return perturbations;  }
+}
@@ -29,6 +29,33 @@ public class Direction
    /** Array defining the corresponding character of each direction. */
    public static char[] letterDir = { EAST, NORTH, WEST, SOUTH };
 
+   /** Value returned when decoding a character which is not a direction. */
+   public static final int NO_DIR = -9999;
+   /** Value returned when decoding a white space character. */
+   public static final int BLANK = -1;
+
+   /** Table giving, for each byte value, the direction it represents
+    * (case insensitive), or BLANK for white space, or NO_DIR. */
+   private static final int[] dirOfByte = new int[256];
+   static
+   {
+     java.util.Arrays.fill(dirOfByte, NO_DIR);
+     dirOfByte[' '] = dirOfByte['\t'] = dirOfByte['\n'] = BLANK;
+     dirOfByte['\r'] = dirOfByte['\f'] = dirOfByte[0x0B] = BLANK;
+     dirOfByte['E'] = dirOfByte['e'] = E;
+     dirOfByte['N'] = dirOfByte['n'] = N;
+     dirOfByte['W'] = dirOfByte['w'] = W;
+     dirOfByte['S'] = dirOfByte['s'] = S;
+   }
+
+   /** Decode direction from a byte of a text in ASCII (or a compatible
+    * encoding), through a lookup table.
+    * @param b a byte
+    * @return the direction represented by b (case insensitive),
+    * or BLANK if b is a white space, or NO_DIR otherwise */
+   public static int decodByte(byte b)
+   {  return dirOfByte[b & 0xFF];  }
+
    /** Return true iff the given character represents a direction.
     * @param c a character
     * @return true iff c is one of 'e', 'w', 'n', 's' (case insensitive) */
@@ -54,7 +81,7 @@ public class Direction
        case 'W': case 'w': return W;
        case 'S': case 's': return S;
      }
-     return -9999; // error
+     return NO_DIR; // error
    }
    
    /** Array of four elements storing the x component of the unit vectors 
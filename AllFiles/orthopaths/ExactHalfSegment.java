@@ -0,0 +1,161 @@
+package orthopaths;
+
+/**
+ * <P>Half segment whose perturbation is an integer label in the list
+ * of the segments lying on the same edge (see class PerturbationOrder),
+ * instead of a floating point number. The two halves of a segment
+ * share the same label.</P>
+ * <P>The order is the same as with floating point perturbations, but
+ * placing a half segment between two others never fails for lack of
+ * precision, and comparisons are comparisons of long integers.
+ * The perturbation for drawing is computed from the label on demand.</P>
+ * <P>All half segments compared with an exact half segment must be
+ * exact as well (see class ExactPathChecker).</P>
+ */
+public class ExactHalfSegment extends HalfSegment
+{
+  /** Label of the segment, null if the perturbation is not set. */
+  protected PerturbationOrder.Label label = null;
+
+  /** Create a new half segment, given name, starting point and direction.
+   * @param name the name of the half segment
+   * @param point the starting point
+   * @param dir the direction, it must be in {0,1,2,3} */
+  public ExactHalfSegment(int name, Vertex point, int dir)
+  {  super(name, point, dir);  }
+
+  /** Create the other half of the same segment, given the other
+   * endpoint. It shares the label of this half segment.
+   * @param point the starting point of the opposite half segment
+   * @param name the name of the opposite half segment
+   * @return a half segment starting at point and having direction
+   * opposite to this one */
+  public HalfSegment makeOpposite(Vertex point, int name)
+  {
+    ExactHalfSegment s = new ExactHalfSegment(name, point,
+                                              Direction.oppositeDir(dir));
+    s.opposite = this;
+    this.opposite = s;
+    s.label = this.label;
+    return s;
+  }
+
+  /** Create the mate half segment in the same vertex, given the direction.
+   * @param dir the direction of the mate, it must be in {0,1,2,3} and
+   * different from the direction of this half segment
+   * @param name the name of the mate
+   * @return the created mate */
+  public HalfSegment makeMate(int dir, int name)
+  {
+    ExactHalfSegment s = new ExactHalfSegment(name, this.start, dir);
+    s.mate = this;
+    this.mate = s;
+    return s;
+  }
+
+  /** Given another half segment, with the same starting point
+   * and same direction as this one, test if this half segment lies
+   * before the other one in counterclockwise order, based on labels.
+   * @param other another exact half segment, which must have same
+   * starting point and same direction as this one.
+   * @return true iff this half segment is before the other one */
+  public boolean equalBefore(HalfSegment other)
+  {
+    if (speaking)
+      System.out.println("  equal_before, segments are:\n"+ this+"\n"+other);
+    PerturbationOrder.Label l = ((ExactHalfSegment)other).label;
+    if (label==l)
+      System.out.println("ERR equal perturbation="+label);
+    if ((label==null) || (l==null)) return false;
+    if ((dir==0) || (dir==3)) // EAST or SOUTH
+      return l.value>label.value;
+    else // NORTH or WEST
+      return l.value<label.value;
+  }
+
+  /** Compare the positions of this half segment and of another one
+   * in counterclockwise order, based on labels.
+   * @param other another exact half segment, which must have same
+   * starting point and same direction as this one.
+   * @return a negative number if this half segment is before the other
+   * one, zero if they have the same label, a positive number if
+   * it is after the other one */
+  protected int ccwCompare(HalfSegment other)
+  {
+    int c = Long.compare(label.value, ((ExactHalfSegment)other).label.value);
+    if ((dir==0) || (dir==3)) // EAST or SOUTH
+      return c;
+    else // NORTH or WEST
+      return -c;
+  }
+
+  /** Given the two half segments succ and prec (with the same start point
+   * and same direction as this one), if possible, give this half segment
+   * a label placing it between prec and succ in counterclockwise order
+   * around the starting point, and return true; otherwise, return false.
+   * Without constraints, a half segment which already has a label
+   * (an entering half segment) keeps it, otherwise it is the first
+   * segment on its edge.
+   * @param prec a half segment with same starting point as this one
+   * @param succ a half segment with same starting point as this one
+   * @return true iff the label of this half segment has been
+   * set in such a way to lie after prec and before succ */
+  public boolean updatePerturb(HalfSegment prec, HalfSegment succ)
+  {
+    if (speaking)
+       System.out.println("--- update_perturb "+this.toString()
+              +"prec="+prec+", succ="+succ);
+    if ((prec!=null) && (prec.dir!=dir)) prec=null;
+    if ((succ!=null) && (succ.dir!=dir)) succ=null;
+    if ((prec==null) && (succ==null)) // no constraint
+    {
+      if (label==null) label = PerturbationOrder.first();
+      return true;
+    }
+    // labels increase counterclockwise for EAST and SOUTH
+    boolean ccw = (dir==0) || (dir==3);
+    PerturbationOrder.Label p = (prec==null) ? null : ((ExactHalfSegment)prec).label;
+    PerturbationOrder.Label s = (succ==null) ? null : ((ExactHalfSegment)succ).label;
+    if (p==null)
+      label = ccw ? s.order.insertBefore(s) : s.order.insertAfter(s);
+    else if (s==null)
+      label = ccw ? p.order.insertAfter(p) : p.order.insertBefore(p);
+    else
+    {
+      if (ccw && (s.value<p.value)) return false;
+      if (!ccw && (s.value>p.value)) return false;
+      label = ccw ? p.order.insertAfter(p) : s.order.insertAfter(s);
+    }
+    return true;
+  }
+
+  /** Make this half segment the opposite of the given one, as far as
+   * the radial order is concerned, see HalfSegment.mirror. It shares
+   * the label of s.
+   * @param s an exact half segment with label */
+  protected void mirror(HalfSegment s)
+  {
+    super.mirror(s);
+    label = ((ExactHalfSegment)s).label;
+  }
+
+  /** Remove the label of this half segment from its list. To be called
+   * when the segment is deleted, on the half segment where the label
+   * was created. */
+  protected void discard()
+  {
+    if (label!=null) label.order.remove(label);
+    label = null;
+  }
+
+  /** Return true iff the label of this half segment is set.
+   * @return true iff the perturbation is defined */
+  public boolean hasPerturbation()  {  return label!=null;  }
+
+  /** Return the perturbation of this half segment, to be used for
+   * drawing the curve, computed from the rank of its label.
+   * @return the perturbation, or UNDEF if it is not set */
+  public float getPerturbation()
+  {  return (label==null) ? UNDEF : label.perturbation();  }
+
+}
@@ -0,0 +1,79 @@
+package orthopaths;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <P>Path checker using exact perturbations: half segments are
+ * ExactHalfSegment objects, ordered by integer labels instead of
+ * floating point numbers (see class PerturbationOrder).</P>
+ * <P>It performs the same steps as class PathChecker, and gives the
+ * same answers as long as floating point perturbations do not run out
+ * of precision. When they do (e.g., with the motif of figure12_*.dat
+ * repeated many times and PathChecker.REBALANCE false, where PathChecker
+ * prints "ERR equal perturbation" and may find false crossings), this
+ * checker still gives the correct answer, without calling
+ * adjustPerturbations. It never rescales a whole edge, as PathChecker
+ * does to keep floating point perturbations apart.
+ * The perturbations of the checked path are computed from the labels
+ * when they are asked for.</P>
+*/
+public class ExactPathChecker extends PathChecker
+{
+  /** Create a new path checker, using the default kind of dictionary. */
+  public ExactPathChecker()
+  {  this(DEFAULT_DICTIONARY);  }
+
+  /** Create a new path checker, using the given kind of dictionary.
+   * @param dictKind kind of vertex set, one of VertexSet.LIST,
+   * VertexSet.HASH, VertexSet.MORTON */
+  public ExactPathChecker(int dictKind)
+  {  super(dictKind);  }
+
+  /** Create the first half segment of a path, an exact one.
+   * @param name the name of the half segment
+   * @param point the starting point
+   * @param dir the direction
+   * @return a new exact half segment */
+  protected HalfSegment newHalfSegment(int name, Vertex point, int dir)
+  {  return new ExactHalfSegment(name, point, dir);  }
+
+  /** Undo the last testing step as in PathChecker. When the last
+   * segment is removed, its label is removed as well.
+   * @return true iff there was something to undo */
+  public boolean undoTest()
+  {
+    HalfSegment removed = null;
+    if ((lastSeg!=null) && !output.intersecting) removed = lastSeg;
+    boolean done = super.undoTest();
+    if (removed!=null) ((ExactHalfSegment)removed).discard();
+    return done;
+  }
+
+  /** Nothing to do: there is always room between two labels. However,
+   * the perturbations computed from the labels of the other half
+   * segments on the same edge change, so they are counted as rescaled
+   * (see getRescales).
+   * @param radial_list the radial list of the vertex of the last move
+   * @param node the node containing the exiting half segment */
+  protected void rebalance(HalfSegmentSkipList radial_list,
+                           HalfSegmentSkipList.Node node)
+  {
+    int dir = node.content.dir;
+    if ((node.prev.content.dir==dir) || (node.next.content.dir==dir))
+      rescales++;
+  }
+
+  /** Nothing to do: the perturbations computed from the labels are
+   * always at distance at least 1. */
+  public void adjustPerturbations()
+  {
+  }
+
+  /** Nothing to do: the perturbations computed from the labels are
+   * already consecutive integers on each edge.
+   * @param pool not used */
+  public void normalizePerturbations(ForkJoinPool pool)
+  {
+  }
+
+}
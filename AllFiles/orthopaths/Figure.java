@@ -0,0 +1,161 @@
+package orthopaths;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.*;
+
+/** <P>Image of a path as drawn by CommandCheck: starting point, unit
+ * grid, raw curve in yellow and curve with perturbations in black.</P>
+ * <P>Unlike VisualCheck, which reads and updates the static fields
+ * BIG_FACTOR and PERTURB, a figure keeps its own scale and perturbation
+ * factor, taken from them when it is created, so that several figures
+ * with different zoom factors can be checked and drawn at the same
+ * time by different threads (see FigureBatch). The drawing is done by
+ * PathDrawing, as in VisualCheck.</P>
+ */
+public class Figure
+{
+  /** The path as given, drawn as raw curve. */
+  protected final String rawPath;
+  /** Path checker of the path, null if the figure was taken from a
+   * panel. */
+  protected PathChecker checker;
+  /** The checked path, null if there are no moves. */
+  protected PathChecker.CheckedPath path;
+  /** Limits of the drawing, as in VisualCheck. */
+  protected float minX = -1, maxX = 7, minY = -1, maxY = 4;
+  /** Point where the drawing starts. */
+  protected int initX, initY;
+  /** Length of a unit segment, in pixels (see VisualCheck.BIG_FACTOR). */
+  protected float scale;
+  /** Offset of a perturbation equal to 1 (see VisualCheck.PERTURB). */
+  protected float perturb;
+  /** If true, draw just the raw curve. */
+  protected boolean onlyRaw;
+  /** Color of the background. */
+  protected Color background;
+
+  /** Create the figure of a path, checked as VisualCheck does move by
+   * move (see VisualCheck.performMove), from point (0,0), by a new
+   * PathChecker. The scale and the perturbation factor are the current
+   * values of VisualCheck.BIG_FACTOR and VisualCheck.PERTURB.
+   * @param rawPath the path, already validated
+   * @param x x of the point where the drawing starts
+   * @param y y of the point where the drawing starts */
+  public Figure(String rawPath, int x, int y)
+  {
+    this.rawPath = rawPath;
+    initX = x;
+    initY = y;
+    scale = VisualCheck.BIG_FACTOR;
+    perturb = VisualCheck.PERTURB;
+    background = UIManager.getColor("Panel.background");
+    checker = new PathChecker();
+    for (int i=0; i<rawPath.length(); i++)
+    {
+      int dir = Direction.decodDir(rawPath.charAt(i));
+      if (i==0) checker.startTest(0,0, dir);
+      else checker.continueTest(dir);
+      updateLimits(checker.getLastPoint());
+    }
+    if (rawPath.length()>0) path = checker.getCheckedPath();
+  }
+
+  /** Create the figure of the path drawn in a panel, with the current
+   * values of VisualCheck.BIG_FACTOR and VisualCheck.PERTURB.
+   * @param vc the panel
+   * @param x x of the point where the drawing starts
+   * @param y y of the point where the drawing starts */
+  public Figure(VisualCheck vc, int x, int y)
+  {
+    rawPath = vc.rawPath;
+    path = vc.path;
+    minX = vc.minX;
+    maxX = vc.maxX;
+    minY = vc.minY;
+    maxY = vc.maxY;
+    initX = x;
+    initY = y;
+    scale = VisualCheck.BIG_FACTOR;
+    perturb = VisualCheck.PERTURB;
+    onlyRaw = vc.onlyRaw;
+    background = vc.getBackground();
+  }
+
+  /** Update the limits of the drawing with a new point of the path,
+   * as VisualCheck.updateLimits.
+   * @param p the point */
+  protected void updateLimits(Vertex p)
+  {
+    int x = p.x, y = p.y;
+    if ((x-1>=minX)&&(x+1<=maxX)&&
+        (y-1>=minY)&&(y+1<=maxY)) return;
+    if (x+1>maxX) maxX = x+1;
+    else if (x-1<minX) minX = x-1;
+    if (y+1>maxY) maxY = y+1;
+    else if (y-1<minY) minY = y-1;
+  }
+
+  /** Return the path checker of the path.
+   * @return the path checker, null if the figure was taken from a
+   * panel */
+  public PathChecker getChecker()  {  return checker;  }
+
+  /** Return the checked path.
+   * @return the checked path, null if there are no moves */
+  public PathChecker.CheckedPath getPath()  {  return path;  }
+
+  /** Multiply the scale of the figure by a zoom factor.
+   * @param f the zoom factor */
+  public void zoom(float f)  {  scale *= f;  }
+
+  /** Return the length of a unit segment, in pixels.
+   * @return the scale */
+  public float getScale()  {  return scale;  }
+
+  /** Return the offset of a perturbation equal to 1.
+   * @return the perturbation factor */
+  public float getPerturbFactor()  {  return perturb;  }
+
+  /** Return the drawing of the figure, with its scale and perturbation
+   * factor.
+   * @return the drawing */
+  public PathDrawing drawing()
+  {  return new PathDrawing(scale, perturb, minX, maxX, minY, maxY);  }
+
+  /** Draw the starting point, the grid, the raw curve and the curve
+   * with perturbations into a new image, as large as the drawing.
+   * @return the image */
+  public BufferedImage render()
+  {
+     int dim1 = (int)(scale*(maxX-minX+2));
+     int dim2 = (int)(scale*(maxY-minY+2));
+     BufferedImage imm = new BufferedImage(dim1, dim2, BufferedImage.TYPE_INT_RGB);
+     Graphics2D grimm = imm.createGraphics();
+     grimm.setColor(background);
+     grimm.fillRect(0, 0, dim1, dim2);
+     grimm.setStroke(new BasicStroke(1.0f));
+     PathDrawing dr = drawing();
+     // Draw the first raw point
+     grimm.setColor(Color.green);
+     int xi = dr.mapX(initX);
+     int yi = dr.mapY(initY);
+     grimm.fillRect(xi-4, yi-4, 8,8);
+     // Draw the grid
+     grimm.setColor(new Color(200,200,200));
+     dr.drawGrid(grimm);
+     if ((rawPath!=null)&&(rawPath.length()>0))
+     {  // ------------- Draw the raw curve in yellow
+        grimm.setColor(Color.yellow);
+        dr.drawRawCurve(grimm, rawPath, initX, initY);
+     }
+     if ((!onlyRaw) && (path!=null)&&(path.length()>0))
+     {  // ------------- Draw the curve
+        grimm.setColor(Color.black);
+        dr.drawCurve(grimm, path, initX, initY);
+     }
+     grimm.dispose();
+     return imm;
+  }
+
+}
@@ -0,0 +1,319 @@
+package orthopaths;
+
+import java.awt.image.*;
+import javax.imageio.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** <P>This class creates many figures in a single Java virtual machine,
+ * as many runs of CommandCheck would do. Each job is given by a spec in
+ * the format read by CommandCheck.main: the path, the figure name, the
+ * coordinates of the starting point for drawing, then the options -R,
+ * -N, -Z factor, -SVG, -EPS, -TILES.</P>
+ * <P>A job goes through four stages: parse (read and validate the
+ * spec), check (check the path and apply the options), render (draw the
+ * image, see class Figure) and encode (write the png file, and the
+ * vector files or the tile pyramid if asked for). Each stage is a task
+ * of a fork-join pool in asynchronous mode: after a stage the job is
+ * submitted again for the next one, behind the stages of the other
+ * jobs, so that the stages of different jobs run at the same time on
+ * all the threads of the pool. At most JOBS_PER_THREAD jobs per thread
+ * are in progress at a time, which bounds the memory taken by images
+ * waiting to be encoded.</P>
+ * <P>Jobs share no state: each one has its own path checker and its
+ * own scale (see class Figure), so the static fields of VisualCheck
+ * are never changed. A job which fails is reported and does not stop
+ * the others.</P>
+ */
+public class FigureBatch
+{
+  /** Maximum number of jobs in progress, per thread of the pool. */
+  public static int JOBS_PER_THREAD = 2;
+
+  /** Stages of a job. */
+  public static final int PARSE = 0, CHECK = 1, RENDER = 2, ENCODE = 3,
+                          DONE = 4;
+
+  /** Pool running the stages of the jobs. */
+  protected final ForkJoinPool pool;
+  /** Permits for the jobs in progress. */
+  protected final Semaphore slots;
+  /** Number of permits of slots. */
+  protected final int maxJobs;
+  /** Number of jobs completed, and of those which failed. */
+  protected final AtomicInteger done = new AtomicInteger(),
+                                failed = new AtomicInteger();
+
+  /** Create a batch on a new pool, with one thread per processor. */
+  public FigureBatch()
+  {  this(Runtime.getRuntime().availableProcessors());  }
+
+  /** Create a batch on a new pool in asynchronous mode.
+   * @param threads number of threads of the pool */
+  public FigureBatch(int threads)
+  {
+    this(new ForkJoinPool(threads,
+             ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true));
+  }
+
+  /** Create a batch.
+   * @param pool the fork-join pool running the jobs, it should be in
+   * asynchronous mode so that jobs are served in order */
+  public FigureBatch(ForkJoinPool pool)
+  {
+    this.pool = pool;
+    maxJobs = JOBS_PER_THREAD*pool.getParallelism();
+    slots = new Semaphore(maxJobs);
+  }
+
+  /** One figure to create. */
+  protected class Job implements Runnable
+  {
+    /** File containing the spec, null if the spec is given. */
+    protected final String file;
+    /** The spec, null until it is read from file. */
+    protected String spec;
+    /** Next stage to run. */
+    protected int stage = PARSE;
+    /** The path. */
+    protected String path;
+    /** The figure name, without extension. */
+    protected String name;
+    /** Point where the drawing starts. */
+    protected int initX, initY;
+    /** Options following the starting point. */
+    protected String[] options;
+    /** The figure, after the check. */
+    protected Figure figure;
+    /** The image, after rendering, until encoding. */
+    protected BufferedImage image;
+    /** Names of the vector files to write. */
+    protected ArrayList<String> vectorNames = new ArrayList<String>();
+    /** True if a tile pyramid is written instead of the png image. */
+    protected boolean tiles = false;
+
+    /** Create a job.
+     * @param file the file containing the spec, or null
+     * @param spec the spec, or null if it is in the file */
+    protected Job(String file, String spec)
+    {
+      this.file = file;
+      this.spec = spec;
+    }
+
+    /** Run the next stage, then submit the job again for the following
+     * one, until the job is done or fails. */
+    public void run()
+    {
+      try
+      {
+        switch (stage)
+        {
+          case PARSE:  parse(); break;
+          case CHECK:  check(); break;
+          case RENDER: render(); break;
+          case ENCODE: encode(); break;
+        }
+        stage++;
+      }
+      catch (Throwable exc)
+      {
+        System.err.println("Error in job "+this+": "+exc);
+        failed.incrementAndGet();
+        stage = DONE;
+      }
+      if (stage<DONE) pool.execute(this);
+      else
+      {
+        figure = null;
+        image = null;
+        done.incrementAndGet();
+        slots.release();
+      }
+    }
+
+    /** Read the spec, validate the path and parse the starting point.
+     * @throws IOException if the file cannot be read or the spec
+     * is not correct */
+    protected void parse() throws IOException
+    {
+      if (spec==null)
+        spec = new String(Files.readAllBytes(Paths.get(file)),
+                          StandardCharsets.ISO_8859_1);
+      String[] tokens = spec.trim().split("\\s+");
+      if (tokens.length<4)
+        throw new IOException("Spec must contain path, name and starting point");
+      path = tokens[0].toUpperCase();
+      PathUtils.Validation val = PathUtils.validate(path);
+      if (!val.isGood())
+      {
+        // as VisualCheck.setPathToCheck, keep the first part if any
+        if (val.problemIndex<=0) throw new IOException(val.problem);
+        System.err.println("Error at position "+val.problemIndex+" in job "+
+             this+": "+val.problem+", only the first part will be set");
+        path = path.substring(0, (int)val.problemIndex);
+      }
+      name = tokens[1];
+      try
+      {
+        initX = Integer.parseInt(tokens[2]);
+        initY = Integer.parseInt(tokens[3]);
+      }
+      catch (NumberFormatException exc)
+      {  throw new IOException("Wrong starting point "+tokens[2]+" "+tokens[3]);
+      }
+      options = Arrays.copyOfRange(tokens, 4, tokens.length);
+    }
+
+    /** Check the path and apply the options in their order, as
+     * CommandCheck.main.
+     * @throws IOException if an option is not correct */
+    protected void check() throws IOException
+    {
+      figure = new Figure(path, initX, initY);
+      for (int i=0; i<options.length; i++)
+      {
+        String st = options[i];
+        if (st.equalsIgnoreCase("-R"))
+          figure.getChecker().adjustPerturbations();
+        else if (st.equalsIgnoreCase("-SVG") || st.equalsIgnoreCase("-EPS"))
+          vectorNames.add(name + "." + st.substring(1).toLowerCase());
+        else if (st.equalsIgnoreCase("-TILES"))
+          tiles = true;
+        else if (st.equalsIgnoreCase("-N"))
+          figure.getChecker().normalizePerturbations(pool);
+        else if (st.equalsIgnoreCase("-Z"))
+        {
+          if (i+1==options.length) throw new IOException("Missing zoom factor");
+          try
+          {  figure.zoom(Float.parseFloat(options[++i]));
+          }
+          catch (NumberFormatException exc)
+          {  throw new IOException("Wrong zoom factor "+options[i]);
+          }
+        }
+        else
+          System.err.println("Unknown option "+st+" in job "+this);
+      }
+    }
+
+    /** Draw the image, unless a tile pyramid is asked for. */
+    protected void render()
+    {
+      if (!tiles) image = figure.render();
+    }
+
+    /** Write the vector files, then the tile pyramid or the png image.
+     * @throws IOException if a file cannot be written */
+    protected void encode() throws IOException
+    {
+      for (String vectorName : vectorNames)
+      {
+        VectorExport.write(figure.getPath(), initX, initY, figure.getScale(),
+                           figure.getPerturbFactor(), vectorName);
+        System.out.println("Curve saved to file "+ vectorName);
+      }
+      if (tiles)
+      {
+        new TilePyramid(figure.getPath(), initX, initY, figure.getScale()).write(name, pool);
+        System.out.println("Tiles saved to "+ name +".dzi");
+      }
+      else
+      {
+        ImageIO.write(image, "png", new File(name + ".png"));
+        System.out.println("Image saved to file "+ name + ".png");
+      }
+    }
+
+    /** Return a string identifying the job.
+     * @return the file name, or the figure name */
+    public String toString()
+    {
+      if (file!=null) return file;
+      return (name==null) ? spec : name;
+    }
+  }
+
+  /** Add a job whose spec is in a file. If too many jobs are in
+   * progress, wait until one is done.
+   * @param file name of the file */
+  public void addFile(String file)
+  {  add(new Job(file, null));  }
+
+  /** Add a job given by its spec. If too many jobs are in progress,
+   * wait until one is done.
+   * @param spec the spec, in the format of CommandCheck */
+  public void addSpec(String spec)
+  {  add(new Job(null, spec));  }
+
+  /** Start a job, as soon as it is allowed.
+   * @param job the job */
+  protected void add(Job job)
+  {
+    slots.acquireUninterruptibly();
+    pool.execute(job);
+  }
+
+  /** Wait until all the jobs added so far are done. */
+  public void await()
+  {
+    slots.acquireUninterruptibly(maxJobs);
+    slots.release(maxJobs);
+  }
+
+  /** Return the number of jobs done so far, successful or not.
+   * @return the number of jobs done */
+  public int getDone()  {  return done.get();  }
+
+  /** Return the number of jobs which failed so far.
+   * @return the number of failed jobs */
+  public int getFailed()  {  return failed.get();  }
+
+  /** Stop the pool, after all the jobs are done. */
+  public void shutdown()
+  {
+    await();
+    pool.shutdown();
+  }
+
+  /** MAIN PROGRAM.
+   * Create the figures of all the spec files given on the command line
+   * (as the .dat files read by CommandCheck). If no file is given, read
+   * the specs from standard input, one per line. Option -T followed by
+   * a number, before the files, sets the number of threads (default:
+   * the number of processors). No window is created, so the program can
+   * run in headless mode (java -Djava.awt.headless=true).
+   * @param arg command line arguments */
+  public static void main(String[] arg) throws IOException
+  {
+    int k = 0;
+    int threads = Runtime.getRuntime().availableProcessors();
+    if ((arg.length>1) && arg[0].equalsIgnoreCase("-T"))
+    {
+      threads = Integer.parseInt(arg[1]);
+      k = 2;
+    }
+    long t0 = System.nanoTime();
+    FigureBatch batch = new FigureBatch(threads);
+    if (k==arg.length)
+    {
+      BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+      String line;
+      while ((line = in.readLine())!=null)
+        if (!line.trim().isEmpty()) batch.addSpec(line);
+    }
+    else
+      for (; k<arg.length; k++) batch.addFile(arg[k]);
+    batch.shutdown();
+    System.out.printf("%d figures in %.2f s with %d threads, %d failed%n",
+       batch.getDone(), (System.nanoTime()-t0)/1e9, threads, batch.getFailed());
+    if (batch.getFailed()>0) System.exit(1);
+  }
+
+}
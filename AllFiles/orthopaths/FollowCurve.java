@@ -20,19 +20,19 @@ public class FollowCurve
   public static String stringForPath(String s, boolean rev)
   {
     int i;
-    String st = "";
+    StringBuilder st = new StringBuilder(2*s.length());
     if (rev)
      for (i=s.length()-1; i>=0; i--)
      {
        char d = Direction.oppositeDir(s.charAt(i));
-       st = st +" "+d;
+       st.append(' ').append(d);
      }
     else
      for (i=0; i<s.length(); i++)
      {
-       st = st +" "+s.charAt(i); 
+       st.append(' ').append(s.charAt(i)); 
      }
-    return st;
+    return st.toString();
   }
   
   /** Return a string from a modified path. The result is a string of 
@@ -45,26 +45,33 @@ public class FollowCurve
   public static String stringForPath(PathChecker.CheckedPath pp, boolean rev)
   {
     int i;
-    String st = "";
+    StringBuilder st = new StringBuilder(5*pp.length());
     if (rev)
      for (i=pp.length()-1; i>=0; i--)
      {
        char d = Direction.oppositeDir(pp.getDirName(i));
-       float pert = pp.getPerturbation(i);
-       int rounded = (int)pert;
-       if (pert==(float)rounded) st += " "+d+" "+rounded;
-       else st += " "+d+" "+pert;
+       appendMove(st, d, pp.getPerturbation(i));
      }
     else
      for (i=0; i<pp.length(); i++)
      {
-       char d = pp.getDirName(i);
-       float pert = pp.getPerturbation(i);
-       int rounded = (int)pert;
-       if (pert==(float)rounded) st += " "+d+" "+rounded;
-       else  st += " "+d+" "+pert;
+       appendMove(st, pp.getDirName(i), pp.getPerturbation(i));
      }
-    return st;
+    return st.toString();
+  }
+
+  /** Append a move to a string, as a blank space, the letter of its
+   * direction, a blank space and its perturbation (without decimals
+   * if it is an integer).
+   * @param st the string
+   * @param d the letter of the direction
+   * @param pert the perturbation */
+  protected static void appendMove(StringBuilder st, char d, float pert)
+  {
+    int rounded = (int)pert;
+    st.append(' ').append(d).append(' ');
+    if (pert==(float)rounded) st.append(rounded);
+    else st.append(pert);
   }
   
   /** MAIN PROGRAM. 
@@ -72,6 +79,9 @@ public class FollowCurve
    * read a path string from the file and check it.
    * On a file having the same name as the input one, with prefix
    * "out_", write the original path and the checked version.
+   * With option -B after the file name, write also the checked version
+   * in binary format (see CheckedPathFile) on a file with the same
+   * name and extension .cpf.
    * <BR>
    * If the path is self intersecting, the checked version will
    * stop at the detected intersection.
@@ -105,6 +115,8 @@ public class FollowCurve
     output_file.println(stringForPath(input_path,false));
     // 2) write perturbed path
     output_file.println(stringForPath(output,false));
+    if ((arg.length>1) && arg[1].equalsIgnoreCase("-B"))
+      CheckedPathFile.write(output, "out_"+arg[0]+".cpf");
   }
             
 }
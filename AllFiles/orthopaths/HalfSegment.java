@@ -16,19 +16,32 @@ package orthopaths;
  * define a relative order between two segments with the same direction
  * incident in the same starting point (see class HalfSegmentSkipList)
  * and to draw the curve without intersections.</P>
+ * <P>Perturbations are floating point numbers: a new half segment
+ * placed between two others gets the midpoint of their perturbations,
+ * so precision is exhausted after a few tens of nested insertions,
+ * unless the perturbations of the segments on the same edge are spread
+ * again when they get closer than MIN_SPACING (see
+ * HalfSegmentSkipList.rebalance). Subclass ExactHalfSegment keeps the
+ * same order with integer labels instead.</P>
  */
 public class HalfSegment
 {
   /** If this is true, print debug information during the operations. */
   public static boolean speaking = false;
   
-  /** Conventional constant meaning undefined perturbation. */
-  protected static final float UNDEF = 99999;
+  /** Conventional constant meaning undefined perturbation. It must not
+   * be reached by actual perturbations, which grow by 1 at each segment
+   * added at the end of an edge. */
+  protected static final float UNDEF = Float.MAX_VALUE;
+  /** Minimum distance between the perturbations of two consecutive
+   * segments on the same edge, relative to the perturbations (and at
+   * least 1). Below it, they are spread again (see
+   * HalfSegmentSkipList.relabel). Distances of at least 1/2 are always
+   * enough, since rescaling would not make them larger than 1. */
+  public static float MIN_SPACING = 1.0f/65536;
   
-  /** Counter of created segments. */
-  protected static int COUNT = 0;
-  
-  /** Name of the segment (progressive number). */
+  /** Name of the segment (progressive number, assigned by the
+   * path checker creating it). */
   public final int name;
   /** One endpoint of the segment, starting point of the half segment. */
   protected final Vertex start;
@@ -42,19 +55,24 @@ public class HalfSegment
    * for a vertical segment and to the y coordinate for a horizontal
    * segment. */
   protected float perturb;
+  /** Node containing this half segment in the radial list of its
+   * starting point, null if it is not in the list. It allows to remove
+   * the half segment without searching (see HalfSegmentSkipList.remove). */
+  protected HalfSegmentSkipList.Node node;
 
-  /** Create a new half segment, given starting point and direction.
+  /** Create a new half segment, given name, starting point and direction.
+   * @param name the name of the half segment
    * @param point he starting point
    * @param dir the direction, it must be in {0,1,2,3} */
-  public HalfSegment(Vertex point, int dir)
+  public HalfSegment(int name, Vertex point, int dir)
   {
-    COUNT ++;
-    this.name = COUNT;
+    this.name = name;
     this.start = point;
     this.dir = dir;
     this.opposite = null;
     this.mate = null;
     this.perturb = UNDEF;
+    this.node = null;
   }
  
   /** Return a string representing this half segment.
@@ -62,19 +80,20 @@ public class HalfSegment
   public String toString()
   {
     return "HalfSegment "+name+": " +start.toString()+
-       " dir "+Direction.letterDir[dir]+", pert "+perturb;
+       " dir "+Direction.letterDir[dir]+", pert "+getPerturbation();
   }
 
   /** Create the other half of the same segment, given the other endpoint.
    * @param point he starting point of the opposite half segment
+   * @param name the name of the opposite half segment
    * @return a half segment starting at point and having direction
    * opposite to this one
    */
-  public HalfSegment makeOpposite(Vertex point)
+  public HalfSegment makeOpposite(Vertex point, int name)
   {
     int dir1;
     if (this.dir>=2) dir1 = this.dir-2; else dir1 = this.dir+2;
-    HalfSegment s = new HalfSegment(point, dir1);
+    HalfSegment s = new HalfSegment(name, point, dir1);
     s.opposite = this;
     this.opposite = s;
     s.perturb = this.perturb;
@@ -84,10 +103,11 @@ public class HalfSegment
   /** Create the mate half segment in the same vertex, given the direction.
    * @param dir the direction of the mate, it must be in {0,1,2,3} and
    * different from the direction of this half segment
+   * @param name the name of the mate
    * @return the created mate */
-  public HalfSegment makeMate(int dir)
+  public HalfSegment makeMate(int dir, int name)
   {
-    HalfSegment s = new HalfSegment(this.start, dir);
+    HalfSegment s = new HalfSegment(name, this.start, dir);
     s.mate = this;
     this.mate = s;
     return s;
@@ -114,6 +134,24 @@ public class HalfSegment
        return other.perturb<perturb;
   }
   
+  /** Given another half segment, with the same starting point
+   * and same direction as this one, compare their positions in
+   * counterclockwise order, based on perturbations. Unlike equalBefore,
+   * nothing is printed and perturbations must be defined.
+   * @param other another half segment, which must have same starting point
+   * and same direction as this one.
+   * @return a negative number if this half segment is before the other
+   * one, zero if they have the same perturbation, a positive number if
+   * it is after the other one */
+  protected int ccwCompare(HalfSegment other)
+  {
+    int c = (perturb<other.perturb) ? -1 : ((perturb>other.perturb) ? 1 : 0);
+    if ((dir==0) || (dir==3)) // EAST or SOUTH
+      return c;
+    else // NORTH or WEST
+      return -c;
+  }
+
   /** Test if this half segment lies in the radial sector from seg1 to seg2
    * in counterclockwise order. Call the function with same name and
    * additional boolean parameter (setting it to false).
@@ -156,6 +194,58 @@ public class HalfSegment
     return true;          
   }
 
+  /** Test if a new half segment in direction d, whose perturbation is
+   * still to be set, can lie in the radial sector from seg1 to seg2 in
+   * counterclockwise order, as isBetween(seg1, seg2, true) would find,
+   * without setting anything.
+   * @param d a direction
+   * @param seg1 a half segment with the same starting point
+   * @param seg2 a half segment with the same starting point
+   * @return true iff a perturbation placing it there exists */
+  protected static boolean fits(int d, HalfSegment seg1, HalfSegment seg2)
+  {
+    int d1 = seg1.dir, d2 = seg2.dir;
+    if (d1==d2) return (d==d1) && (seg1.ccwCompare(seg2)<=0);
+    if (d1<d2) return (d>=d1) && (d<=d2);
+    return (d>=d1) || (d<=d2);
+  }
+
+  /** Test if a new half segment in direction d, whose perturbation is
+   * still to be set, lies strictly inside the radial sector from seg1
+   * to seg2 in counterclockwise order, as isBetween(seg1, seg2, false)
+   * would find.
+   * @param d a direction
+   * @param seg1 a half segment with the same starting point
+   * @param seg2 a half segment with the same starting point
+   * @return true iff direction d is strictly inside the sector */
+  protected static boolean inside(int d, HalfSegment seg1, HalfSegment seg2)
+  {  return inside(d, seg1.dir, seg2.dir);  }
+
+  /** Test if direction d is strictly inside the radial sector from
+   * direction d1 to direction d2 in counterclockwise order.
+   * @param d a direction
+   * @param d1 a direction
+   * @param d2 a direction
+   * @return true iff d is strictly inside the sector, always false
+   * if d1 and d2 are equal */
+  protected static boolean inside(int d, int d1, int d2)
+  {
+    if (d1==d2) return false;
+    if (d1<d2) return (d>d1) && (d<d2);
+    return (d>d1) || (d<d2);
+  }
+
+  /** Make this half segment the opposite of the given one, as far as
+   * the radial order is concerned: it gets the opposite direction and
+   * the same perturbation, but no pointer is changed. Used to locate,
+   * without creating it, the half segment entering the endpoint of s.
+   * @param s a half segment with perturbation */
+  protected void mirror(HalfSegment s)
+  {
+    dir = Direction.oppositeDir(s.dir);
+    perturb = s.perturb;
+  }
+
   /** Set the perturbation of this half segment to zero.
    * To be called when there are no constraints.
    * @return always true */
@@ -197,6 +287,29 @@ public class HalfSegment
     return true;
   }
   
+  /** Return the minimum distance allowed by MIN_SPACING between
+   * a perturbation p and the next one.
+   * @param p a perturbation
+   * @return the minimum distance, at most 1/2 */
+  protected static float minSpacing(float p)
+  {  return Math.min(0.5f, MIN_SPACING*Math.max(1.0f, Math.abs(p)));  }
+
+  /** Test if two perturbations are closer than allowed by MIN_SPACING.
+   * @param p a perturbation
+   * @param q another perturbation
+   * @return true iff the distance between p and q is too small */
+  protected static boolean tooClose(float p, float q)
+  {  return Math.abs(p-q)<minSpacing(p);  }
+
+  /** Return true iff the perturbation of this half segment is set.
+   * @return true iff the perturbation is defined */
+  public boolean hasPerturbation()  {  return perturb!=UNDEF;  }
+
+  /** Return the perturbation of this half segment, to be used for
+   * drawing the curve.
+   * @return the perturbation */
+  public float getPerturbation()  {  return perturb;  }
+
   /** Return the other half segment incident in the same vertex.
    * @return the mate half segment */
   public HalfSegment getMate() { return mate; }
@@ -9,11 +9,41 @@ package orthopaths;
  * All half segments in a skip list have the same starting point,
  * and are radially sorted in counterclockwise order.
  * In the overall program, a skip list is associated with each vertex.
+ * <P>When the list has at least TREE_THRESHOLD nodes, the nodes of
+ * each direction are also kept in a balanced binary search tree
+ * (a treap, with subtree sizes), in counterclockwise order, i.e.,
+ * by perturbation. Then addEntering finds its place in O(log d)
+ * time instead of scanning the whole list. Smaller lists are just
+ * scanned. If the perturbations turn out to be inconsistent with the
+ * order of the list (equal perturbations, or perturbations changed
+ * by adjustPerturbations), the trees are dropped and the list is
+ * scanned as before, so that the result is always the same.</P>
+ * <P>When the trees are kept and the walk of addExiting over the pairs
+ * of mates gets longer than EXIT_WALK pairs, all the nodes are also
+ * kept in a sequence tree, in the order of the list. Each node is labelled
+ * +1 if its mate comes later in the sequence and -1 if it comes before
+ * (0 for the entering half segment waiting for its mate), so that the
+ * sum of the labels before a gap between two nodes is the number of
+ * pairs of mates separating the gap from the beginning of the
+ * sequence. The subtrees keep the sum of their labels and the minimum
+ * of their prefix sums. Then addExiting finds in O(log d) time the
+ * first gap reachable from the entering mate without crossing any
+ * sector of a pair of mates, which is where the walk over the pairs
+ * of mates would stop (see exitingGap).</P>
+ * <P>The fields of the trees are kept in a TreeNode and a SeqNode
+ * attached to the node, created only when the node enters a tree,
+ * so that the nodes of small lists carry just two null references.</P>
 */
 public class HalfSegmentSkipList
 {
   /** If true, debug information is printed during the operations. */
   public static boolean speaking = false;
+
+  /** Minimum number of nodes for keeping search trees. */
+  public static int TREE_THRESHOLD = 32;
+  /** Number of pairs of mates skipped by addExiting, walking over the
+   * list, before looking for the place with the trees. */
+  public static int EXIT_WALK = 16;
   
   /** Inner class for the nodes. Each node points to a half segment
    * (the content), to precedent and next nodes in the list, and to
@@ -29,6 +59,12 @@ public class HalfSegmentSkipList
     public Node prev;
     /** Pointer to the node containing the mate half segment. */
     public Node matepos;
+    /** Fields of this node in the search tree of its direction, null
+     * if it has never been in a tree (see TreeNode). */
+    protected TreeNode tree;
+    /** Fields of this node in the sequence tree, null if it has never
+     * been in a sequence tree. */
+    protected SeqNode seq;
     
     /** Create a new node containing the given half segment.
      * @param seg a half segment */
@@ -36,6 +72,102 @@ public class HalfSegmentSkipList
     {
       content = seg;
       next = prev = matepos = null;
+      seg.node = this;
+    }
+
+    /** Return the skip list containing this node.
+     * @return the skip list */
+    public HalfSegmentSkipList getList()
+    {  return HalfSegmentSkipList.this;  }
+  }
+
+  /** Fields of a node in the search tree of its direction, allocated
+   * only for the nodes of lists with search trees (see treeNode).
+   * The priority is not kept, it is computed by priority. */
+  protected static class TreeNode
+  {
+    /** The node of the list. */
+    protected final Node node;
+
+    /** Children and parent in the search tree of its direction. */
+    protected TreeNode left, right, up;
+    /** Number of nodes in the subtree rooted at this node. */
+    protected int size;
+
+    /** Create the tree fields of the given node and attach them to it.
+     * @param node a node of a list */
+    protected TreeNode(Node node)
+    {
+      this.node = node;
+      node.tree = this;
+    }
+  }
+
+  /** Fields of a node in the sequence tree, allocated only for the
+   * nodes of lists with a sequence tree (see seqNode). */
+  protected static class SeqNode
+  {
+    /** The node of the list. */
+    protected final Node node;
+
+    /** Children and parent in the sequence tree. */
+    protected SeqNode seqLeft, seqRight, seqUp;
+    /** Priority in the sequence tree, larger at the root. */
+    protected int prio;
+    /** Number of nodes in the subtree of the sequence tree. */
+    protected int seqSize;
+    /** Label of this node: +1 if its mate comes later in the
+     * sequence, -1 if it comes before, 0 if it has no mate. */
+    protected int label;
+    /** Sum of the labels of the subtree. */
+    protected int sum;
+    /** Minimum sum of the labels from the first node of the subtree
+     * to any node of the subtree. */
+    protected int minSum;
+
+    /** Create the sequence tree fields of the given node and attach
+     * them to it.
+     * @param node a node of a list */
+    protected SeqNode(Node node)
+    {
+      this.node = node;
+      node.seq = this;
+    }
+  }
+
+  /** Journal of the perturbations changed by rebalance, keeping the
+   * half segments as objects (see class PerturbationJournal). */
+  public static class Journal extends PerturbationJournal
+  {
+    /** Half segments of the entries. */
+    protected HalfSegment[] segs = new HalfSegment[16];
+
+    /** Record the current perturbation of a half segment, which is
+     * going to change.
+     * @param seg a half segment */
+    public void record(HalfSegment seg)
+    {
+      int i = add(seg.perturb);
+      if (i==segs.length) segs = java.util.Arrays.copyOf(segs, values.length);
+      segs[i] = seg;
+    }
+
+    /** Set again the recorded perturbation of a half segment, and of
+     * its opposite.
+     * @param i index of an entry */
+    protected void restore(int i)
+    {
+      HalfSegment seg = segs[i];
+      seg.perturb = values[i];
+      if (seg.opposite!=null) seg.opposite.perturb = values[i];
+      segs[i] = null;
+    }
+
+    /** Forget all recorded values, keeping the moves. */
+    public void forget()
+    {
+      java.util.Arrays.fill(segs, 0, size, null);
+      super.forget();
     }
   }
   
@@ -44,6 +176,17 @@ public class HalfSegmentSkipList
   /** Number of nodes. */
   protected int num;
 
+  /** Roots of the search trees of the four directions, null if
+   * the trees are not kept. */
+  protected TreeNode[] roots = null;
+  /** True if the trees were dropped because of inconsistent
+   * perturbations: they are not built again until the list
+   * becomes small. */
+  protected boolean treeFailed = false;
+  /** Root of the sequence tree, null if it is not kept. It is kept
+   * only together with the trees of the directions. */
+  protected SeqNode seqRoot = null;
+
   /** Create an empty skip list. */
   public HalfSegmentSkipList()
   {
@@ -95,9 +238,596 @@ public class HalfSegmentSkipList
     curr.prev.next = node;
     curr.prev = node;
     num ++;
+    if (roots!=null) treeAdd(node);
+    if (seqRoot!=null) seqAttach(node, node.prev);
     return node;
   }
-  
+
+  /** Return true iff half segment a comes before half segment b,
+   * having the same direction, in counterclockwise order.
+   * Equal perturbations are not in order.
+   * @param a a half segment
+   * @param b a half segment with the same direction
+   * @return true iff a is strictly before b */
+  protected static boolean before(HalfSegment a, HalfSegment b)
+  {  return a.ccwCompare(b)<0;  }
+
+  /** Return the priority of a node in the search trees, computed
+   * from the name of its half segment, so that the shape of the trees
+   * does not depend on anything else.
+   * @param n a node
+   * @return the priority of n */
+  protected static int priority(Node n)
+  {
+    int h = n.content.name;
+    h = (h ^ (h>>>16)) * 0x85EBCA6B;
+    h = (h ^ (h>>>13)) * 0xC2B2AE35;
+    return h ^ (h>>>16);
+  }
+
+  /** Return the tree fields of a node, creating them if it has none.
+   * @param n a node
+   * @return the tree fields of n */
+  protected static TreeNode treeNode(Node n)
+  {  return (n.tree!=null) ? n.tree : new TreeNode(n);  }
+
+  /** Return the sequence tree fields of a node, creating them if it
+   * has none.
+   * @param n a node
+   * @return the sequence tree fields of n */
+  protected static SeqNode seqNode(Node n)
+  {  return (n.seq!=null) ? n.seq : new SeqNode(n);  }
+
+  /** Return the number of nodes of the given subtree.
+   * @param t root of a subtree, or null
+   * @return the size of t */
+  protected static int size(TreeNode t)  {  return (t==null) ? 0 : t.size;  }
+
+  /** Return the first node of the given subtree in counterclockwise
+   * order.
+   * @param t root of a subtree, not null
+   * @return the leftmost node of t */
+  protected static TreeNode leftmost(TreeNode t)
+  {
+    while (t.left!=null) t = t.left;
+    return t;
+  }
+
+  /** Return the last node of the given subtree in counterclockwise
+   * order.
+   * @param t root of a subtree, not null
+   * @return the rightmost node of t */
+  protected static TreeNode rightmost(TreeNode t)
+  {
+    while (t.right!=null) t = t.right;
+    return t;
+  }
+
+  /** Rotate node x above its parent in the tree.
+   * @param x a node which has a parent */
+  protected void rotateUp(TreeNode x)
+  {
+    TreeNode p = x.up, g = p.up;
+    if (x==p.left)
+    {
+      p.left = x.right;
+      if (x.right!=null) x.right.up = p;
+      x.right = p;
+    }
+    else
+    {
+      p.right = x.left;
+      if (x.left!=null) x.left.up = p;
+      x.left = p;
+    }
+    p.up = x;
+    x.up = g;
+    if (g==null) roots[x.node.content.dir] = x;
+    else if (g.left==p) g.left = x;
+    else g.right = x;
+    p.size = 1+size(p.left)+size(p.right);
+    x.size = 1+size(x.left)+size(x.right);
+  }
+
+  /** Place node n in the tree of its direction, immediately after
+   * node p, or immediately before node q if p is null, or as the root
+   * if both are null, and restore the priorities.
+   * @param n a node not in the tree
+   * @param p a node of the same direction in the tree, or null
+   * @param q a node of the same direction in the tree, or null */
+  protected void attach(TreeNode n, TreeNode p, TreeNode q)
+  {
+    int prio = priority(n.node);
+    n.left = n.right = null;
+    n.size = 1;
+    TreeNode t;
+    if (p!=null)
+    {
+      if (p.right==null) {  t = p; t.right = n;  }
+      else {  t = leftmost(p.right); t.left = n;  }
+    }
+    else if (q!=null)
+    {
+      if (q.left==null) {  t = q; t.left = n;  }
+      else
+      {
+        t = q.left;
+        while (t.right!=null) t = t.right;
+        t.right = n;
+      }
+    }
+    else
+    {
+      n.up = null;
+      roots[n.node.content.dir] = n;
+      return;
+    }
+    n.up = t;
+    for (; t!=null; t = t.up) t.size++;
+    while ((n.up!=null) && (priority(n.up.node)<prio)) rotateUp(n);
+  }
+
+  /** Add node n, already linked in the list, to the tree of its
+   * direction, in the position given by the list.
+   * If its perturbation is not consistent with its neighbors,
+   * drop the trees.
+   * @param n a node of this list */
+  protected void treeAdd(Node n)
+  {
+    int d = n.content.dir;
+    Node p = n.prev, q = n.next;
+    if ((q.content.dir==d) && !before(n.content, q.content))
+      failTrees();
+    else if (p.content.dir==d)
+    {
+      if (before(p.content, n.content)) attach(treeNode(n), p.tree, null);
+      else failTrees();
+    }
+    else if (roots[d]==null) attach(treeNode(n), null, null);
+    else if (q.content.dir==d) attach(treeNode(n), null, q.tree);
+    else failTrees(); // the nodes of direction d are not contiguous
+  }
+
+  /** Remove node n from the tree of its direction.
+   * @param node a node of this list and of its tree */
+  protected void treeRemove(Node node)
+  {
+    TreeNode n = node.tree;
+    while ((n.left!=null) || (n.right!=null))
+    {
+      TreeNode c;
+      if (n.left==null) c = n.right;
+      else if (n.right==null) c = n.left;
+      else c = (priority(n.left.node)>priority(n.right.node)) ? n.left : n.right;
+      rotateUp(c);
+    }
+    TreeNode p = n.up;
+    if (p==null) roots[node.content.dir] = null;
+    else
+    {
+      if (p.left==n) p.left = null; else p.right = null;
+      for (; p!=null; p = p.up) p.size--;
+    }
+    n.up = null;
+  }
+
+  /** Build the search trees from the list. If the list is not
+   * sorted by perturbations, the trees are not built. */
+  protected void buildTrees()
+  {
+    roots = new TreeNode[4];
+    // start from the first node of a direction
+    Node start = first;
+    for (int k=0; start.prev.content.dir==start.content.dir; k++)
+    {
+      if (k==num) {  failTrees(); return;  }
+      start = start.prev;
+    }
+    Node n = start;
+    for (int i=0; i<num; i++)
+    {
+      int d = n.content.dir;
+      if ((i>0) && (n.prev.content.dir==d))
+      {
+        if (!before(n.prev.content, n.content)) {  failTrees(); return;  }
+        attach(treeNode(n), n.prev.tree, null);
+      }
+      else if (roots[d]==null) attach(treeNode(n), null, null);
+      else {  failTrees(); return;  } // not contiguous
+      n = n.next;
+    }
+  }
+
+  /** Build the sequence tree from the list, in linear time, as a
+   * Cartesian tree of the priorities. If there are U-turns, or half
+   * segments without mate other than the given one, the trees are
+   * dropped.
+   * @param mate_node the only node which may have no mate
+   * @return true iff the sequence tree has been built */
+  protected boolean buildSequence(Node mate_node)
+  {
+    Node n = first;
+    // labels: the mate of a node comes later iff it is not yet labelled
+    for (int i=0; i<num; i++, n = n.next) seqNode(n).label = 0;
+    for (int i=0; i<num; i++, n = n.next)
+    {
+      Node mate = n.matepos;
+      if (n==mate_node) continue;
+      if ((mate==null) || (mate.content.dir==n.content.dir))
+      {  failTrees(); return false;  }
+      n.seq.label = (mate.seq.label==0) ? 1 : -1;
+    }
+    // the right spine of the tree built so far is on the stack; the
+    // subtree of a node is complete when it leaves the stack
+    SeqNode[] stack = new SeqNode[num];
+    int top = 0;
+    for (int i=0; i<num; i++, n = n.next)
+    {
+      SeqNode t = n.seq;
+      t.prio = priority(n);
+      t.seqRight = null;
+      SeqNode last = null;
+      while ((top>0) && (stack[top-1].prio<t.prio))
+      {
+        last = stack[--top];
+        pull(last);
+      }
+      t.seqLeft = last;
+      if (last!=null) last.seqUp = t;
+      t.seqUp = null;
+      if (top>0) {  stack[top-1].seqRight = t; t.seqUp = stack[top-1];  }
+      stack[top++] = t;
+    }
+    while (top>0) pull(stack[--top]);
+    seqRoot = stack[0];
+    return true;
+  }
+
+  /** Drop the search trees because the perturbations are not
+   * consistent with the list. */
+  protected void failTrees()
+  {
+    roots = null;
+    seqRoot = null;
+    treeFailed = true;
+  }
+
+  /** Drop the search trees, they will be built again if needed.
+   * To be called after perturbations have been changed. */
+  protected void dropTrees()
+  {
+    roots = null;
+    seqRoot = null;
+    treeFailed = false;
+  }
+
+  /** Drop the search trees and the tree fields of the nodes, when the
+   * list has become too short to need them. */
+  protected void freeTrees()
+  {
+    dropTrees();
+    Node n = first;
+    for (int i=0; i<num; i++, n = n.next) {  n.tree = null; n.seq = null;  }
+  }
+
+  /** Find the node before which the entering half segment seg must
+   * be placed, using the search trees. Return null if seg has the
+   * same perturbation of a half segment with the same direction,
+   * or if the position found is not correct.
+   * @param seg a half segment with its perturbation set
+   * @return the node that will follow seg, or null */
+  protected Node treeSearch(HalfSegment seg)
+  {
+    int d = seg.dir;
+    Node succ = null;
+    for (TreeNode t = roots[d]; t!=null; )
+    {
+      int c = seg.ccwCompare(t.node.content);
+      if (c==0) return null;
+      if (c<0) {  succ = t.node; t = t.left;  }
+      else t = t.right;
+    }
+    // after the last node of direction d comes the first node
+    // of the next direction
+    for (int k=1; (succ==null) && (k<4); k++)
+      if (roots[(d+k)%4]!=null) succ = leftmost(roots[(d+k)%4]).node;
+    if ((succ==null) || !seg.isBetween(succ.prev.content, succ.content))
+      return null;
+    return succ;
+  }
+
+  /** Return the number of nodes of the given subtree of the
+   * sequence tree.
+   * @param t root of a subtree, or null
+   * @return the size of t */
+  protected static int seqSize(SeqNode t)  {  return (t==null) ? 0 : t.seqSize;  }
+
+  /** Return the sum of the labels of the given subtree.
+   * @param t root of a subtree, or null
+   * @return the sum of the labels of t */
+  protected static int sum(SeqNode t)  {  return (t==null) ? 0 : t.sum;  }
+
+  /** Recompute size, sum and minimum prefix sum of a node of the
+   * sequence tree from its children.
+   * @param t a node of the sequence tree */
+  protected static void pull(SeqNode t)
+  {
+    SeqNode l = t.seqLeft, r = t.seqRight;
+    int s = sum(l)+t.label;
+    t.seqSize = 1+seqSize(l)+seqSize(r);
+    t.sum = s+sum(r);
+    t.minSum = s;
+    if ((l!=null) && (l.minSum<t.minSum)) t.minSum = l.minSum;
+    if ((r!=null) && (s+r.minSum<t.minSum)) t.minSum = s+r.minSum;
+  }
+
+  /** Rotate node x above its parent in the sequence tree.
+   * @param x a node which has a parent */
+  protected void seqRotateUp(SeqNode x)
+  {
+    SeqNode p = x.seqUp, g = p.seqUp;
+    if (x==p.seqLeft)
+    {
+      p.seqLeft = x.seqRight;
+      if (x.seqRight!=null) x.seqRight.seqUp = p;
+      x.seqRight = p;
+    }
+    else
+    {
+      p.seqRight = x.seqLeft;
+      if (x.seqLeft!=null) x.seqLeft.seqUp = p;
+      x.seqLeft = p;
+    }
+    p.seqUp = x;
+    x.seqUp = g;
+    if (g==null) seqRoot = x;
+    else if (g.seqLeft==p) g.seqLeft = x;
+    else g.seqRight = x;
+    pull(p);
+    pull(x);
+  }
+
+  /** Place node n in the sequence tree immediately after node p,
+   * with label 0.
+   * @param node a node not in the sequence tree
+   * @param p a node of the sequence tree */
+  protected void seqAttach(Node node, Node p)
+  {
+    SeqNode n = seqNode(node);
+    n.prio = priority(node);
+    n.seqLeft = n.seqRight = null;
+    n.label = 0;
+    pull(n);
+    SeqNode t = p.seq;
+    if (t.seqRight==null) t.seqRight = n;
+    else
+    {
+      t = t.seqRight;
+      while (t.seqLeft!=null) t = t.seqLeft;
+      t.seqLeft = n;
+    }
+    n.seqUp = t;
+    for (; t!=null; t = t.seqUp) pull(t);
+    while ((n.seqUp!=null) && (n.seqUp.prio<n.prio)) seqRotateUp(n);
+  }
+
+  /** Remove node n from the sequence tree.
+   * @param node a node of the sequence tree */
+  protected void seqRemove(Node node)
+  {
+    SeqNode n = node.seq;
+    while ((n.seqLeft!=null) || (n.seqRight!=null))
+    {
+      SeqNode c;
+      if (n.seqLeft==null) c = n.seqRight;
+      else if (n.seqRight==null) c = n.seqLeft;
+      else c = (n.seqLeft.prio>n.seqRight.prio) ? n.seqLeft : n.seqRight;
+      seqRotateUp(c);
+    }
+    SeqNode p = n.seqUp;
+    if (p==null) seqRoot = null;
+    else
+    {
+      if (p.seqLeft==n) p.seqLeft = null; else p.seqRight = null;
+      for (; p!=null; p = p.seqUp) pull(p);
+    }
+    n.seqUp = null;
+  }
+
+  /** Set the label of a node of the sequence tree.
+   * @param n a node of the sequence tree
+   * @param label the new label */
+  protected void setLabel(Node n, int label)
+  {
+    n.seq.label = label;
+    for (SeqNode t = n.seq; t!=null; t = t.seqUp) pull(t);
+  }
+
+  /** Return the position of a node in the sequence.
+   * @param n a node of the sequence tree
+   * @return the number of nodes before n */
+  protected int seqRank(Node n)
+  {
+    int r = seqSize(n.seq.seqLeft);
+    for (SeqNode t = n.seq; t.seqUp!=null; t = t.seqUp)
+      if (t==t.seqUp.seqRight) r += seqSize(t.seqUp.seqLeft)+1;
+    return r;
+  }
+
+  /** Return the node at the given position in the sequence.
+   * @param k a position, from 0 to num-1
+   * @return the node with k nodes before it */
+  protected Node seqSelect(int k)
+  {
+    SeqNode t = seqRoot;
+    while (true)
+    {
+      int l = seqSize(t.seqLeft);
+      if (k<l) t = t.seqLeft;
+      else if (k==l) return t.node;
+      else {  k -= l+1; t = t.seqRight;  }
+    }
+  }
+
+  /** Return the sum of the labels of the first k nodes of the
+   * sequence, i.e., the depth of the gap before the k-th node.
+   * @param k a position, from 0 to num
+   * @return the sum of the first k labels */
+  protected int prefixSum(int k)
+  {
+    int s = 0;
+    for (SeqNode t = seqRoot; (t!=null) && (k>0); )
+    {
+      int l = seqSize(t.seqLeft);
+      if (k<=l) t = t.seqLeft;
+      else
+      {
+        s += sum(t.seqLeft)+t.label;
+        k -= l+1;
+        t = t.seqRight;
+      }
+    }
+    return s;
+  }
+
+  /** Return the first position at least x, in the given subtree of
+   * the sequence tree, where the sum of the labels up to that node
+   * (included) is at most h.
+   * @param t root of a subtree, or null
+   * @param base position of the first node of t
+   * @param s0 sum of the labels before t
+   * @param x minimum position
+   * @param h maximum sum
+   * @return a position, or -1 if there is none */
+  protected static int firstAtMost(SeqNode t, int base, int s0, int x, int h)
+  {
+    if ((t==null) || (base+t.seqSize<=x) || (s0+t.minSum>h)) return -1;
+    int r = firstAtMost(t.seqLeft, base, s0, x, h);
+    if (r>=0) return r;
+    int i = base+seqSize(t.seqLeft);
+    int s = s0+sum(t.seqLeft)+t.label;
+    if ((i>=x) && (s<=h)) return i;
+    return firstAtMost(t.seqRight, i+1, s, x, h);
+  }
+
+  /** Return the last position at most y, in the given subtree of
+   * the sequence tree, where the sum of the labels up to that node
+   * (included) is at most h.
+   * @param t root of a subtree, or null
+   * @param base position of the first node of t
+   * @param s0 sum of the labels before t
+   * @param y maximum position
+   * @param h maximum sum
+   * @return a position, or -1 if there is none */
+  protected static int lastAtMost(SeqNode t, int base, int s0, int y, int h)
+  {
+    if ((t==null) || (base>y) || (s0+t.minSum>h)) return -1;
+    int i = base+seqSize(t.seqLeft);
+    int s = s0+sum(t.seqLeft)+t.label;
+    int r = lastAtMost(t.seqRight, i+1, s, y, h);
+    if (r>=0) return r;
+    if ((i<=y) && (s<=h)) return i;
+    return lastAtMost(t.seqLeft, base, s0, y, h);
+  }
+
+  /** Return the first gap from x to y whose depth is at most h.
+   * The gap k is the one before the node in position k, and its
+   * depth is the sum of the first k labels.
+   * @param x first gap
+   * @param y last gap
+   * @param h maximum depth
+   * @return a gap, or -1 if there is none */
+  protected int firstGap(int x, int y, int h)
+  {
+    if (x>y) return -1;
+    if (prefixSum(x)<=h) return x;
+    int e = firstAtMost(seqRoot, 0, 0, x, h);
+    return ((e>=0) && (e<y)) ? e+1 : -1;
+  }
+
+  /** Find the gap where the exiting half segment seg must be placed,
+   * using the trees. The walk of addExiting visits, starting after
+   * mate_node, the gaps which are not separated from mate_node by any
+   * pair of mates, skipping each pair; it stops at the first gap where
+   * seg can be placed, or at the first pair whose sector contains the
+   * direction of seg.
+   * Since the list is sorted, the gaps where seg can be placed are
+   * the ones near the nodes of its direction, and they are contiguous.
+   * In the sequence, the gaps visited by the walk are the ones with
+   * the same depth h of mate_node, in the range where the depth does not
+   * go below h: first those after mate_node, then those before it.
+   * If none of them is a place for seg, all the places are inside a
+   * pair of mates visited by the walk, whose sector contains the
+   * direction of seg (there are no U-turns), so the path crosses.
+   * @param seg a half segment, with direction different from the one
+   * of its mate
+   * @param mate_node the node of this list containing the mate of seg,
+   * the only node without mate
+   * @return the position in the sequence of the node before which
+   * seg must be placed, or -1 if seg cannot be placed */
+  protected int exitingGap(HalfSegment seg, Node mate_node)
+  {
+    int d = seg.dir;
+    // gaps where seg can be placed: before the nodes from a to b
+    Node a = null, b;
+    if (roots[d]!=null)
+    {
+      a = leftmost(roots[d]).node;
+      b = rightmost(roots[d]).node.next;
+    }
+    else
+    {
+      for (int k=1; (a==null) && (k<4); k++)
+        if (roots[(d+k)%4]!=null) a = leftmost(roots[(d+k)%4]).node;
+      b = a;
+    }
+    int za = seqRank(a), zb = seqRank(b);
+    int m = seqRank(mate_node);
+    int h = prefixSum(m);
+    // ranges of gaps visited by the walk, in order
+    int lo1 = m+1, hi1 = num-1, lo2 = 0, hi2 = m;
+    if (h>0)
+    {
+      hi1 = firstAtMost(seqRoot, 0, 0, m+1, h-1);
+      lo2 = lastAtMost(seqRoot, 0, 0, m-1, h-1)+2;
+    }
+    for (int r=0; r<2; r++)
+    {
+      int lo = (r==0) ? lo1 : lo2, hi = (r==0) ? hi1 : hi2;
+      int k;
+      if (za<=zb) k = firstGap(Math.max(lo, za), Math.min(hi, zb), h);
+      else
+      {
+        k = firstGap(lo, Math.min(hi, zb), h);
+        if (k<0) k = firstGap(Math.max(lo, za), hi, h);
+      }
+      if (k>=0) return k;
+    }
+    return -1;
+  }
+
+  /** Link the new node of an exiting half segment with the node of
+   * its mate, and update the labels of the sequence tree.
+   * @param node the node containing the exiting half segment
+   * @param mate_node the node containing its mate
+   * @return node */
+  protected Node linkExiting(Node node, Node mate_node)
+  {
+    mate_node.matepos = node;
+    node.matepos = mate_node;
+    if (seqRoot!=null)
+    {
+      if (node.content.dir==mate_node.content.dir) failTrees();
+      else
+      {
+        int order = (seqRank(node)<seqRank(mate_node)) ? 1 : -1;
+        setLabel(node, order);
+        setLabel(mate_node, -order);
+      }
+    }
+    return node;
+  }
+
   /** Find the correct place to add a new node with the given half
    * segment, add it and return the node containing it. 
    * The half segment seg is the entering segment, the perturbation of seg is
@@ -115,6 +845,13 @@ public class HalfSegmentSkipList
       return addFirstNode(seg);
     if (num<2)
       System.out.println("ERR, numero elementi non >=2 : "+num);
+    if ((roots==null) && !treeFailed && (num>=TREE_THRESHOLD)) buildTrees();
+    if (roots!=null)
+    {
+      Node succ = treeSearch(seg);
+      if (succ!=null) return addBeforeNode(succ, seg);
+      failTrees();
+    }
     Node curr = first;
     while (true)
     {
@@ -160,7 +897,7 @@ public class HalfSegmentSkipList
       seg.updatePerturb();
       return addBeforeNode(first, seg);
     }      
-    int i = 1;
+    int i = 1, steps = 0;
     Node curr = mate_node;
     while (i<=num)
     {
@@ -171,10 +908,7 @@ public class HalfSegmentSkipList
         if (seg.isBetween(mate_node.prev.content, mate_node.content, true))
         {
           if (speaking) System.out.println("... inserted");
-          Node node = addBeforeNode(mate_node, seg);
-          mate_node.matepos = node;
-          node.matepos = mate_node;
-          return node;
+          return linkExiting(addBeforeNode(mate_node, seg), mate_node);
         }
         else return null;
       }
@@ -183,10 +917,7 @@ public class HalfSegmentSkipList
       if (seg.isBetween(curr.prev.content,curr.content, true))
       {
         if (speaking) System.out.println("... inserted");
-        Node node = addBeforeNode(curr, seg);
-        mate_node.matepos = node;
-        node.matepos = mate_node;
-        return node;                                  
+        return linkExiting(addBeforeNode(curr, seg), mate_node);
       }
       if (i==num-1) break; // LAST TIME
       if (speaking) System.out.println("Check if in forbidden sector "+curr.content.name+" "+curr.content.mate.name);
@@ -197,11 +928,148 @@ public class HalfSegmentSkipList
       }
       curr = curr.matepos;
       if (speaking) System.out.println("fine giro, curr "+curr);
+      if ((roots!=null) && (++steps>=EXIT_WALK) &&
+          (seg.dir!=mate_node.content.dir) &&
+          ((seqRoot!=null) || buildSequence(mate_node)))
+      {
+        // the gaps visited so far are not good: instead of going on
+        // with the walk, find the place with the trees
+        int k = exitingGap(seg, mate_node);
+        if (k<0) return null;
+        Node next = seqSelect(k);
+        if (seg.isBetween(next.prev.content, next.content, true))
+          return linkExiting(addBeforeNode(next, seg), mate_node);
+        failTrees();
+      }
     } // end while           
     if (speaking) System.out.println("no good position found");
     return null;
   }
   
+  /** Return the node before which addEntering would place the given
+   * entering half segment, without adding it and without building the
+   * trees.
+   * @param seg a half segment, with perturbation already set
+   * @return the node following the place of seg, or null if the list
+   * is empty or there is no place */
+  protected Node enteringPlace(HalfSegment seg)
+  {
+    if (first==null) return null;
+    if (roots!=null)
+    {
+      Node succ = treeSearch(seg);
+      if (succ!=null) return succ;
+    }
+    Node curr = first;
+    do
+    {
+      if (seg.isBetween(curr.prev.content, curr.content)) return curr;
+      curr = curr.next;
+    }
+    while (curr!=first);
+    return null;
+  }
+
+  /** Return the directions in which a path entering this vertex with
+   * the given half segment can go on without crossing, i.e., those
+   * for which addEntering and then addExiting would succeed, without
+   * changing anything. This list must contain only pairs of mates.
+   * <P>The place of the entering half segment does not depend on the
+   * next direction, and neither do the gaps and the pairs of mates
+   * visited by the walk of addExiting: so a single walk decides the
+   * three directions, each one at the first gap where it can be placed
+   * or at the first pair whose sector contains it. As in addExiting,
+   * after EXIT_WALK pairs the undecided directions are looked up in the
+   * trees, if the sequence tree is already kept.</P>
+   * @param seg a half segment entering the vertex of this list, not
+   * contained in it, with perturbation already set
+   * @return a mask with bit d set iff the path can go on in direction
+   * d (the bit of the U-turn is never set) */
+  public int exitDirections(HalfSegment seg)
+  {
+    int todo = 15 & ~(1<<seg.dir);
+    if (first==null) return todo;
+    Node succ = enteringPlace(seg);
+    if (succ==null) return 0;
+    int ok = 0, steps = 0;
+    // gap from before to the content of curr: the first one is between
+    // seg and succ, the last one (curr null) between succ.prev and seg
+    HalfSegment before = seg;
+    Node curr = succ;
+    while (true)
+    {
+      HalfSegment after = (curr==null) ? seg : curr.content;
+      for (int d=0; d<4; d++)
+        if (((todo>>d)&1)!=0 && HalfSegment.fits(d, before, after))
+        {  ok |= 1<<d; todo &= ~(1<<d);  }
+      if ((todo==0) || (curr==null)) break;
+      for (int d=0; d<4; d++)
+        if (((todo>>d)&1)!=0 &&
+            HalfSegment.inside(d, curr.content, curr.content.mate))
+          todo &= ~(1<<d);
+      if (todo==0) break;
+      curr = curr.matepos;
+      if ((roots!=null) && (seqRoot!=null) && (++steps>=EXIT_WALK))
+      {
+        for (int d=0; d<4; d++)
+          if (((todo>>d)&1)!=0 && (exitingGap(d, succ)>=0)) ok |= 1<<d;
+        break;
+      }
+      before = curr.content;
+      curr = curr.next;
+      if (curr==succ) curr = null;
+    }
+    return ok;
+  }
+
+  /** Find a gap where an exiting half segment with direction d could
+   * be placed, using the trees, as exitingGap does, if the mate of the
+   * half segment were placed before node succ. The mate is not in the
+   * list: it would have label 0, so the gap before succ stands for the
+   * two gaps around the mate, which are the first and the last ones
+   * visited by the walk.
+   * @param d a direction, different from the one of the mate
+   * @param succ the node following the place of the mate
+   * @return the position of the gap in the sequence without the mate,
+   * or -1 if there is none */
+  protected int exitingGap(int d, Node succ)
+  {
+    Node a = null, b;
+    if (roots[d]!=null)
+    {
+      a = leftmost(roots[d]).node;
+      b = rightmost(roots[d]).node.next;
+    }
+    else
+    {
+      for (int k=1; (a==null) && (k<4); k++)
+        if (roots[(d+k)%4]!=null) a = leftmost(roots[(d+k)%4]).node;
+      b = a;
+    }
+    int za = seqRank(a), zb = seqRank(b);
+    int m = seqRank(succ);
+    int h = prefixSum(m);
+    int lo1 = m, hi1 = num-1, lo2 = 0, hi2 = m;
+    if (h>0)
+    {
+      hi1 = firstAtMost(seqRoot, 0, 0, m, h-1);
+      lo2 = lastAtMost(seqRoot, 0, 0, m-1, h-1)+2;
+    }
+    for (int r=0; r<2; r++)
+    {
+      int lo = (r==0) ? lo1 : lo2, hi = (r==0) ? hi1 : hi2;
+      int k;
+      if (za<=zb) k = firstGap(Math.max(lo, za), Math.min(hi, zb), h);
+      else
+      {
+        k = firstGap(lo, Math.min(hi, zb), h);
+        if (k<0) k = firstGap(Math.max(lo, za), hi, h);
+      }
+      if (k>=0) return k;
+    }
+    return -1;
+  }
+
   /** Return a string representing this skip list.
    * @return string representing this skip list */
   public String toString()
@@ -242,6 +1110,7 @@ public class HalfSegmentSkipList
       if (curr.content.dir == dir)
       {
         Node found = curr.matepos;
+        dropTrees();
         if (curr==first) first = curr.next;
         curr.prev.next = curr.next;
         curr.next.prev = curr.prev;
@@ -271,32 +1140,43 @@ public class HalfSegmentSkipList
       next.prev = prev;
       if (n==first) first = next;
       num--;
+      if (roots!=null) treeRemove(n);
+      if (seqRoot!=null) seqRemove(n);
     }
+    n.tree = null;
+    n.seq = null;
+    if (n.content.node==n) n.content.node = null;
+    if (2*num<TREE_THRESHOLD) freeTrees();
   }
   
   /** Search the given half segment and, if found, remove it 
    * from the list, together with its mate half segment.
    * Return true if s was present, false otherwise.
+   * The node of the half segment is known (see HalfSegment.node),
+   * so no search is actually needed.
    * @param seg a half segment
    * @return true if seg was in this list and has been removed,
    * false if seg was not in this list */
   public boolean searchRemove(HalfSegment seg)
   {
-    if (first==null) return false;
-    Node curr = first;
-    while (true)
-    {
-      if (curr.content==seg)
-      {
-        Node aux = curr.matepos;
-        auxRemove(curr);
-        if (aux!=null) auxRemove(aux);  
-        return true;
-      }
-      else curr = curr.next;
-      if (curr==first) break;
-    }
-    return false;
+    Node curr = seg.node;
+    if ((curr==null) || (curr.getList()!=this)) return false;
+    Node aux = curr.matepos;
+    auxRemove(curr);
+    if (aux!=null) auxRemove(aux);
+    return true;
+  }
+
+  /** Remove the given half segment from the radial list containing it,
+   * together with its mate half segment, in constant time plus the
+   * update of the trees, if kept (see searchRemove). The vertex of the
+   * list is not looked up.
+   * @param seg a half segment
+   * @return true if seg was in a list and has been removed */
+  public static boolean remove(HalfSegment seg)
+  {
+    if (seg.node==null) return false;
+    return seg.node.getList().searchRemove(seg);
   }
   
   void rescaleValues(HalfSegment array[], int len)
@@ -389,4 +1269,204 @@ public class HalfSegmentSkipList
     }    
   }
   
+  /** Return the first node, in counterclockwise order, of the group of
+   * half segments with direction dir.
+   * @param dir a direction
+   * @return the first node with direction dir, or null if there is none */
+  protected Node groupStart(int dir)
+  {
+    if (first==null) return null;
+    Node nod = first;
+    if (nod.content.dir==dir)
+    {
+      while ((nod.prev.content.dir==dir) && (nod.prev!=first)) nod = nod.prev;
+      return nod;
+    }
+    while (nod.content.dir!=dir)
+    {
+      nod = nod.next;
+      if (nod==first) return null;
+    }
+    return nod;
+  }
+
+  /** Rescale to consecutive integers the perturbations of the group of
+   * half segments with the same direction starting at the given node,
+   * keeping their order, as rescaleValues does, and set the same
+   * perturbations to their opposite half segments.
+   * @param nod the first node of a group (see groupStart)
+   * @return the number of half segments in the group */
+  protected int rescaleGroup(Node nod)
+  {  return rescaleGroup(nod, null);  }
+
+  /** Rescale the perturbations of a group as rescaleGroup(Node),
+   * recording in the journal the old perturbations which change.
+   * @param nod the first node of a group (see groupStart)
+   * @param journal the journal, or null if it is not kept
+   * @return the number of half segments in the group */
+  protected int rescaleGroup(Node nod, Journal journal)
+  {
+    int dir = nod.content.dir;
+    int len = 0;
+    for (Node n = nod; (n.content.dir==dir) && (len<num); n = n.next) len++;
+    // perturbations increase counterclockwise for EAST and SOUTH
+    boolean ccw = (dir==0) || (dir==3);
+    for (int k=0; k<len; k++, nod = nod.next)
+    {
+      float v = (ccw ? k : len-1-k) - len/2;
+      if ((journal!=null) && (nod.content.perturb!=v)) journal.record(nod.content);
+      nod.content.perturb = v;
+      if (nod.content.opposite!=null) nod.content.opposite.perturb = v;
+    }
+    return len;
+  }
+
+  /** Check the spacing of the perturbation of the half segment in the
+   * given node, just added to this list, from the ones of the
+   * neighboring half segments with the same direction. If it is too
+   * small (see HalfSegment.MIN_SPACING), spread the perturbations of
+   * a range of the half segments with that direction around it, keeping
+   * their order, and those of their opposite half segments (see
+   * relabel). Only this vertex and the other endpoint of the same edge
+   * are touched, and the search trees stay valid since the order does
+   * not change.
+   * @param node a node of this list
+   * @return true iff the perturbations have been rescaled */
+  public boolean rebalance(Node node)
+  {  return rebalance(node, null);  }
+
+  /** Check the spacing of the perturbation of the half segment in the
+   * given node and rescale the perturbations on its edge if needed, as
+   * rebalance(Node), recording the old perturbations in the journal.
+   * @param node a node of this list
+   * @param journal the journal, or null if it is not kept
+   * @return true iff the perturbations have been rescaled */
+  public boolean rebalance(Node node, Journal journal)
+  {
+    HalfSegment seg = node.content;
+    int dir = seg.dir;
+    HalfSegment p = node.prev.content, q = node.next.content;
+    if (!((p.dir==dir) && HalfSegment.tooClose(seg.perturb, p.perturb)) &&
+        !((q.dir==dir) && HalfSegment.tooClose(seg.perturb, q.perturb)))
+      return false;
+    int len = relabel(node, journal);
+    if (speaking) System.out.println("rebalanced "+len+" segments in direction "+dir);
+    return true;
+  }
+
+  /** Spread the perturbations of the smallest range of half segments
+   * around the given node, in its group of half segments with the same
+   * direction, which is sparse enough, and set the same perturbations to
+   * their opposite half segments, as PerturbationOrder.relabel does with
+   * labels. For i=1,2,..., the range has up to 2^(i-1) half segments on
+   * each side of the node. It is sparse enough if, spread evenly
+   * between the perturbations of the half segments just outside it,
+   * they are at least T^i times the minimum distance apart (see
+   * HalfSegment.minSpacing and PerturbationOrder.T). A range reaching
+   * one end of the group is spread 1 apart from the other end; if it
+   * is the whole group, its perturbations are rescaled to consecutive
+   * integers (see rescaleGroup). In this way, repeated insertions at
+   * the same place relabel few half segments on average, instead of
+   * the whole group each time.
+   * @param node a node of this list
+   * @param journal the journal recording the old perturbations,
+   * or null if it is not kept
+   * @return the number of relabelled half segments */
+  protected int relabel(Node node, Journal journal)
+  {
+    int dir = node.content.dir;
+    // perturbations increase counterclockwise for EAST and SOUTH
+    float sign = ((dir==0) || (dir==3)) ? 1 : -1;
+    Node lo = node, hi = node;
+    int count = 1;
+    for (int i=1; ; i++)
+    {
+      int half = 1<<(i-1);
+      boolean loEnd = false, hiEnd = false;
+      for (int k=0; k<half; k++)
+      {
+        loEnd = (lo.prev.content.dir!=dir) || (lo.prev==hi);
+        if (loEnd) break;
+        lo = lo.prev; count++;
+      }
+      for (int k=0; k<half; k++)
+      {
+        hiEnd = (hi.next.content.dir!=dir) || (hi.next==lo);
+        if (hiEnd) break;
+        hi = hi.next; count++;
+      }
+      loEnd = (lo.prev.content.dir!=dir) || (lo.prev==hi);
+      hiEnd = (hi.next.content.dir!=dir) || (hi.next==lo);
+      if (loEnd && hiEnd) return rescaleGroup(lo, journal);
+      float from, step;
+      if (loEnd) // spread down from the half segment after the range
+      {
+        step = 1;
+        from = sign*hi.next.content.perturb - count;
+      }
+      else if (hiEnd) // spread up from the half segment before the range
+      {
+        step = 1;
+        from = sign*lo.prev.content.perturb + 1;
+      }
+      else
+      {
+        float low = sign*lo.prev.content.perturb;
+        float high = sign*hi.next.content.perturb;
+        step = (high-low)/(count+1);
+        float m = Math.max(Math.abs(low), Math.abs(high));
+        if (step < Math.pow(PerturbationOrder.T, i)*HalfSegment.minSpacing(m))
+          continue;
+        from = low+step;
+      }
+      int k = 0;
+      for (Node n = lo; ; n = n.next, k++)
+      {
+        float v = sign*(from+k*step);
+        if ((journal!=null) && (n.content.perturb!=v)) journal.record(n.content);
+        n.content.perturb = v;
+        if (n.content.opposite!=null) n.content.opposite.perturb = v;
+        if (n==hi) break;
+      }
+      return count;
+    }
+  }
+
+  /** Rescale to consecutive integers the perturbations of the half
+   * segments in directions EAST and NORTH, and of their opposite half
+   * segments. Applied to every vertex, this normalizes every segment
+   * once, from the endpoint where it goes east or north, so that the
+   * vertices can be processed in any order, or in parallel, with the
+   * same result (see VertexSet.normalizePerturbations).
+   * The trees of this list are dropped. */
+  protected void normalize()
+  {
+    for (int d=0; d<2; d++) // EAST and NORTH
+    {
+      Node nod = groupStart(d);
+      if (nod!=null) rescaleGroup(nod);
+    }
+    dropTrees();
+  }
+
+  /** Rescale to consecutive integers the perturbations of the half
+   * segments with the same direction as seg, and of their opposite
+   * half segments.
+   * @param seg a half segment
+   * @return true iff seg is in this list */
+  protected boolean normalize(HalfSegment seg)
+  {
+    if (first==null) return false;
+    Node curr = first;
+    while (curr.content!=seg)
+    {
+      curr = curr.next;
+      if (curr==first) return false;
+    }
+    while ((curr.prev.content.dir==seg.dir) && (curr.prev.content!=seg))
+      curr = curr.prev;
+    rescaleGroup(curr);
+    return true;
+  }
+  
 }
@@ -0,0 +1,209 @@
+package orthopaths;
+
+import java.util.Arrays;
+
+/** <P>A set of vertices implemented as an open-addressing hash table
+ * with linear probing, where a skip list of half segments is
+ * associated with each vertex.</P>
+ * <P>The two coordinates of a vertex are packed into a single primitive
+ * long key, so that locating a vertex takes expected constant time and
+ * does not create any object. The table is kept at most half full and
+ * doubles its capacity when this limit is exceeded.</P>
+ * <P>Vertices are not kept in lexicographic order: the order of printing
+ * and visiting depends on the hash function.
+ * The linked list of the superclass is not used.</P>
+ */
+public class HashVertexSet extends VertexSet
+{
+  /** Initial number of slots of the table (a power of two). */
+  public static int INITIAL_CAPACITY = 64;
+
+  /** Packed coordinates of the vertex in each slot. */
+  protected long[] keys;
+  /** Skip list associated with the vertex in each slot,
+   * null if the slot is empty. */
+  protected HalfSegmentSkipList[] stars;
+  /** Bit mask giving the slot from a hash value (capacity-1). */
+  protected int mask;
+
+  /** Create an empty set of vertices. */
+  public HashVertexSet()
+  {  this(INITIAL_CAPACITY);  }
+
+  /** Create an empty set of vertices, able to contain the given number
+   * of vertices without growing.
+   * @param expected expected number of vertices */
+  public HashVertexSet(int expected)
+  {
+    super();
+    int capacity = 4;
+    while (capacity < 2*expected) capacity *= 2;
+    allocate(capacity);
+  }
+
+  /** Allocate empty arrays with the given number of slots.
+   * @param capacity number of slots, it must be a power of two */
+  protected void allocate(int capacity)
+  {
+    keys = new long[capacity];
+    stars = new HalfSegmentSkipList[capacity];
+    mask = capacity-1;
+  }
+
+  /** Pack the coordinates (x,y) into a single long value.
+   * @param x x coordinate
+   * @param y y coordinate
+   * @return x in the high 32 bits and y in the low 32 bits */
+  public static long pack(int x, int y)
+  {  return (((long)x)<<32) | (y & 0xFFFFFFFFL);  }
+
+  /** Return the x coordinate from a packed key.
+   * @param key a key obtained from pack
+   * @return the x coordinate */
+  public static int unpackX(long key)  {  return (int)(key>>32);  }
+
+  /** Return the y coordinate from a packed key.
+   * @param key a key obtained from pack
+   * @return the y coordinate */
+  public static int unpackY(long key)  {  return (int)key;  }
+
+  /** Return the initial slot for the given key. The key is mixed with
+   * a multiplicative hash, so that nearby grid points are spread
+   * over the table.
+   * @param key packed coordinates
+   * @return a slot index */
+  protected int slot(long key)
+  {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int)(h ^ (h>>>32)) & mask;
+  }
+
+  /** Double the capacity of the table and reinsert all vertices. */
+  protected void grow()
+  {
+    long[] oldKeys = keys;
+    HalfSegmentSkipList[] oldStars = stars;
+    allocate(2*oldKeys.length);
+    for (int i=0; i<oldKeys.length; i++)
+    {
+      if (oldStars[i]==null) continue;
+      int j = slot(oldKeys[i]);
+      while (stars[j]!=null) j = (j+1) & mask;
+      keys[j] = oldKeys[i];
+      stars[j] = oldStars[i];
+    }
+  }
+
+  /** Insert a vertex (x,y) in this set if it is not already present.
+   * If present, just locate it in the table.
+   * Return the skip list associated with the vertex.
+   * @param x x coordinate of the vertex to be added
+   * @param y y coordinate of the vertex to be added
+   * @return the skip list associated with (x,y) */
+  public HalfSegmentSkipList conditionalInsert(int x, int y)
+  {
+    long key = pack(x,y);
+    int i = slot(key);
+    while (stars[i]!=null)
+    {
+      if (keys[i]==key) return stars[i]; // found
+      i = (i+1) & mask;
+    }
+    HalfSegmentSkipList added = new HalfSegmentSkipList();
+    keys[i] = key;
+    stars[i] = added;
+    count ++;
+    if (2*count > keys.length) grow();
+    return added;
+  }
+
+  /** Return the skip list associated with vertex (x,y), without
+   * inserting the vertex if it is not present.
+   * @param x x coordinate of the vertex
+   * @param y y coordinate of the vertex
+   * @return the skip list associated with (x,y), or null if the
+   * vertex is not in this set */
+  public HalfSegmentSkipList find(int x, int y)
+  {
+    long key = pack(x,y);
+    for (int i = slot(key); stars[i]!=null; i = (i+1) & mask)
+      if (keys[i]==key) return stars[i];
+    return null;
+  }
+
+  /** Print this set of vertices.
+   * @param newline true iff we want to go on new line after printing */
+  public void print(boolean newline)
+  {
+    if (count==0) System.out.print("Empty list");
+    for (int i=0; i<keys.length; i++)
+    {
+      if (stars[i]==null) continue;
+      System.out.print(" ("+unpackX(keys[i])+","+unpackY(keys[i])+") with "
+          +stars[i].size()+" half segments");
+    }
+    if (newline) System.out.println();
+  }
+
+  /** Rescale the perturbations around all vertices where they are
+   * too close. The result depends on the order of the vertices, since
+   * each rescale also changes the opposite half segments at the
+   * neighbouring vertices: they are visited in lexicographic order,
+   * as in VertexSet, not in the order of the slots. */
+  void adjustPerturbations()
+  {
+    long[] lex = new long[count];
+    int n = 0;
+    for (int i=0; i<keys.length; i++)
+      if (stars[i]!=null) lex[n++] = lexKey(unpackX(keys[i]), unpackY(keys[i]));
+    Arrays.sort(lex);
+    for (int i=0; i<n; i++)
+      conditionalInsert(lexX(lex[i]), lexY(lex[i])).adjustPerturbations();
+    // perturbations changed also in other vertices
+    for (int i=0; i<keys.length; i++)
+      if (stars[i]!=null) stars[i].dropTrees();
+  }
+
+  /** Apply the given visitor to all vertices of this set, in the order
+   * of the slots of the table.
+   * @param v the visitor */
+  public void visit(Visitor v)
+  {
+    for (int i=0; i<keys.length; i++)
+      if (stars[i]!=null) v.visit(unpackX(keys[i]), unpackY(keys[i]), stars[i]);
+  }
+
+  /** Apply the given visitor to all vertices of this set lying in the
+   * rectangle [x0,x1] x [y0,y1] (borders included).
+   * If the rectangle has fewer points than the slots of the table,
+   * each point is looked up, otherwise the whole table is scanned.
+   * @param x0 minimum x of the rectangle
+   * @param y0 minimum y of the rectangle
+   * @param x1 maximum x of the rectangle
+   * @param y1 maximum y of the rectangle
+   * @param v the visitor */
+  public void visitRange(int x0, int y0, int x1, int y1, Visitor v)
+  {
+    if ((x1<x0) || (y1<y0)) return;
+    long area = ((long)x1-x0+1)*((long)y1-y0+1);
+    if (area < keys.length)
+    {
+      // long counters, since x1 or y1 may be the largest integer
+      for (long x=x0; x<=x1; x++)
+        for (long y=y0; y<=y1; y++)
+        {
+          long key = pack((int)x,(int)y);
+          for (int i = slot(key); stars[i]!=null; i = (i+1) & mask)
+            if (keys[i]==key) {  v.visit((int)x, (int)y, stars[i]); break;  }
+        }
+      return;
+    }
+    for (int i=0; i<keys.length; i++)
+    {
+      if (stars[i]==null) continue;
+      int x = unpackX(keys[i]), y = unpackY(keys[i]);
+      if ((x>=x0) && (x<=x1) && (y>=y0) && (y<=y1)) v.visit(x, y, stars[i]);
+    }
+  }
+
+}
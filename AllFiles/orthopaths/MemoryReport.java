@@ -0,0 +1,101 @@
+package orthopaths;
+
+/** This class measures the heap memory used by the path checker,
+ * per move, with the different storage engines:<UL>
+ * <LI>half segment objects, with the vertex dictionary as a hash table
+ * (PathChecker with VertexSet.HASH)</LI>
+ * <LI>half segment objects, with the vertex dictionary as a Morton
+ * B+-tree (PathChecker with VertexSet.MORTON)</LI>
+ * <LI>columns of primitive arrays (ColumnarPathChecker)</LI></UL>
+ * The checked path is a serpentine covering a square, without
+ * crossings. Memory is measured as the growth of the used heap after
+ * garbage collection, and includes the checked path.
+ */
+public class MemoryReport
+{
+  /** Return a crossing-free path with the given number of moves,
+   * going back and forth along rows of a square and moving north
+   * at the end of each row.
+   * @param moves number of moves
+   * @return a string of directions */
+  public static String serpentine(int moves)
+  {
+    int width = Math.max(1, (int)Math.sqrt(moves));
+    StringBuilder sb = new StringBuilder(moves);
+    char dir = Direction.EAST;
+    while (sb.length()<moves)
+    {
+      for (int i=0; (i<width) && (sb.length()<moves); i++) sb.append(dir);
+      if (sb.length()<moves) sb.append(Direction.NORTH);
+      dir = Direction.oppositeDir(dir);
+    }
+    return sb.toString();
+  }
+
+  /** Return the used heap, in bytes, after running the garbage
+   * collector.
+   * @return used heap memory */
+  protected static long usedMemory()
+  {
+    Runtime rt = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i=0; i<5; i++)
+    {
+      System.gc();
+      try {  Thread.sleep(50);  } catch (InterruptedException exc) {}
+      used = Math.min(used, rt.totalMemory()-rt.freeMemory());
+    }
+    return used;
+  }
+
+  /** Check the given path with the given checker and return the
+   * memory used by the checker after checking.
+   * @param checker a path checker, it must be the only reference to it
+   * @param path a path
+   * @param before used memory before creating the checker
+   * @return number of bytes used by the checker */
+  protected static long measure(PathChecker checker, String path, long before)
+  {
+    checker.test(0,0, path, true);
+    long after = usedMemory();
+    if (checker.getCheckedPath().length()!=path.length())
+      System.out.println("ERR path not checked entirely");
+    return after-before;
+  }
+
+  /** Print one line of the report.
+   * @param engine name of the engine
+   * @param bytes memory used
+   * @param moves number of moves */
+  protected static void report(String engine, long bytes, int moves)
+  {
+    System.out.printf("%-28s %12d bytes %8.1f bytes/move%n",
+                      engine, bytes, (double)bytes/moves);
+  }
+
+  /** MAIN PROGRAM.
+   * Accept on the command line the number of moves (default 1000000).
+   * @param arg command line */
+  public static void main(String[] arg)
+  {
+    int moves = 1000000;
+    if (arg.length>0) moves = Integer.parseInt(arg[0]);
+    String path = serpentine(moves);
+    System.out.println("Serpentine path with "+moves+" moves");
+
+    long before = usedMemory();
+    long bytes = measure(new PathChecker(VertexSet.HASH), path, before);
+    report("objects, hash dictionary", bytes, moves);
+
+    before = usedMemory();
+    bytes = measure(new PathChecker(VertexSet.MORTON), path, before);
+    report("objects, Morton dictionary", bytes, moves);
+
+    before = usedMemory();
+    ColumnarPathChecker columns = new ColumnarPathChecker(moves);
+    bytes = measure(columns, path, before);
+    report("columns", bytes, moves);
+    report("columns (arrays only)", columns.getStore().footprint(), moves);
+  }
+
+}
@@ -0,0 +1,444 @@
+package orthopaths;
+
+import java.util.Arrays;
+
+/** <P>A set of vertices kept in a B+-tree, where a skip list of half
+ * segments is associated with each vertex.</P>
+ * <P>The key of vertex (x,y) is its Morton code (Z-order), obtained
+ * by interleaving the bits of x and y. Vertices that are close on the
+ * grid tend to have close keys and to be stored in the same leaf, so
+ * that visiting the vertices, or following a curve that walks on the
+ * grid, touches few leaves. The leaves are sorted arrays linked in key
+ * order; the leaf used by the last operation is remembered, and an
+ * operation on a key within its range does not descend the tree.</P>
+ * <P>Insertion and search take O(log n) time. Visiting a rectangle
+ * skips the parts of the Z-order curve lying outside it (BIGMIN
+ * algorithm by Tropf and Herzog).
+ * The linked list of the superclass is not used.</P>
+ */
+public class MortonVertexSet extends VertexSet
+{
+  /** Maximum number of vertices in a leaf. */
+  public static int LEAF_SIZE = 64;
+  /** Maximum number of children of an inner node. */
+  public static int FANOUT = 32;
+
+  /** Bit mask of the bits of x in a Morton code (even positions). */
+  protected static final long X_BITS = 0x5555555555555555L;
+  /** Bit mask of the bits of y in a Morton code (odd positions). */
+  protected static final long Y_BITS = 0xAAAAAAAAAAAAAAAAL;
+
+  /** Leaf of the tree: a sorted array of keys with the associated
+   * skip lists. */
+  protected static class Leaf
+  {
+    /** Sorted keys, with the highest bit flipped (see method key). */
+    long[] keys = new long[LEAF_SIZE];
+    /** Skip list associated with each key. */
+    HalfSegmentSkipList[] stars = new HalfSegmentSkipList[LEAF_SIZE];
+    /** Number of used positions. */
+    int n = 0;
+    /** Next leaf in key order. */
+    Leaf next = null;
+  }
+
+  /** Inner node of the tree. Child i contains the keys greater
+   * or equal to keys[i] and smaller than keys[i+1]
+   * (keys[0] is not used). */
+  protected static class Inner
+  {
+    /** Separator keys. */
+    long[] keys = new long[FANOUT];
+    /** Children, either all leaves or all inner nodes. */
+    Object[] children = new Object[FANOUT];
+    /** Number of children. */
+    int n = 0;
+  }
+
+  /** Root of the tree, a Leaf or an Inner node. */
+  protected Object root;
+  /** First leaf in key order. */
+  protected Leaf firstLeaf;
+  /** Leaf reached by the last operation. */
+  protected Leaf finger;
+
+  /** Inner nodes traversed by the last descent of the tree. */
+  private Inner[] pathNodes = new Inner[64];
+  /** Index of the child taken in each node of pathNodes. */
+  private int[] pathIndex = new int[64];
+  /** Number of meaningful entries in pathNodes. */
+  private int depth;
+
+  /** Create an empty set of vertices. */
+  public MortonVertexSet()
+  {
+    super();
+    firstLeaf = new Leaf();
+    root = finger = firstLeaf;
+  }
+
+  /** Spread the 32 bits of v on the even positions of a long.
+   * @param v an integer, seen as unsigned
+   * @return the bits of v interleaved with zeros */
+  protected static long spread(int v)
+  {
+    long x = v & 0xFFFFFFFFL;
+    x = (x | (x<<16)) & 0x0000FFFF0000FFFFL;
+    x = (x | (x<<8))  & 0x00FF00FF00FF00FFL;
+    x = (x | (x<<4))  & 0x0F0F0F0F0F0F0F0FL;
+    x = (x | (x<<2))  & 0x3333333333333333L;
+    x = (x | (x<<1))  & X_BITS;
+    return x;
+  }
+
+  /** Inverse of spread: collect the even bits of a long.
+   * @param z a long
+   * @return the integer formed by the even bits of z */
+  protected static int compact(long z)
+  {
+    long x = z & X_BITS;
+    x = (x | (x>>>1))  & 0x3333333333333333L;
+    x = (x | (x>>>2))  & 0x0F0F0F0F0F0F0F0FL;
+    x = (x | (x>>>4))  & 0x00FF00FF00FF00FFL;
+    x = (x | (x>>>8))  & 0x0000FFFF0000FFFFL;
+    x = (x | (x>>>16)) & 0x00000000FFFFFFFFL;
+    return (int)x;
+  }
+
+  /** Return the Morton code of (x,y). Coordinates are shifted to be
+   * unsigned, so that the order of codes is consistent with the order
+   * of coordinates also for negative values. The result must be
+   * compared as an unsigned number.
+   * @param x x coordinate
+   * @param y y coordinate
+   * @return the Morton code */
+  public static long morton(int x, int y)
+  {  return spread(x ^ 0x80000000) | (spread(y ^ 0x80000000)<<1);  }
+
+  /** Return the x coordinate from a Morton code.
+   * @param z a Morton code
+   * @return the x coordinate */
+  public static int mortonX(long z)  {  return compact(z) ^ 0x80000000;  }
+
+  /** Return the y coordinate from a Morton code.
+   * @param z a Morton code
+   * @return the y coordinate */
+  public static int mortonY(long z)  {  return compact(z>>>1) ^ 0x80000000;  }
+
+  /** Convert a Morton code to a key stored in the tree. The highest
+   * bit is flipped, so that keys can be compared as signed numbers.
+   * The conversion is its own inverse.
+   * @param z a Morton code
+   * @return the corresponding key */
+  protected static long key(long z)  {  return z ^ Long.MIN_VALUE;  }
+
+  /** Return the position of the first key greater or equal to k
+   * in the given leaf (leaf.n if there is no such key).
+   * @param leaf a leaf
+   * @param k a key
+   * @return the position of the lower bound of k */
+  protected static int lowerBound(Leaf leaf, long k)
+  {
+    int lo = 0, hi = leaf.n;
+    while (lo<hi)
+    {
+      int mid = (lo+hi)>>>1;
+      if (leaf.keys[mid]<k) lo = mid+1; else hi = mid;
+    }
+    return lo;
+  }
+
+  /** Return the index of the child of the given inner node whose
+   * range contains k.
+   * @param node an inner node
+   * @param k a key
+   * @return index of the child containing k */
+  protected static int childIndex(Inner node, long k)
+  {
+    int lo = 1, hi = node.n;
+    while (lo<hi)
+    {
+      int mid = (lo+hi)>>>1;
+      if (node.keys[mid]<=k) lo = mid+1; else hi = mid;
+    }
+    return lo-1;
+  }
+
+  /** Descend the tree from the root to the leaf whose range contains k,
+   * recording the traversed inner nodes.
+   * @param k a key
+   * @return the leaf whose range contains k */
+  protected Leaf descend(long k)
+  {
+    Object node = root;
+    depth = 0;
+    while (node instanceof Inner)
+    {
+      Inner in = (Inner)node;
+      int i = childIndex(in, k);
+      pathNodes[depth] = in;
+      pathIndex[depth] = i;
+      depth++;
+      node = in.children[i];
+    }
+    return (Leaf)node;
+  }
+
+  /** Insert a vertex (x,y) in this set if it is not already present.
+   * If present, just locate it in the tree.
+   * Return the skip list associated with the vertex.
+   * @param x x coordinate of the vertex to be added
+   * @param y y coordinate of the vertex to be added
+   * @return the skip list associated with (x,y) */
+  public HalfSegmentSkipList conditionalInsert(int x, int y)
+  {
+    long k = key(morton(x,y));
+    Leaf leaf = finger;
+    boolean descended = false;
+    // keys within the range of the last leaf cannot belong to other leaves
+    if ((leaf.n==0) || (k<leaf.keys[0]) || (k>leaf.keys[leaf.n-1]))
+    {
+      leaf = descend(k);
+      descended = true;
+    }
+    int pos = lowerBound(leaf, k);
+    if ((pos<leaf.n) && (leaf.keys[pos]==k))
+    {
+      finger = leaf;
+      return leaf.stars[pos]; // found
+    }
+    HalfSegmentSkipList added = new HalfSegmentSkipList();
+    if (leaf.n==LEAF_SIZE)
+    {
+      if (!descended) leaf = descend(k);
+      splitLeaf(leaf);
+      leaf = descend(k);
+      pos = lowerBound(leaf, k);
+    }
+    System.arraycopy(leaf.keys, pos, leaf.keys, pos+1, leaf.n-pos);
+    System.arraycopy(leaf.stars, pos, leaf.stars, pos+1, leaf.n-pos);
+    leaf.keys[pos] = k;
+    leaf.stars[pos] = added;
+    leaf.n++;
+    finger = leaf;
+    count++;
+    return added;
+  }
+
+  /** Return the skip list associated with vertex (x,y), without
+   * inserting the vertex if it is not present.
+   * @param x x coordinate of the vertex
+   * @param y y coordinate of the vertex
+   * @return the skip list associated with (x,y), or null if the
+   * vertex is not in this set */
+  public HalfSegmentSkipList find(int x, int y)
+  {
+    long k = key(morton(x,y));
+    Leaf leaf = finger;
+    if ((leaf.n==0) || (k<leaf.keys[0]) || (k>leaf.keys[leaf.n-1]))
+      leaf = descend(k);
+    int pos = lowerBound(leaf, k);
+    if ((pos<leaf.n) && (leaf.keys[pos]==k)) return leaf.stars[pos];
+    return null;
+  }
+
+  /** Split the given full leaf into two halves. The leaf must be the
+   * one reached by the last descent.
+   * @param leaf a full leaf */
+  protected void splitLeaf(Leaf leaf)
+  {
+    Leaf right = new Leaf();
+    int half = leaf.n/2;
+    right.n = leaf.n-half;
+    System.arraycopy(leaf.keys, half, right.keys, 0, right.n);
+    System.arraycopy(leaf.stars, half, right.stars, 0, right.n);
+    for (int i=half; i<leaf.n; i++) leaf.stars[i] = null;
+    leaf.n = half;
+    right.next = leaf.next;
+    leaf.next = right;
+    insertInParent(depth-1, right.keys[0], right);
+  }
+
+  /** Insert a new child, on the right of the child in position
+   * pathIndex[level] of inner node pathNodes[level]. If the node is
+   * full, split it and continue on the upper level. A negative level
+   * means that a new root must be created.
+   * @param level level of the node receiving the child
+   * @param sep smallest key in the new child
+   * @param child the new child */
+  protected void insertInParent(int level, long sep, Object child)
+  {
+    if (level<0)
+    {
+      Inner newRoot = new Inner();
+      newRoot.children[0] = root;
+      newRoot.children[1] = child;
+      newRoot.keys[1] = sep;
+      newRoot.n = 2;
+      root = newRoot;
+      return;
+    }
+    Inner node = pathNodes[level];
+    int pos = pathIndex[level]+1;
+    if (node.n<FANOUT)
+    {
+      System.arraycopy(node.keys, pos, node.keys, pos+1, node.n-pos);
+      System.arraycopy(node.children, pos, node.children, pos+1, node.n-pos);
+      node.keys[pos] = sep;
+      node.children[pos] = child;
+      node.n++;
+      return;
+    }
+    // split: put all n+1 children in temporary arrays, then share them
+    long[] keys = new long[FANOUT+1];
+    Object[] children = new Object[FANOUT+1];
+    System.arraycopy(node.keys, 0, keys, 0, pos);
+    System.arraycopy(node.children, 0, children, 0, pos);
+    keys[pos] = sep;
+    children[pos] = child;
+    System.arraycopy(node.keys, pos, keys, pos+1, FANOUT-pos);
+    System.arraycopy(node.children, pos, children, pos+1, FANOUT-pos);
+    int half = (FANOUT+1)/2;
+    Inner right = new Inner();
+    right.n = FANOUT+1-half;
+    System.arraycopy(keys, half, right.keys, 0, right.n);
+    System.arraycopy(children, half, right.children, 0, right.n);
+    node.n = half;
+    System.arraycopy(keys, 0, node.keys, 0, half);
+    System.arraycopy(children, 0, node.children, 0, half);
+    for (int i=half; i<FANOUT; i++) node.children[i] = null;
+    insertInParent(level-1, right.keys[0], right);
+  }
+
+  /** Print this set of vertices, in Morton order.
+   * @param newline true iff we want to go on new line after printing */
+  public void print(boolean newline)
+  {
+    if (count==0) System.out.print("Empty list");
+    for (Leaf leaf = firstLeaf; leaf!=null; leaf = leaf.next)
+      for (int i=0; i<leaf.n; i++)
+      {
+        long z = key(leaf.keys[i]);
+        System.out.print(" ("+mortonX(z)+","+mortonY(z)+") with "
+            +leaf.stars[i].size()+" half segments");
+      }
+    if (newline) System.out.println();
+  }
+
+  /** Rescale the perturbations around all vertices where they are
+   * too close, visiting the vertices in lexicographic order as in
+   * VertexSet (see HashVertexSet.adjustPerturbations). */
+  void adjustPerturbations()
+  {
+    long[] lex = new long[count];
+    int n = 0;
+    for (Leaf leaf = firstLeaf; leaf!=null; leaf = leaf.next)
+      for (int i=0; i<leaf.n; i++)
+      {
+        long z = key(leaf.keys[i]);
+        lex[n++] = lexKey(mortonX(z), mortonY(z));
+      }
+    Arrays.sort(lex);
+    for (int i=0; i<n; i++)
+      conditionalInsert(lexX(lex[i]), lexY(lex[i])).adjustPerturbations();
+    // perturbations changed also in other vertices
+    for (Leaf leaf = firstLeaf; leaf!=null; leaf = leaf.next)
+      for (int i=0; i<leaf.n; i++)
+        leaf.stars[i].dropTrees();
+  }
+
+  /** Apply the given visitor to all vertices of this set, in
+   * Morton order.
+   * @param v the visitor */
+  public void visit(Visitor v)
+  {
+    for (Leaf leaf = firstLeaf; leaf!=null; leaf = leaf.next)
+      for (int i=0; i<leaf.n; i++)
+      {
+        long z = key(leaf.keys[i]);
+        v.visit(mortonX(z), mortonY(z), leaf.stars[i]);
+      }
+  }
+
+  /** Apply the given visitor to all vertices of this set lying in the
+   * rectangle [x0,x1] x [y0,y1] (borders included), in Morton order.
+   * The scan starts from the Morton code of (x0,y0) and, whenever it
+   * meets a vertex outside the rectangle, jumps to the next Morton code
+   * inside the rectangle.
+   * @param x0 minimum x of the rectangle
+   * @param y0 minimum y of the rectangle
+   * @param x1 maximum x of the rectangle
+   * @param y1 maximum y of the rectangle
+   * @param v the visitor */
+  public void visitRange(int x0, int y0, int x1, int y1, Visitor v)
+  {
+    if ((x1<x0) || (y1<y0)) return;
+    long zmin = morton(x0,y0), zmax = morton(x1,y1);
+    long kmax = key(zmax);
+    long k = key(zmin);
+    Leaf leaf = descend(k);
+    int pos = lowerBound(leaf, k);
+    while (true)
+    {
+      if (pos==leaf.n)
+      {
+        leaf = leaf.next;
+        if (leaf==null) return;
+        pos = 0;
+      }
+      k = leaf.keys[pos];
+      if (k>kmax) return;
+      long z = key(k);
+      int x = mortonX(z), y = mortonY(z);
+      if ((x>=x0) && (x<=x1) && (y>=y0) && (y<=y1))
+      {
+        v.visit(x, y, leaf.stars[pos]);
+        pos++;
+      }
+      else
+      {
+        k = key(bigMin(z, zmin, zmax));
+        if ((leaf.n==0) || (k>leaf.keys[leaf.n-1])) leaf = descend(k);
+        pos = lowerBound(leaf, k);
+      }
+    }
+  }
+
+  /** Given a Morton code z lying between zmin and zmax but outside the
+   * rectangle having zmin and zmax as corners, return the smallest Morton
+   * code greater than z and lying inside the rectangle.
+   * @param z a Morton code outside the rectangle
+   * @param zmin Morton code of the lower left corner
+   * @param zmax Morton code of the upper right corner
+   * @return the next Morton code inside the rectangle */
+  protected static long bigMin(long z, long zmin, long zmax)
+  {
+    long result = 0;
+    for (int bit=63; bit>=0; bit--)
+    {
+      long b = 1L<<bit;
+      // bits of the same coordinate below the current one
+      long lower = (b-1) & (((bit&1)==0) ? X_BITS : Y_BITS);
+      int code = (((z&b)!=0) ? 4 : 0) | (((zmin&b)!=0) ? 2 : 0)
+               | (((zmax&b)!=0) ? 1 : 0);
+      switch (code)
+      {
+        case 1: // 0 0 1
+          result = (zmin & ~lower) | b;
+          zmax = (zmax & ~b) | lower;
+          break;
+        case 3: // 0 1 1
+          return zmin;
+        case 4: // 1 0 0
+          return result;
+        case 5: // 1 0 1
+          zmin = (zmin & ~lower) | b;
+          break;
+        default: // 0 0 0, 1 1 1 (0 1 0 and 1 1 0 cannot happen)
+          break;
+      }
+    }
+    return result;
+  }
+
+}
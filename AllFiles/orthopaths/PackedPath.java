@@ -0,0 +1,237 @@
+package orthopaths;
+
+/** <P>A path stored with two bits per move (four moves per byte, with
+ * the directions coded as in class Direction), indexed by long
+ * integers: the bytes are kept in blocks of at most 2^30 bytes, so the
+ * path may have more than 2^31 moves.</P>
+ * <P>The path is validated while moves are appended, as in
+ * PathUtils.isGood, in a single pass over the input. The checks are
+ * fused and performed on 64-bit words of 32 moves at a time:<UL>
+ * <LI>U-turns are found with bitwise operations on the whole word
+ * (the xor of two consecutive opposite directions is 2);</LI>
+ * <LI>returns to the starting point are looked for move by move only
+ * when the distance from the start is at most 32, otherwise the
+ * displacement of the word is obtained from a table giving the
+ * displacement of each byte.</LI></UL>
+ * Invalid characters are recorded while appending them.</P>
+ */
+public class PackedPath
+{
+  /** Number of moves stored in a byte. */
+  public static final int MOVES_PER_BYTE = 4;
+
+  /** Logarithm of the maximum number of bytes in a block. */
+  protected static final int BLOCK_BITS = 30;
+  /** Mask giving the position of a byte within its block. */
+  protected static final long BLOCK_MASK = (1L<<BLOCK_BITS)-1;
+  /** Number of bytes initially allocated for a block. */
+  protected static final int INITIAL_BYTES = 64;
+
+  /** Mask selecting the lower bit of each move in a word. */
+  protected static final long LOW_BITS = 0x5555555555555555L;
+
+  /** Horizontal and vertical displacement of the four moves
+   * coded in each byte value. */
+  protected static final int[] dxOfByte = new int[256], dyOfByte = new int[256];
+  static
+  {
+    for (int b=0; b<256; b++)
+      for (int k=0; k<MOVES_PER_BYTE; k++)
+      {
+        dxOfByte[b] += Direction.xDir((b>>>(2*k)) & 3);
+        dyOfByte[b] += Direction.yDir((b>>>(2*k)) & 3);
+      }
+  }
+
+  /** Blocks of bytes containing the moves. */
+  protected byte[][] blocks;
+  /** Number of moves. */
+  protected long length = 0;
+
+  /** Validation of the moves appended so far. */
+  protected PathUtils.Validation val = new PathUtils.Validation();
+  /** Moves of the current word, not yet validated. */
+  protected long word = 0;
+  /** Direction of the last move before the current word, -1 if none. */
+  protected int prevDir = -1;
+  /** Displacement from the starting point before the current word. */
+  protected long dx = 0, dy = 0;
+
+  /** Create an empty path. */
+  public PackedPath()
+  {  this(0);  }
+
+  /** Create an empty path, with room for the given number of moves.
+   * @param capacity expected number of moves */
+  public PackedPath(long capacity)
+  {
+    // whole words of 8 bytes
+    long bytes = Math.max(8*((capacity+31)/32), INITIAL_BYTES);
+    int num = (int)((bytes-1) >>> BLOCK_BITS) + 1;
+    blocks = new byte[num][];
+    for (int k=0; k<num-1; k++) blocks[k] = new byte[1<<BLOCK_BITS];
+    blocks[num-1] = new byte[(int)(bytes-((long)(num-1) << BLOCK_BITS))];
+  }
+
+  /** Create a path from a string of directions.
+   * Characters which are not directions are recorded as problems
+   * of the validation.
+   * @param path a string of directions */
+  public PackedPath(CharSequence path)
+  {
+    this(path.length());
+    for (int i=0; i<path.length(); i++)
+    {
+      char c = path.charAt(i);
+      add((c<256) ? Direction.decodByte((byte)c) : Direction.NO_DIR, c);
+    }
+  }
+
+  /** Return the number of moves.
+   * @return length of the path */
+  public long length()  {  return length;  }
+
+  /** Return the direction of the i-th move.
+   * @param i index of a move
+   * @return direction of the i-th move */
+  public int get(long i)
+  {
+    if (i>=length-(length & 31)) return (int)(word >>> ((i & 31) << 1)) & 3;
+    long b = i >>> 2;
+    byte bits = blocks[(int)(b >>> BLOCK_BITS)][(int)(b & BLOCK_MASK)];
+    return (bits >>> ((int)(i & 3) << 1)) & 3;
+  }
+
+  /** Return the character representing the direction of the i-th move.
+   * @param i index of a move
+   * @return character of the i-th move */
+  public char getName(long i)
+  {  return Direction.letterDir[get(i)];  }
+
+  /** Append a move at the end of the path. Moves are collected in
+   * the current word, which is validated and stored when complete.
+   * @param d direction of the move, a negative value if the input
+   * character is not a direction
+   * @param c the input character */
+  public void add(int d, char c)
+  {
+    if (d<0)
+    {
+      if (val.badIndex<0) {  val.badIndex = length; val.badChar = c;  }
+      d = 0;
+    }
+    int lane = (int)(length & 31);
+    word |= (long)d << (2*lane);
+    length++;
+    if (lane==31)
+    {
+      checkWord(32, true);
+      store();
+      word = 0;
+    }
+  }
+
+  /** Append a byte of a text in ASCII: white spaces are skipped.
+   * @param b a byte */
+  public void add(byte b)
+  {
+    int d = Direction.decodByte(b);
+    if (d!=Direction.BLANK) add(d, (char)(b & 0xFF));
+  }
+
+  /** Write the current word, which is complete, into the blocks. */
+  protected void store()
+  {
+    long b = (length-32) >>> 2;
+    int k = (int)(b >>> BLOCK_BITS);
+    if (k==blocks.length)
+    {
+      blocks = java.util.Arrays.copyOf(blocks, k+1);
+      blocks[k] = new byte[INITIAL_BYTES];
+    }
+    byte[] block = blocks[k];
+    int j = (int)(b & BLOCK_MASK);
+    if (j+8>block.length)
+    {
+      block = java.util.Arrays.copyOf(block,
+                 (int)Math.min(2L*block.length, 1L<<BLOCK_BITS));
+      blocks[k] = block;
+    }
+    for (int h=0; h<8; h++) block[j+h] = (byte)(word >>> (8*h));
+  }
+
+  /** Look for U-turns and returns to the start in the first n moves
+   * of the current word, which are the last n moves of the path.
+   * @param n number of moves in the word
+   * @param commit if true, the word is complete and the displacement
+   * is updated */
+  protected void checkWord(int n, boolean commit)
+  {
+    long first = length-n;
+    // lane k of prev is the direction of the move before move k
+    long prev = (word << 2) | Math.max(prevDir, 0);
+    long x = word ^ prev;
+    long uTurns = (x >>> 1) & ~x & LOW_BITS;
+    if (n<32) uTurns &= (1L << (2*n))-1;
+    if (prevDir<0) uTurns &= ~1L;
+    if ((uTurns!=0) && (val.uTurnIndex<0))
+    {
+      int k = Long.numberOfTrailingZeros(uTurns) >>> 1;
+      val.uTurnIndex = first+k;
+      val.uTurnFrom = (int)(prev >>> (2*k)) & 3;
+      val.uTurnTo = (int)(word >>> (2*k)) & 3;
+    }
+    long ex = dx, ey = dy;
+    if ((n==32) &&
+        ((val.returnIndex>=0) || (Math.abs(ex)+Math.abs(ey)>n)))
+    {
+      // the start cannot be reached within this word
+      for (int j=0; j<8; j++)
+      {
+        int b = (int)(word >>> (8*j)) & 0xFF;
+        ex += dxOfByte[b];
+        ey += dyOfByte[b];
+      }
+    }
+    else
+    {
+      for (int k=0; k<n; k++)
+      {
+        int d = (int)(word >>> (2*k)) & 3;
+        ex += Direction.xDir(d);
+        ey += Direction.yDir(d);
+        if ((ex==0) && (ey==0) && (val.returnIndex<0))
+          val.returnIndex = first+k;
+      }
+    }
+    if (commit)
+    {
+      dx = ex;
+      dy = ey;
+      prevDir = (int)(word >>> 62) & 3;
+    }
+  }
+
+  /** Return the validation of the path, as in PathUtils.isGood:
+   * the problem found, if any, and its index.
+   * @return the validation of the path */
+  public PathUtils.Validation validate()
+  {
+    int n = (int)(length & 31);
+    if (n>0) checkWord(n, false);
+    val.count = length;
+    val.report();
+    return val;
+  }
+
+  /** Return the string of directions of this path. It requires
+   * the path to have less than 2^31 moves.
+   * @return a string representing the path */
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder((int)length);
+    for (long i=0; i<length; i++) sb.append(getName(i));
+    return sb.toString();
+  }
+
+}
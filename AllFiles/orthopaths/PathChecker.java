@@ -1,5 +1,9 @@
 package orthopaths;
 
+import java.io.*;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Class for checking whether a path is self-crossing. 
  * The path is given as a list of moves in the four 
@@ -18,20 +22,60 @@ public class PathChecker
   /** Value defining the size of the array for containing the checked path. */
   public static int DEFAULT_CAPACITY = 100;
 
+  /** Kind of vertex set used as dictionary by new path checkers,
+   * one of VertexSet.LIST, VertexSet.HASH, VertexSet.MORTON. */
+  public static int DEFAULT_DICTIONARY = VertexSet.HASH;
+
+  /** If true, the perturbations on an edge are rescaled as soon as a new
+   * segment gets too close to another one (see rebalance), so that
+   * adjustPerturbations is no longer needed to keep them apart. */
+  public static boolean REBALANCE = true;
+
+  /** Kind of vertex set used as dictionary by this path checker. */
+  protected final int dictKind;
+
   /** The starting point for drawing the input path. */
   protected Vertex startPoint = null;
 
   /** Dictionary in which every traversed point (x,y) is a key.
    * The associated value is a radially sorted list of half segments. */
-  protected VertexSet global_dict = new VertexSet();
+  protected VertexSet global_dict;
   
   /** Last created half segment while scanning the input path. */
   protected HalfSegment lastSeg = null;
+
+  /** Counter of the half segments created by this checker, used to
+   * name them. All the state of a checker is in its instance, so that
+   * different checkers can run concurrently in different threads. */
+  protected int segCount = 0;
+
+  /** Number of times the perturbations of segments already in the path
+   * may have changed (see getRescales). */
+  protected int rescales = 0;
+
+  /** Bit of legalMoves for turning right. */
+  public static final int RIGHT = 1;
+  /** Bit of legalMoves for going straight. */
+  public static final int STRAIGHT = 2;
+  /** Bit of legalMoves for turning left. */
+  public static final int LEFT = 4;
+
+  /** Half segment used by legalMoves to look at the radial list of the
+   * last point, created when first needed, never added to a list. */
+  protected HalfSegment probe = null;
+
+  /** Journal of the perturbations changed by rebalancing, so that
+   * undoTest restores them exactly, null if it is not kept
+   * (see keepJournal). */
+  protected PerturbationJournal journal = null;
   
-  /** Inner class for the checked path. It contains two aligned arrays:
-   * one with the directions of each move, and one with the associated
+  /** Class for the checked path. It contains the half segments of the
+   * moves, from which the directions and the perturbations are taken.
+   * It is a static class, so that it does not refer to the checker;
+   * however its half segments refer to each other and to their vertices,
+   * see CompactPath for a result keeping only directions and
    * perturbations. */
-  public class CheckedPath
+  public static class CheckedPath implements CheckedMoves
   {
     /** Array of half segments generated from the moves. */
     protected HalfSegment[] allMoves = null;
@@ -51,27 +95,30 @@ public class PathChecker
       currInd = 0;
     }
 
-    /** Add a new move with given direction and perturbation.
-     * @param dir direction
-     * @param pert perturbation */
+    /** Make room for the given number of moves, so that the checked
+     * path does not grow while they are appended.
+     * @param moves expected number of moves */
+    public void reserve(int moves)
+    {
+       if (moves>=allMoves.length)
+         allMoves = java.util.Arrays.copyOf(allMoves, moves+1);
+    }
+
+    /** Add a new move given its half segment.
+     * @param seg the half segment of the move */
     public void append(HalfSegment seg)
     {
        if (currInd==allMoves.length-1)
        {
          if (speaking) System.out.println("Checked path is full, resize it");
-         int capacity = allMoves.length;
-         HalfSegment[] newMoves = new HalfSegment[2*capacity];
-         for (int i=0; i<capacity; i++)
-         {  newMoves[i] = allMoves[i];
-         }
-         allMoves = newMoves;
+         allMoves = java.util.Arrays.copyOf(allMoves, 2*allMoves.length);
        }
        allMoves[currInd] = seg;
        currInd++;
        if (speaking)
        {  System.out.println("checked path:");
           for (int j=0; j<currInd; j++)
-             System.out.println("["+Direction.letterDir[allMoves[j].dir]+","+allMoves[j].perturb+"]");
+             System.out.println("["+Direction.letterDir[allMoves[j].dir]+","+allMoves[j].getPerturbation()+"]");
           System.out.println("tot "+currInd+" moves.");       
        }
     }
@@ -103,21 +150,43 @@ public class PathChecker
      * @param i index of a move within the path
      * @return perturbation of the i-th move */
     public float getPerturbation(int i)  
-    {  return allMoves[i].perturb;  }
+    {  return allMoves[i].getPerturbation();  }
   }
   
   /** The checked version of the path: moves and associated perturbations. */
   protected CheckedPath output = null;
 
-  /** Create a new path checker. */
+  /** Create a new path checker, using the default kind of dictionary. */
   public PathChecker()
+  {  this(DEFAULT_DICTIONARY);  }
+
+  /** Create a new path checker, using the given kind of dictionary.
+   * @param dictKind kind of vertex set, one of VertexSet.LIST,
+   * VertexSet.HASH, VertexSet.MORTON */
+  public PathChecker(int dictKind)
   {
-    global_dict = new VertexSet();
-    HalfSegment.COUNT = 0;
+    this.dictKind = dictKind;
+    global_dict = VertexSet.create(dictKind);
+    segCount = 0;
     lastSeg = null;
     output = null;
   }
 
+  /** Return the name for a new half segment.
+   * @return the next progressive number */
+  protected int nextName()
+  {  return ++segCount;  }
+
+  /** Create the first half segment of a path. The other half segments
+   * are created from it (see HalfSegment.makeOpposite and
+   * HalfSegment.makeMate), so they are of the same class.
+   * @param name the name of the half segment
+   * @param point the starting point
+   * @param dir the direction
+   * @return a new half segment */
+  protected HalfSegment newHalfSegment(int name, Vertex point, int dir)
+  {  return new HalfSegment(name, point, dir);  }
+
   /** Store the last segment, in order to continue checking the path.
    * @param s the new last half segment */
   protected void storeLastSegment(HalfSegment s)
@@ -125,11 +194,12 @@ public class PathChecker
     lastSeg = s;
     if (speaking) System.out.println("==MATE  "+s.mate);
     if (speaking) System.out.println("==NEXT  "+s);
-    if (s.perturb==HalfSegment.UNDEF)
+    if (!s.hasPerturbation())
        System.out.println("ERR: segment "+s.name+" has undefined perturbation");
-    if (s.mate.perturb==HalfSegment.UNDEF)
+    if (!s.mate.hasPerturbation())
        System.out.println("ERR: segment "+s.mate.name+" has undefined perturbation");
     output.append(s);
+    if (journal!=null) journal.mark();
   }
 
   /** Start the process of path cheking. The pair (x,y) defines the starting 
@@ -143,8 +213,8 @@ public class PathChecker
   /** Reset the path checker. */
   public void reset()
   { // clear previous dictionary and segment counter
-    global_dict = new VertexSet();
-    HalfSegment.COUNT = 0;
+    global_dict = VertexSet.create(dictKind);
+    segCount = 0;
   }  
   
   /** Create the initial half segment of the curve, starting from point (x,y)
@@ -161,15 +231,16 @@ public class PathChecker
     if (clear) reset();
     startPoint = new Vertex(x,y);
     output = new CheckedPath(DEFAULT_CAPACITY);
+    if (journal!=null) journal.clear();
     if (speaking) System.out.println("Start_curve parte dal punto "+startPoint);
     // Passage through first point:
-    HalfSegment first = new HalfSegment(startPoint, dir);
+    HalfSegment first = newHalfSegment(nextName(), startPoint, dir);
     first.updatePerturb();
     // For the first half segment, we set a fake mate half segment oriented 
     // in direction WEST from the starting point. 
     // By convention the starting point must be leftmost,
     // so the first segment cannot be in direction WEST. 
-    HalfSegment fake = first.makeMate(2);
+    HalfSegment fake = first.makeMate(2, nextName());
     fake.updatePerturb();// VED SE IN PYTHON C'E'
     HalfSegmentSkipList new_list = global_dict.conditionalInsert(x,y);
     new_list.addFirstPair(first,fake);
@@ -189,17 +260,19 @@ public class PathChecker
   {
     Vertex point = Direction.movePoint(lastSeg.start, lastSeg.dir);
     if (speaking) System.out.println("Continue_curve passa nel punto "+point);
-    HalfSegment oppos = lastSeg.makeOpposite(point);
+    HalfSegment oppos = lastSeg.makeOpposite(point, nextName());
     if (speaking&&details) System.out.println("--OPPOSTO(entrante) "+oppos);
     //if ( oppos.perturb==HalfSegment.UNDEF)
     //   System.out.println("ERR opposite segment has undefined perturbation");    
-    HalfSegment next = oppos.makeMate(dir);
+    HalfSegment next = oppos.makeMate(dir, nextName());
     if (speaking&&details) System.out.println("--PROSS(uscente) "+next);
     HalfSegmentSkipList radial_list = global_dict.conditionalInsert(point);
     if (radial_list.size()==0)
     {
-      // this is the first passage at the point
-      oppos.updatePerturb();
+      // this is the first passage at the point: the entering half
+      // segment keeps the perturbation of its opposite, which may have
+      // been rescaled before the other segments of the edge were undone
+      if (!oppos.hasPerturbation()) oppos.updatePerturb();
       next.updatePerturb();
       radial_list.addFirstPair(oppos,next);
       if (speaking)
@@ -233,6 +306,7 @@ public class PathChecker
     }
     if (speaking) System.out.println("Inserito uscente. "+
         "Nel punto ci sono:\n"+radial_list.toString());
+    rebalance(radial_list, nodej);
     storeLastSegment(next);
     return true;
   }
@@ -249,34 +323,156 @@ public class PathChecker
     // the last segment will be lastSeg.mate.oppos.
     // If the path is self-crossing, remove lastSeg.opposite, and
     // make the path non-self-crossing (new chance).
+    // The half segments are removed through their nodes, without
+    // looking up their vertex (see HalfSegmentSkipList.remove).
     if (output.intersecting)
     {
       HalfSegment s = lastSeg.opposite;
-      Vertex point = s.start;
-      HalfSegmentSkipList radial_list = global_dict.conditionalInsert(point);
-      radial_list.searchRemove(s);
+      HalfSegmentSkipList.remove(s);
       if (speaking) 
-         System.out.println("Eliminato "+s.name+" ora in "+point+" ci sono "+radial_list);  
+         System.out.println("Eliminato "+s.name+" in "+s.start);  
       output.intersecting = false;
     }
     else
     { 
-      Vertex point = lastSeg.start;
-      HalfSegmentSkipList radial_list = global_dict.conditionalInsert(point); 
-      radial_list.searchRemove(lastSeg);
+      HalfSegmentSkipList.remove(lastSeg);
       if (speaking)
          System.out.println("Eliminati "+lastSeg.name+ " e "+lastSeg.mate.name
-               +" ora in "+point+ " ci sono "+radial_list);
+               +" in "+lastSeg.start);
       lastSeg = lastSeg.mate.opposite;
       output.currInd--;
+      if ((journal!=null) && (journal.undo()>0)) rescales++;
     }
     return true;
   }
 
+  /** Undo testing steps until the checked path has the given number
+   * of moves, as many calls of undoTest would do. If the last move
+   * failed, it is undone as well.
+   * @param moveIndex number of moves to keep, from 0 to the current
+   * length of the checked path
+   * @return false if there is no checked path or moveIndex is out of
+   * range, true otherwise */
+  public boolean rollbackTo(int moveIndex)
+  {
+    if ((output==null) || (moveIndex<0) || (moveIndex>output.length()))
+      return false;
+    if (output.intersecting) undoTest();
+    while (output.length()>moveIndex) undoTest();
+    return true;
+  }
+
+  /** Keep or stop keeping the journal of the perturbations changed by
+   * rebalancing (see class PerturbationJournal). With the journal,
+   * undoTest and rollbackTo restore the perturbations of the remaining
+   * moves exactly as they were before the undone moves; without it,
+   * they stay rescaled, in the same order. The journal grows with
+   * the rebalanced moves, so it is worth keeping only if moves are
+   * going to be undone. Moves checked before the journal is kept, and
+   * changes by adjustPerturbations or normalizePerturbations, are not
+   * restored.
+   * @param on true to keep the journal */
+  public void keepJournal(boolean on)
+  {
+    if (!on) journal = null;
+    else if (journal==null)
+    {
+      journal = newJournal();
+      if (output!=null)
+        for (int i=0; i<output.length(); i++) journal.mark();
+    }
+  }
+
+  /** Create the journal of the perturbations of this checker.
+   * @return a new journal */
+  protected PerturbationJournal newJournal()
+  {  return new HalfSegmentSkipList.Journal();  }
+
+  /** The exiting half segment in the given node has just been added to
+   * the given radial list: if REBALANCE is set and its perturbation is
+   * too close to the one of a neighbor, spread the perturbations
+   * around it on its edge (see HalfSegmentSkipList.rebalance). Only the exiting half
+   * segments get new perturbations, so only the vertex of the last move
+   * is checked.
+   * @param radial_list the radial list of the vertex of the last move
+   * @param node the node containing the exiting half segment */
+  protected void rebalance(HalfSegmentSkipList radial_list,
+                           HalfSegmentSkipList.Node node)
+  {
+    if (REBALANCE &&
+        radial_list.rebalance(node, (HalfSegmentSkipList.Journal)journal))
+      rescales++;
+  }
+
+  /** If the perturbations around some vertex are too close, rescale
+   * them in such a way that the minimum distance is 1 again
+   * (see HalfSegmentSkipList.adjustPerturbations). */
+  public void adjustPerturbations()
+  {
+    global_dict.adjustPerturbations();
+    if (journal!=null) journal.forget();
+    rescales++;
+  }
+
+  /** Rescale the perturbations of all the segments on each edge to
+   * consecutive integers, the middle one getting 0, as for the final
+   * output (see VertexSet.normalizePerturbations).
+   * The order of the segments does not change. */
+  public void normalizePerturbations()
+  {  normalizePerturbations(null);  }
+
+  /** Rescale the perturbations of all the segments on each edge to
+   * consecutive integers, as normalizePerturbations(), with the vertices
+   * split among the tasks of the given pool. The result is the same.
+   * @param pool the pool running the tasks, null to work sequentially */
+  public void normalizePerturbations(ForkJoinPool pool)
+  {
+    if (pool==null) global_dict.normalizePerturbations();
+    else global_dict.normalizePerturbations(pool);
+    // each segment is normalized from its west or south endpoint, where
+    // the last segment, going west or south, may be still missing
+    if ((lastSeg!=null) && (lastSeg.dir>=2))
+      global_dict.conditionalInsert(lastSeg.start).normalize(lastSeg);
+    if (journal!=null) journal.forget();
+    rescales++;
+  }
+
+  /** Return the number of times the perturbations of moves already in
+   * the checked path may have changed: by a rebalance while checking, by
+   * adjustPerturbations or by normalizePerturbations. If it does not
+   * change, the perturbations of the existing moves are the same, and
+   * a drawing of the path can be just extended with the new moves.
+   * @return a counter of the changes */
+  public int getRescales()  {  return rescales;  }
+
   /** Return the checked path (with perturbations).
    * @return the checked version of the path */
   public CheckedPath getCheckedPath()
   {  return output;  }
+
+  /** Return a compact copy of the checked path, with the directions
+   * and the current perturbations of its moves (see class CompactPath).
+   * The checker is not changed.
+   * @return the compact checked path */
+  public CompactPath snapshot()
+  {  return new CompactPath(output);  }
+
+  /** Return a compact copy of the checked path (see snapshot), and
+   * reset the checker: it drops all its half segments and vertices,
+   * which can be collected as garbage if no one else refers to them,
+   * and it can be used to check another path. Afterwards
+   * getCheckedPath returns null until a new path is started.
+   * @return the compact checked path */
+  public CompactPath detachPath()
+  {
+    CompactPath p = snapshot();
+    reset();
+    lastSeg = null;
+    output = null;
+    // the journal refers to the dropped half segments
+    if (journal!=null) journal = newJournal();
+    return p;
+  }
   
   /** Return the last point of the checked path.
    * @return the last vertex of the checked path */
@@ -292,6 +488,46 @@ public class PathChecker
   public boolean getAnswer()
   {  return output.hasIntersection();  }
 
+  /** Return the next moves which would not make the path self-crossing,
+   * without performing any of them. The radial list of the last point
+   * is only read (see HalfSegmentSkipList.exitDirections): its cost is
+   * about the one of a single continueTest, instead of one
+   * continueTest and one undoTest for each of the three moves.
+   * @return a mask of RIGHT, STRAIGHT and LEFT, relative to the
+   * direction of the last move; 0 if the path is not started or is
+   * already self-crossing */
+  public int legalMoves()
+  {
+    if ((lastSeg==null) || (output==null) || output.intersecting) return 0;
+    int d = lastSeg.dir;
+    HalfSegmentSkipList radial_list = global_dict.find(
+        lastSeg.start.x+Direction.xDir(d), lastSeg.start.y+Direction.yDir(d));
+    if (radial_list==null) return RIGHT|STRAIGHT|LEFT;
+    if (probe==null) probe = newHalfSegment(0, null, 0);
+    probe.mirror(lastSeg);
+    return relativeMoves(radial_list.exitDirections(probe), d);
+  }
+
+  /** Convert a mask of absolute directions into a mask of moves
+   * relative to the given direction, see legalMoves.
+   * @param dirs a mask with bit d set for each allowed direction d
+   * @param dir direction of the last move
+   * @return a mask of RIGHT, STRAIGHT and LEFT */
+  public static int relativeMoves(int dirs, int dir)
+  {
+    int moves = 0;
+    for (int k=0; k<3; k++)
+      if (((dirs>>((dir+3+k)%4))&1)!=0) moves |= 1<<k;
+    return moves;
+  }
+
+  /** Return the direction of a move relative to the given direction.
+   * @param dir direction of the last move
+   * @param move one of RIGHT, STRAIGHT, LEFT
+   * @return the absolute direction of the move */
+  public static int turn(int dir, int move)
+  {  return (dir+3+Integer.numberOfTrailingZeros(move))%4;  }
+
   /** Path is a string of directions, (x,y) is the starting point.
    * Scan the path and determine:<UL>
    * <LI> whether the path is self-crossing
@@ -305,25 +541,110 @@ public class PathChecker
    * @param clear if true, any previous processed half segment is removed
    * @return the ckecked version of the path (with perturbations) */
   public CheckedPath test(int x, int y, String path, boolean clear)
+  {
+    check(x,y, path, clear);
+    if (output.hasIntersection())
+      System.out.println("//// crossing /////");
+    else
+      System.out.println("//// OK /////");
+    return output;
+  }
+
+  /** Scan the path as in test, without printing the answer.
+   * If the path is self-crossing, the scan arrives only at
+   * the first crossing point: the index of the move causing the
+   * crossing is the length of the checked path.
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param path sequence of moves representing the path
+   * @param clear if true, any previous processed half segment is removed
+   * @return the ckecked version of the path (with perturbations) */
+  public CheckedPath check(int x, int y, CharSequence path, boolean clear)
   {
     int dir = Direction.decodDir(path.charAt(0)); 
     startTest(x,y, dir, clear);
+    output.reserve(path.length());
     if (speaking) System.out.println("==FIRST "+lastSeg);
   
     for (int i=1; i<path.length(); i++)
     {
       dir = Direction.decodDir(path.charAt(i));
-      if (continueTest(dir))
-      {
-        //System.out.println("==NEXT  "+lastSeg);
-      }
-      else break;
+      if (!continueTest(dir)) break;
     }
+    return output;
+  }
+
+  /** Path is a packed path, (x,y) is the starting point.
+   * Scan the path as in test(int,int,String,boolean), reading the
+   * moves directly from their packed representation.
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param path the packed path
+   * @param clear if true, any previous processed half segment is removed
+   * @return the ckecked version of the path (with perturbations) */
+  public CheckedPath test(int x, int y, PackedPath path, boolean clear)
+  {
+    check(x,y, path, clear);
     if (output.hasIntersection())
       System.out.println("//// crossing /////");
     else
       System.out.println("//// OK /////");
     return output;
   }
-  
+
+  /** Scan the packed path as in test, without printing the answer.
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param path the packed path
+   * @param clear if true, any previous processed half segment is removed
+   * @return the ckecked version of the path (with perturbations) */
+  public CheckedPath check(int x, int y, PackedPath path, boolean clear)
+  {
+    startTest(x,y, path.get(0), clear);
+    long n = path.length();
+    if (n<Integer.MAX_VALUE-8) output.reserve((int)n);
+    for (long i=1; i<n; i++)
+      if (!continueTest(path.get(i))) break;
+    return output;
+  }
+
+  /** Read a path from a character stream and check it while reading,
+   * without storing the path as a string (see class PathFeeder).
+   * The scan stops at the first crossing point.
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param in character stream containing the moves
+   * @param clear if true, any previous processed half segment is removed
+   * @return the ckecked version of the path (with perturbations)
+   * @throws IOException if reading fails or the path is not valid */
+  public CheckedPath test(int x, int y, Reader in, boolean clear)
+         throws IOException
+  {  return new PathFeeder(this, x,y, clear).check(in);  }
+
+  /** Read a path from a byte stream and check it while reading,
+   * without storing the path as a string (see class PathFeeder).
+   * The scan stops at the first crossing point.
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param in byte stream containing the moves
+   * @param clear if true, any previous processed half segment is removed
+   * @return the ckecked version of the path (with perturbations)
+   * @throws IOException if reading fails or the path is not valid */
+  public CheckedPath test(int x, int y, InputStream in, boolean clear)
+         throws IOException
+  {  return new PathFeeder(this, x,y, clear).check(in);  }
+
+  /** Read a path from a byte channel and check it while reading,
+   * without storing the path as a string (see class PathFeeder).
+   * The scan stops at the first crossing point.
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param in byte channel containing the moves
+   * @param clear if true, any previous processed half segment is removed
+   * @return the ckecked version of the path (with perturbations)
+   * @throws IOException if reading fails or the path is not valid */
+  public CheckedPath test(int x, int y, ReadableByteChannel in, boolean clear)
+         throws IOException
+  {  return new PathFeeder(this, x,y, clear).check(in);  }
+
 }
@@ -0,0 +1,205 @@
+package orthopaths;
+
+import java.awt.*;
+
+/** <P>Drawing of a path on the unit grid, at a given scale and with a
+ * given perturbation factor: mapping of grid coordinates to pixels,
+ * perturbed points of the moves, and drawing of the grid, of the raw
+ * curve and of the curve with perturbations.</P>
+ * <P>A curve with perturbations goes, for each move, from the end of
+ * the previous move to the perturbed start of the move, then to its
+ * perturbed end (see perturbX and perturbY): a move from a point in
+ * direction d starts OFFSET away from the point in direction d, and is
+ * shifted sideways by the perturbation times the perturbation factor.
+ * The offset is VisualCheck.OFFSET; the scale and the perturbation
+ * factor are VisualCheck.BIG_FACTOR and VisualCheck.PERTURB for the
+ * panel, while Figure, VectorExport and TilePyramid have their own.</P>
+ */
+public class PathDrawing
+{
+  /** Length of a unit segment, in pixels. */
+  protected final float scale;
+  /** Offset of a perturbation equal to 1. */
+  protected final float perturbFactor;
+  /** Limits of the drawing, in grid coordinates: pixel (0,0) is point
+   * (minX,maxY). */
+  protected final float minX, maxX, minY, maxY;
+
+  /** Create the drawing of a rectangle of the grid.
+   * @param scale length of a unit segment, in pixels
+   * @param perturbFactor offset of a perturbation equal to 1
+   * @param minX minimum x of the drawing
+   * @param maxX maximum x of the drawing
+   * @param minY minimum y of the drawing
+   * @param maxY maximum y of the drawing */
+  public PathDrawing(float scale, float perturbFactor,
+                     float minX, float maxX, float minY, float maxY)
+  {
+    this.scale = scale;
+    this.perturbFactor = perturbFactor;
+    this.minX = minX;
+    this.maxX = maxX;
+    this.minY = minY;
+    this.maxY = maxY;
+  }
+
+  /** Apply perturbation to given x coordinate. The coordinate
+   * gets modified by the perturbation only if direction dir is
+   * vertical. Otherwise it gets modified by the offset.
+   * @param x x coordinate
+   * @param dir a direction
+   * @param perturb perturbation to be applied
+   * @param factor offset of a perturbation equal to 1
+   * @return perturbed x coordinate */
+  public static float perturbX(float x, int dir, float perturb, float factor)
+  {
+    if (dir==0) return x+VisualCheck.OFFSET; // east
+    if (dir==2) return x-VisualCheck.OFFSET; // west
+    return x+factor*perturb;
+  }
+
+  /** Apply perturbation to given y coordinate. The coordinate
+   * gets modified by the perturbation only if direction dir is
+   * horizontal. Otherwise it gets modified by the offset.
+   * @param y y coordinate
+   * @param dir a direction
+   * @param perturb perturbation to be applied
+   * @param factor offset of a perturbation equal to 1
+   * @return perturbed y coordinate */
+  public static float perturbY(float y, int dir, float perturb, float factor)
+  {
+    if (dir==1) return y+VisualCheck.OFFSET; // north
+    if (dir==3) return y-VisualCheck.OFFSET; // south
+    return y+factor*perturb;
+  }
+
+  /** Apply perturbation to given x coordinate, with the perturbation
+   * factor of this drawing.
+   * @param x x coordinate
+   * @param dir a direction
+   * @param perturb perturbation to be applied
+   * @return perturbed x coordinate */
+  public float perturbX(float x, int dir, float perturb)
+  {  return perturbX(x, dir, perturb, perturbFactor);  }
+
+  /** Apply perturbation to given y coordinate, with the perturbation
+   * factor of this drawing.
+   * @param y y coordinate
+   * @param dir a direction
+   * @param perturb perturbation to be applied
+   * @return perturbed y coordinate */
+  public float perturbY(float y, int dir, float perturb)
+  {  return perturbY(y, dir, perturb, perturbFactor);  }
+
+  /** Return pixel coordinate for given x.
+   * @param x the real value of x coordinate
+   * @return the pixel coordinate for the real x */
+  public int mapX(float x) {  return (int)(scale*(x-minX));  }
+
+  /** Return pixel coordinate for given y.
+   * @param y the real value of y coordinate
+   * @return the pixel coordinate for the real y */
+  public int mapY(float y) {  return (int)(scale*(maxY-y));  }
+
+  /** Draw the unit grid. If the graphical context has a clip, only the
+   * lines crossing it are drawn. If the scale is smaller than
+   * VisualCheck.GRID_SPACING, only the lines at multiples of a power
+   * of 2 are drawn, at least GRID_SPACING pixels apart (the axes are
+   * always drawn).
+   * @param gr graphical context */
+  public void drawGrid(Graphics2D gr)
+  {
+    float x, y, x1 = minX, x2 = maxX, y1 = minY, y2 = maxY;
+    int lim1, lim2, i;
+    int step = 1;
+    while (step*scale<VisualCheck.GRID_SPACING) step *= 2;
+    Rectangle clip = gr.getClipBounds();
+    if (clip!=null)
+    {
+      x1 = Math.max(x1, (float)Math.floor(minX+clip.x/scale));
+      x2 = Math.min(x2, (float)Math.ceil(minX+(clip.x+clip.width)/scale));
+      y1 = Math.max(y1, (float)Math.floor(maxY-(clip.y+clip.height)/scale));
+      y2 = Math.min(y2, (float)Math.ceil(maxY-clip.y/scale));
+    }
+    lim1 = mapY(minY); lim2 = mapY(maxY);
+    for (x=step*(float)Math.ceil(x1/step); x<=x2; x+=step)
+    {
+      i = mapX(x);
+      gr.drawLine(i, lim1, i, lim2);
+    }
+    gr.setStroke(new BasicStroke(1.0f));
+    gr.drawLine(mapX(0.0f), lim1, mapX(0.0f), lim2);
+    gr.setStroke(new BasicStroke(0.5f));
+    lim1 = mapX(minX); lim2 = mapX(maxX);
+    for (y=step*(float)Math.ceil(y1/step); y<=y2; y+=step)
+    {
+      i = mapY(y);
+      gr.drawLine(lim1, i, lim2, i);
+    }
+    gr.setStroke(new BasicStroke(3.0f));
+    gr.drawLine(lim1, mapY(0.0f), lim2, mapY(0.0f));
+    gr.setStroke(new BasicStroke(1.0f));
+  }
+
+  /** Draw the curve as it is: a curve connecting all the points,
+   * without perturbations.
+   * @param gr graphical context
+   * @param rawPath the path, already validated
+   * @param x x of the starting point
+   * @param y y of the starting point */
+  public void drawRawCurve(Graphics2D gr, String rawPath, int x, int y)
+  {
+     Vertex v1;
+     int lastXi, lastYi;
+     Vertex v2 = new Vertex(x,y);
+     int xi = mapX(x), yi = mapY(y);
+     gr.fillRect(xi, yi, 2,2);
+     gr.setStroke(new BasicStroke(2.0f));
+     for (int i=0; i<rawPath.length(); i++)
+     {
+       v1 = v2;
+       lastXi = xi;
+       lastYi = yi;
+       int d = Direction.decodDir(rawPath.charAt(i));
+       v2 = Direction.movePoint(v1, d);
+       xi = mapX(v2.x);
+       yi = mapY(v2.y);
+       gr.drawLine(lastXi, lastYi, xi, yi);
+       gr.fillRect(xi, yi, 2,2);
+     }
+  }
+
+  /** Draw the curve with perturbations, which avoid intersections.
+   * @param gr graphical context
+   * @param path a checked path
+   * @param x x of the starting point
+   * @param y y of the starting point */
+  public void drawCurve(Graphics2D gr, CheckedMoves path, int x, int y)
+  {
+     Vertex v1;
+     int lastXi, lastYi;
+     Vertex v2 = new Vertex(x,y);
+     int xi = mapX(x), yi = mapY(y);
+     gr.setStroke(new BasicStroke(2.0f));
+     for (int i=0; i<path.length(); i++)
+     {
+       v1 = v2;
+       lastXi = xi;
+       lastYi = yi;
+       int d = path.getDir(i);
+       v2 = Direction.movePoint(v1, d);
+       float p = path.getPerturbation(i);
+       // with previous point and new direction
+       xi = mapX(perturbX(v1.x,d,p));
+       yi = mapY(perturbY(v1.y,d,p));
+       gr.drawLine(lastXi, lastYi, xi, yi);
+       // with new point and opposite of new direction
+       lastXi = xi;
+       lastYi = yi;
+       xi = mapX(perturbX(v2.x,Direction.oppositeDir(d),p));
+       yi = mapY(perturbY(v2.y,Direction.oppositeDir(d),p));
+       gr.drawLine(lastXi, lastYi, xi, yi);
+     }
+  }
+
+}
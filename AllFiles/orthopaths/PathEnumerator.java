@@ -0,0 +1,356 @@
+package orthopaths;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** <P>This class enumerates all the paths without U-turns, starting from
+ * point (0,0), which are not self-crossing, up to a given number of
+ * moves, and counts them by number of moves. As required by
+ * PathChecker.startTest, the starting point is leftmost: no point of
+ * the paths has a negative x. The checker places a fake mate going WEST
+ * from the starting point, which a move to the left of it could meet
+ * (see leftOfStart).</P>
+ * <P>The search is a depth-first visit of the tree of the paths: each
+ * node is a crossing-free path, its children are the crossing-free
+ * paths with one more move. The children are found by
+ * PathChecker.legalMoves, without trying the moves; each child is
+ * checked by continueTest and left by undoTest, with the journal of the
+ * perturbations kept (see PathChecker.keepJournal), so that the checker
+ * is back exactly in the state of the parent.</P>
+ * <P>The tree is split at a given depth (the prefix depth): the paths
+ * with that number of moves are found first, sequentially, then the
+ * subtrees below them are visited in parallel on a fork-join pool.
+ * The prefixes are split recursively into slices of at most THRESHOLD
+ * prefixes; each slice is visited by its own path checker, which goes
+ * from one prefix to the next by rolling back to their common part
+ * (see PathChecker.rollbackTo).</P>
+ */
+public class PathEnumerator
+{
+  /** Default prefix depth, at which the tree is split into tasks. */
+  public static int PREFIX_DEPTH = 8;
+
+  /** Maximum number of prefixes visited sequentially by one task. */
+  public static int THRESHOLD = 16;
+
+  /** Result of an enumeration. */
+  public static class Result
+  {
+    /** Maximum number of moves of the enumerated paths. */
+    public final int maxMoves;
+    /** Number of crossing-free paths with i moves, at index i
+     * (index 0 is not used). */
+    public final long[] counts;
+    /** Number of visited nodes of the tree, i.e., of enumerated paths. */
+    public final long nodes;
+    /** Number of prefixes, i.e., of subtrees visited in parallel. */
+    public final int prefixes;
+    /** Time taken by the enumeration, in seconds. */
+    public final double seconds;
+
+    /** Create the result of an enumeration.
+     * @param maxMoves maximum number of moves
+     * @param counts number of paths for each number of moves
+     * @param prefixes number of prefixes
+     * @param seconds time taken */
+    protected Result(int maxMoves, long[] counts, int prefixes, double seconds)
+    {
+      this.maxMoves = maxMoves;
+      this.counts = counts;
+      long n = 0;
+      for (int i=1; i<counts.length; i++) n += counts[i];
+      this.nodes = n;
+      this.prefixes = prefixes;
+      this.seconds = seconds;
+    }
+
+    /** Return the number of crossing-free paths with the given number
+     * of moves.
+     * @param moves number of moves, from 1 to maxMoves
+     * @return the number of paths */
+    public long count(int moves)  {  return counts[moves];  }
+
+    /** Return the number of visited nodes per second.
+     * @return the throughput of the enumeration */
+    public double nodesPerSecond()  {  return nodes/seconds;  }
+
+    /** Return a string representing this result, one line for each
+     * number of moves.
+     * @return a string representing this result */
+    public String toString()
+    {
+      StringBuilder sb = new StringBuilder();
+      for (int i=1; i<=maxMoves; i++)
+        sb.append(String.format("%3d %20d%n", i, counts[i]));
+      sb.append(String.format("%d nodes in %.3f s: %.0f nodes/s (%d prefixes)",
+                              nodes, seconds, nodesPerSecond(), prefixes));
+      return sb.toString();
+    }
+  }
+
+  /** Pool running the visits. */
+  protected final ForkJoinPool pool;
+
+  /** If true, paths are checked by ColumnarPathChecker, otherwise
+   * by PathChecker. */
+  protected final boolean columns;
+
+  /** Depth at which the tree is split into tasks. */
+  protected final int prefixDepth;
+
+  /** Create an enumerator using path checkers on the common pool,
+   * splitting the tree at depth PREFIX_DEPTH. */
+  public PathEnumerator()
+  {  this(ForkJoinPool.commonPool(), false, PREFIX_DEPTH);  }
+
+  /** Create an enumerator.
+   * @param pool the fork-join pool running the visits
+   * @param columns if true, use ColumnarPathChecker, otherwise
+   * PathChecker
+   * @param prefixDepth number of moves of the prefixes, at least 1 */
+  public PathEnumerator(ForkJoinPool pool, boolean columns, int prefixDepth)
+  {
+    if (prefixDepth<1)
+      throw new IllegalArgumentException("Prefix depth must be at least 1");
+    this.pool = pool;
+    this.columns = columns;
+    this.prefixDepth = prefixDepth;
+  }
+
+  /** Create the path checker used by one task, keeping the journal
+   * of the perturbations.
+   * @return a new path checker */
+  protected PathChecker newChecker()
+  {
+    PathChecker checker = columns ? new ColumnarPathChecker() : new PathChecker();
+    checker.keepJournal(true);
+    return checker;
+  }
+
+  /** Return true iff a move goes to the left of the starting point.
+   * Such a move is not tried: a path coming back to the starting point
+   * from WEST would go along its fake mate, which the checker reports
+   * as an error.
+   * @param x x of the last point of the path
+   * @param d direction of the move
+   * @return true iff the move ends at a negative x */
+  protected static boolean leftOfStart(int x, int d)
+  {  return x+Direction.xDir(d)<0;  }
+
+  /** Visit the subtree of the current path of the checker, counting
+   * the paths by number of moves. The checker is left with the same
+   * path.
+   * @param checker a path checker, with a crossing-free path
+   * @param dir direction of the last move of the path
+   * @param x x of the last point of the path
+   * @param moves number of moves of the path
+   * @param maxMoves maximum number of moves
+   * @param counts array where the paths are counted */
+  protected static void explore(PathChecker checker, int dir, int x,
+                                int moves, int maxMoves, long[] counts)
+  {
+    counts[moves]++;
+    if (moves==maxMoves) return;
+    int legal = checker.legalMoves();
+    for (int k=0; k<3; k++)
+    {
+      if (((legal>>k)&1)==0) continue;
+      int d = PathChecker.turn(dir, 1<<k);
+      if (leftOfStart(x, d)) continue;
+      if (checker.continueTest(d))
+        explore(checker, d, x+Direction.xDir(d), moves+1, maxMoves, counts);
+      checker.undoTest();
+    }
+  }
+
+  /** Prefixes of the tree, found by a sequential visit. */
+  protected static class Prefixes
+  {
+    /** Number of moves of each prefix. */
+    protected final int depth;
+    /** Directions of the moves of the prefixes, one after the other. */
+    protected byte[] dirs = new byte[64];
+    /** Number of prefixes. */
+    protected int size = 0;
+
+    /** Create an empty set of prefixes.
+     * @param depth number of moves of each prefix */
+    protected Prefixes(int depth)
+    {  this.depth = depth;  }
+
+    /** Add the current path of the checker as a new prefix.
+     * @param cp the checked path, with depth moves */
+    protected void add(PathChecker.CheckedPath cp)
+    {
+      if ((size+1)*depth>dirs.length)
+        dirs = Arrays.copyOf(dirs, 2*dirs.length);
+      for (int i=0; i<depth; i++) dirs[size*depth+i] = (byte)cp.getDir(i);
+      size++;
+    }
+
+    /** Return the direction of a move of a prefix.
+     * @param p index of the prefix
+     * @param i index of the move
+     * @return the direction */
+    protected int dir(int p, int i)  {  return dirs[p*depth+i];  }
+  }
+
+  /** Visit the tree up to the prefixes, counting the shorter paths,
+   * and collect the prefixes.
+   * @param checker a path checker, with a crossing-free path
+   * @param dir direction of the last move of the path
+   * @param x x of the last point of the path
+   * @param moves number of moves of the path
+   * @param counts array where the shorter paths are counted
+   * @param prefixes set receiving the prefixes */
+  protected static void collect(PathChecker checker, int dir, int x,
+                                int moves, long[] counts, Prefixes prefixes)
+  {
+    if (moves==prefixes.depth)
+    {
+      prefixes.add(checker.getCheckedPath());
+      return;
+    }
+    counts[moves]++;
+    int legal = checker.legalMoves();
+    for (int k=0; k<3; k++)
+    {
+      if (((legal>>k)&1)==0) continue;
+      int d = PathChecker.turn(dir, 1<<k);
+      if (leftOfStart(x, d)) continue;
+      if (checker.continueTest(d))
+        collect(checker, d, x+Direction.xDir(d), moves+1, counts, prefixes);
+      checker.undoTest();
+    }
+  }
+
+  /** Task visiting the subtrees of a slice of the prefixes. */
+  protected class Task extends RecursiveTask<long[]>
+  {
+    /** Version of the serialized form (tasks are never serialized). */
+    private static final long serialVersionUID = 1L;
+
+    /** All the prefixes. */
+    protected final Prefixes prefixes;
+    /** Maximum number of moves. */
+    protected final int maxMoves;
+    /** The slice goes from index lo (included) to hi (excluded). */
+    protected final int lo, hi;
+
+    /** Create a task for a slice of the prefixes.
+     * @param prefixes the prefixes
+     * @param maxMoves maximum number of moves
+     * @param lo first index of the slice
+     * @param hi index after the last one of the slice */
+    protected Task(Prefixes prefixes, int maxMoves, int lo, int hi)
+    {
+      this.prefixes = prefixes;
+      this.maxMoves = maxMoves;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    /** Visit the slice, or split it into two halves.
+     * @return the number of paths for each number of moves */
+    protected long[] compute()
+    {
+      if (hi-lo<=THRESHOLD) return visit();
+      int mid = (lo+hi) >>> 1;
+      Task left = new Task(prefixes, maxMoves, lo, mid);
+      Task right = new Task(prefixes, maxMoves, mid, hi);
+      invokeAll(left, right);
+      long[] counts = left.join();
+      long[] other = right.join();
+      for (int i=0; i<counts.length; i++) counts[i] += other[i];
+      return counts;
+    }
+
+    /** Visit the subtrees of the slice with a single path checker.
+     * From one prefix to the next the checker keeps the moves they
+     * have in common.
+     * @return the number of paths for each number of moves */
+    protected long[] visit()
+    {
+      long[] counts = new long[maxMoves+1];
+      PathChecker checker = newChecker();
+      int depth = prefixes.depth;
+      for (int p=lo; p<hi; p++)
+      {
+        int common = 0;
+        if (p>lo)
+          while ((common<depth) && (prefixes.dir(p,common)==prefixes.dir(p-1,common)))
+            common++;
+        if (common==0) checker.startTest(0,0, prefixes.dir(p,0), true);
+        else checker.rollbackTo(common);
+        for (int i=Math.max(common,1); i<depth; i++)
+          if (!checker.continueTest(prefixes.dir(p,i)))
+            throw new IllegalStateException("Crossing prefix "+p+" at move "+i);
+        explore(checker, prefixes.dir(p,depth-1), checker.getLastPoint().x,
+                depth, maxMoves, counts);
+      }
+      return counts;
+    }
+  }
+
+  /** Enumerate the crossing-free paths without U-turns starting from
+   * (0,0), with no point to the left of it, up to the given number of
+   * moves.
+   * @param maxMoves maximum number of moves, at least 1
+   * @return the number of paths for each number of moves */
+  public Result enumerate(int maxMoves)
+  {
+    if (maxMoves<1)
+      throw new IllegalArgumentException("Number of moves must be at least 1");
+    long t0 = System.nanoTime();
+    long[] counts = new long[maxMoves+1];
+    Prefixes prefixes = new Prefixes(Math.min(prefixDepth, maxMoves));
+    PathChecker checker = newChecker();
+    for (int dir=0; dir<4; dir++)
+    {
+      if (leftOfStart(0, dir)) continue;
+      checker.startTest(0,0, dir, true);
+      collect(checker, dir, Direction.xDir(dir), 1, counts, prefixes);
+    }
+    if (prefixes.size>0)
+    {
+      long[] sub = pool.invoke(new Task(prefixes, maxMoves, 0, prefixes.size));
+      for (int i=0; i<counts.length; i++) counts[i] += sub[i];
+    }
+    return new Result(maxMoves, counts, prefixes.size,
+                      (System.nanoTime()-t0)/1e9);
+  }
+
+  /** MAIN PROGRAM.
+   * Enumerate the crossing-free paths and print their number for each
+   * number of moves, and the throughput.
+   * Accept on the command line the maximum number of moves (default
+   * 16), the prefix depth (default PREFIX_DEPTH) and the number of
+   * threads (default: the number of processors); the option -C uses
+   * ColumnarPathChecker.
+   * @param arg command line */
+  public static void main(String[] arg)
+  {
+    int maxMoves = 16;
+    int depth = PREFIX_DEPTH;
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean columns = false;
+    int pos = 0;
+    for (String a : arg)
+    {
+      if (a.equals("-C")) {  columns = true; continue;  }
+      if (pos==0) maxMoves = Integer.parseInt(a);
+      else if (pos==1) depth = Integer.parseInt(a);
+      else if (pos==2) threads = Integer.parseInt(a);
+      pos++;
+    }
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    PathEnumerator en = new PathEnumerator(pool, columns, depth);
+    Result res = en.enumerate(maxMoves);
+    pool.shutdown();
+    System.out.println(res);
+    System.out.println(threads+" threads, prefix depth "+depth+
+                       (columns ? ", ColumnarPathChecker" : ", PathChecker"));
+  }
+
+}
@@ -0,0 +1,175 @@
+package orthopaths;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/** <P>This class reads a path from a character or byte stream, in chunks,
+ * and feeds its moves to a path checker while reading, so that the
+ * path never needs to be entirely in memory as a string.
+ * Letters may or may not be separated by white spaces.</P>
+ * <P>While feeding, the path is validated as in PathUtils.isGood:
+ * invalid characters, U-turns and passages through the starting point
+ * are reported through an IOException, and described by the fields
+ * problem and problemIndex of this object. Since the path is scanned
+ * only once, the first problem along the path is reported.</P>
+ * <P>Reading stops at the first crossing detected by the checker.</P>
+ */
+public class PathFeeder
+{
+  /** Size of the chunks read from the input. */
+  public static int CHUNK_SIZE = 8192;
+
+  /** String describing the problem arised while reading the path. */
+  public String problem = "";
+  /** Index of the move where the problem occurred. */
+  public long problemIndex = -1;
+
+  /** The path checker receiving the moves. */
+  protected PathChecker checker;
+  /** The starting point of the path. */
+  protected int x0, y0;
+  /** If true, the checker is cleared at the first move. */
+  protected boolean clear;
+
+  /** Number of moves fed so far. */
+  protected long count = 0;
+  /** Direction of the last move. */
+  protected int lastDir = Direction.NO_DIR;
+  /** Horizontal and vertical displacement from the starting point. */
+  protected long dx = 0, dy = 0;
+  /** Index of the move after which the path returned to its start,
+   * -1 if it did not. Allowed only if it is the last move. */
+  protected long returnIndex = -1;
+  /** True iff the checker has detected a crossing. */
+  protected boolean stopped = false;
+
+  /** Create an object feeding the given checker with a path starting
+   * from point (x,y).
+   * @param checker a path checker
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param clear if true, any previous processed half segment is removed */
+  public PathFeeder(PathChecker checker, int x, int y, boolean clear)
+  {
+    this.checker = checker;
+    this.x0 = x;
+    this.y0 = y;
+    this.clear = clear;
+  }
+
+  /** Return the number of moves fed to the checker so far.
+   * @return number of moves */
+  public long moves()  {  return count;  }
+
+  /** Record a problem and throw the corresponding exception.
+   * @param what description of the problem
+   * @param index index of the move where it occurred
+   * @throws IOException always */
+  protected void fail(String what, long index) throws IOException
+  {
+    problem = what;
+    problemIndex = index;
+    throw new IOException("Error: " + problem);
+  }
+
+  /** Validate the next move of the path and pass it to the checker.
+   * @param dir direction of the move, or NO_DIR if the input character
+   * is not a direction
+   * @param c the input character
+   * @return false iff the checker detected a crossing, and no more
+   * moves should be fed
+   * @throws IOException if the path is not valid */
+  public boolean feed(int dir, char c) throws IOException
+  {
+    if (dir==Direction.NO_DIR)
+      fail("Character "+c+" is not a valid direction", count);
+    if ((count>0) && (dir==Direction.oppositeDir(lastDir)))
+      fail("U-turn "+Direction.letterDir[lastDir]+Direction.letterDir[dir]
+           +" not allowed", count);
+    if (returnIndex>=0)
+      fail("After "+returnIndex+" moves, the path returns to its start",
+           returnIndex);
+    dx += Direction.xDir(dir);
+    dy += Direction.yDir(dir);
+    if ((dx==0) && (dy==0)) returnIndex = count;
+    if (count==0) checker.startTest(x0, y0, dir, clear);
+    else stopped = !checker.continueTest(dir);
+    lastDir = dir;
+    count++;
+    return !stopped;
+  }
+
+  /** Called at the end of the input: check that the path was not empty
+   * and return the checked path.
+   * @return the checked version of the path
+   * @throws IOException if the path is empty */
+  protected PathChecker.CheckedPath finish() throws IOException
+  {
+    if (count==0) fail("Empty path", -1);
+    return checker.getCheckedPath();
+  }
+
+  /** Read the path from a character stream and check it.
+   * @param in a reader
+   * @return the checked version of the path
+   * @throws IOException if reading fails or the path is not valid */
+  public PathChecker.CheckedPath check(Reader in) throws IOException
+  {
+    char[] buf = new char[CHUNK_SIZE];
+    int len;
+    while ((len = in.read(buf))>=0)
+    {
+      for (int i=0; i<len; i++)
+      {
+        char c = buf[i];
+        if (Character.isWhitespace(c)) continue;
+        if (!feed(Direction.decodDir(c), c)) return checker.getCheckedPath();
+      }
+    }
+    return finish();
+  }
+
+  /** Read the path from a byte channel and check it. Characters are
+   * decoded as ASCII.
+   * @param in a readable byte channel
+   * @return the checked version of the path
+   * @throws IOException if reading fails or the path is not valid */
+  public PathChecker.CheckedPath check(ReadableByteChannel in) throws IOException
+  {
+    ByteBuffer buf = ByteBuffer.allocate(CHUNK_SIZE);
+    while (in.read(buf)>=0)
+    {
+      buf.flip();
+      if (!feed(buf)) return checker.getCheckedPath();
+      buf.clear();
+    }
+    return finish();
+  }
+
+  /** Read the path from a byte stream and check it. Characters are
+   * decoded as ASCII.
+   * @param in an input stream
+   * @return the checked version of the path
+   * @throws IOException if reading fails or the path is not valid */
+  public PathChecker.CheckedPath check(InputStream in) throws IOException
+  {  return check(Channels.newChannel(in));  }
+
+  /** Feed all the bytes remaining in the given buffer.
+   * @param buf a byte buffer
+   * @return false iff the checker detected a crossing
+   * @throws IOException if the path is not valid */
+  public boolean feed(ByteBuffer buf) throws IOException
+  {
+    while (buf.hasRemaining())
+    {
+      byte b = buf.get();
+      int dir = Direction.decodByte(b);
+      if (dir==Direction.BLANK) continue;
+      if (!feed(dir, (char)(b & 0xFF))) return false;
+    }
+    return true;
+  }
+
+}
@@ -1,7 +1,12 @@
 package orthopaths;
 
 import java.io.*;
-import java.util.*; // Scanner
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /** This class contains utilities to manage paths. A path is a string
  * of characters representing directions. The provided utilities are:<UL>
@@ -16,27 +21,269 @@ public class PathUtils
   /** Index where the problem occurred. */
   public static int problemIndex = -1;
     
+  /** Maximum number of bytes of a file mapped in memory at once. */
+  public static int MAP_SIZE = 1<<30;
+
+  /** Single pass validation of a path, given one move at a time.
+   * It records the first occurrence of each kind of problem checked
+   * by isGood, and reports them with the same priority as isGood.
+   * Unlike isGood, the problem is described by the fields of this
+   * object, so that paths can be validated concurrently. */
+  public static class Validation
+  {
+    /** String describing the problem arised while checking the path. */
+    public String problem = "";
+    /** Index where the problem occurred. */
+    public long problemIndex = -1;
+
+    /** Number of moves seen so far. */
+    long count = 0;
+    /** Direction of the last move. */
+    int last = Direction.NO_DIR;
+    /** Displacement from the starting point. */
+    long dx = 0, dy = 0;
+    /** Index of the first invalid character, -1 if none. */
+    long badIndex = -1;
+    /** The first invalid character. */
+    char badChar;
+    /** Index of the first U-turn, -1 if none. */
+    long uTurnIndex = -1;
+    /** Directions forming the first U-turn. */
+    int uTurnFrom, uTurnTo;
+    /** Index of the first move returning to the start, -1 if none. */
+    long returnIndex = -1;
+
+    /** Consider the next move.
+     * @param d its direction, NO_DIR if not a direction
+     * @param c its character */
+    void add(int d, char c)
+    {
+      if (d==Direction.NO_DIR)
+      {
+        if (badIndex<0) {  badIndex = count; badChar = c;  }
+        last = d;
+        count++;
+        return;
+      }
+      if ((uTurnIndex<0) && (last>=0) && (d==Direction.oppositeDir(last)))
+      {  uTurnIndex = count; uTurnFrom = last; uTurnTo = d;
+      }
+      dx += Direction.xDir(d);
+      dy += Direction.yDir(d);
+      if ((returnIndex<0) && (dx==0) && (dy==0)) returnIndex = count;
+      last = d;
+      count++;
+    }
+
+    /** At the end of the path, set the problem of this object
+     * as isGood would do.
+     * @return true iff the path is correct */
+    public boolean report()
+    {
+      problem = "";
+      problemIndex = -1;
+      if (count==0)
+        problem = "Empty path";
+      else if (badIndex>=0)
+      {  problem = "Character "+badChar+" is not a valid direction";
+         problemIndex = badIndex;
+      }
+      else if (uTurnIndex>=0)
+      {  problem = "U-turn "+Direction.letterDir[uTurnFrom]
+                 +Direction.letterDir[uTurnTo]+" not allowed";
+         problemIndex = uTurnIndex;
+      }
+      else if ((returnIndex>=0) && (returnIndex<count-1))
+      {  problem = "After "+returnIndex+" moves, the path returns to its start";
+         problemIndex = returnIndex;
+      }
+      else return true;
+      return false;
+    }
+
+    /** Return true iff the validated path is correct.
+     * @return true iff no problem was found */
+    public boolean isGood()  {  return problem.isEmpty();  }
+
+    /** Copy the problem of this object into the static fields
+     * problem and problemIndex of PathUtils. */
+    void publish()
+    {
+      PathUtils.problem = problem;
+      PathUtils.problemIndex = (int)problemIndex;
+    }
+  }
+
+  /** Check if a path string is correct, as isGood, but in a single
+   * pass and without setting the static fields problem and problemIndex.
+   * It can be called concurrently by several threads.
+   * @param path the string to be checked
+   * @return the result of the validation */
+  public static Validation validate(CharSequence path)
+  {
+    Validation val = new Validation();
+    if (path==null) path = "";
+    for (int i=0; i<path.length(); i++)
+    {
+      char c = path.charAt(i);
+      val.add(Direction.decodDir(c), c);
+    }
+    val.report();
+    return val;
+  }
+
+  /** Apply the given operation to the file, mapped in memory
+   * in one or more consecutive buffers.
+   * @param filename the name of the file
+   * @param op operation to apply to each buffer, it returns false
+   * to stop before the end of the file
+   * @throws IOException if the file does not exist or cannot be read */
+  protected static void mapFile(String filename, BufferOperation op)
+            throws IOException
+  {
+    try (FileChannel ch = FileChannel.open(Paths.get(filename),
+                                           StandardOpenOption.READ))
+    {
+      long size = ch.size();
+      for (long pos=0; pos<size; pos+=MAP_SIZE)
+      {
+        ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos,
+                                Math.min(MAP_SIZE, size-pos));
+        if (!op.apply(buf)) return;
+      }
+    }
+  }
+
+  /** Operation applied to the buffers of a file mapped in memory. */
+  protected interface BufferOperation
+  {
+    /** Process the given buffer.
+     * @param buf a byte buffer
+     * @return false to stop processing the file
+     * @throws IOException if processing fails */
+    boolean apply(ByteBuffer buf) throws IOException;
+  }
+
   /** Read a path from file. On the file, the letters forming the path
    * may or may not be separated by black spaces.
+   * The file is mapped in memory and scanned once: letters are decoded
+   * through a lookup table (see Direction.decodByte) and validated
+   * while they are collected, in time linear in the file size.
+   * They are compacted into a single array as long as the file, from
+   * which the string is built once.
    * @param filename the name of the file
    * @return the string representing the path
+   * @throws IOException if the file does not exist, is too large for
+   * a string or does not contain a path */
+  public static String pathFromFile(String filename) throws IOException
+  {
+    long size = Files.size(Paths.get(filename));
+    if (size>Integer.MAX_VALUE-8)
+      throw new IOException("Error: file "+filename+" too large for a string");
+    final Validation val = new Validation();
+    final byte[] letters = new byte[(int)size];
+    final int[] count = new int[1];
+    mapFile(filename, new BufferOperation()
+    {
+      public boolean apply(ByteBuffer buf)
+      {
+        int n = count[0];
+        while (buf.hasRemaining() && (n<letters.length))
+        {
+          byte b = buf.get();
+          int d = Direction.decodByte(b);
+          if (d==Direction.BLANK) continue;
+          val.add(d, (char)(b & 0xFF));
+          letters[n++] = b;
+        }
+        count[0] = n;
+        return true;
+      }
+    });
+    boolean ok = val.report();
+    val.publish();
+    if (!ok) throw new IOException("Error: " + problem);
+    return new String(letters, 0, count[0], StandardCharsets.ISO_8859_1);
+  }
+
+  /** Read a path from file into its packed representation.
+   * The file is mapped in memory and scanned once, skipping white
+   * spaces; the path is validated while packing (see PackedPath).
+   * If the path is not valid, problem and problemIndex are set as
+   * in isGood.
+   * @param filename the name of the file
+   * @return the packed path
    * @throws IOException if the file does not exist or
    * does not contain a path */
-  public static String pathFromFile(String filename) throws IOException
+  public static PackedPath packedFromFile(String filename) throws IOException
   {
-    Scanner sc = new Scanner(new File(filename));
-    String s;
-    String path = "";
-    while (sc.hasNext())
+    final PackedPath path = new PackedPath();
+    mapFile(filename, new BufferOperation()
     {
-      s = sc.next().replaceAll(" ","");
-      for (int i=0; i<s.length(); i++)
-         path += s.charAt(i);
-    }
-    if (!isGood(path)) throw new IOException("Error: " + problem);
+      public boolean apply(ByteBuffer buf)
+      {
+        while (buf.hasRemaining()) path.add(buf.get());
+        return true;
+      }
+    });
+    Validation val = path.validate();
+    val.publish();
+    if (!val.isGood()) throw new IOException("Error: " + problem);
     return path;
   }
-  
+
+  /** Read a path from file and check it with the given checker,
+   * feeding the moves directly from the file mapped in memory, without
+   * building a string (see class PathFeeder). The check stops at the
+   * first crossing. If the path is not valid, problem and problemIndex
+   * are set as in isGood.
+   * @param filename the name of the file
+   * @param checker a path checker
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param clear if true, any previous processed half segment is removed
+   * @return the checked version of the path
+   * @throws IOException if the file does not exist or
+   * does not contain a path */
+  public static PathChecker.CheckedPath checkFile(String filename,
+         PathChecker checker, int x, int y, boolean clear) throws IOException
+  {
+    final PathFeeder feeder = new PathFeeder(checker, x,y, clear);
+    problem = "";
+    problemIndex = -1;
+    try
+    {
+      mapFile(filename, new BufferOperation()
+      {
+        public boolean apply(ByteBuffer buf) throws IOException
+        {  return feeder.feed(buf);  }
+      });
+      return feeder.finish();
+    }
+    catch (IOException exc)
+    {
+      if (feeder.problem.isEmpty()) throw exc; // reading error
+      // scan the whole file again to report the same problem as isGood
+      final Validation val = new Validation();
+      mapFile(filename, new BufferOperation()
+      {
+        public boolean apply(ByteBuffer buf)
+        {
+          while (buf.hasRemaining())
+          {
+            byte b = buf.get();
+            int d = Direction.decodByte(b);
+            if (d!=Direction.BLANK) val.add(d, (char)(b & 0xFF));
+          }
+          return true;
+        }
+      });
+      val.report();
+      val.publish();
+      throw new IOException("Error: " + problem);
+    }
+  }
+
   /** Check if a path contains only letters that prepresent directions,
    * i.e., characters equal to 'E', 'N', 'W', or 'S'.
    * @param path the string to be checked
@@ -0,0 +1,95 @@
+package orthopaths;
+
+/**
+ * <P>Journal of the perturbations changed while checking a path, so that
+ * undoing moves restores them exactly, as if the undone moves had never
+ * been checked.</P>
+ * <P>The perturbations of existing half segments change only when their
+ * edge is rebalanced (see HalfSegmentSkipList.rebalance): the old
+ * perturbation of each half segment whose perturbation changes is
+ * recorded. Since only a small range of the edge is relabelled on
+ * average, the journal grows by a few values per move. After each move of the checked path a mark is pushed;
+ * undoing a move pops its mark and restores, in reverse order, the
+ * values recorded after the mark of the previous move. Undoing the move
+ * restores the order on the edge anyway, since rescaling keeps the
+ * order, but without the journal the perturbations would remain
+ * rescaled.</P>
+ * <P>Subclasses keep the half segments the values belong to: objects
+ * (HalfSegmentSkipList.Journal) or indices (SegmentStore.Journal).</P>
+ */
+public abstract class PerturbationJournal
+{
+  /** Old perturbations, from index 0 to size-1. */
+  protected float[] values = new float[16];
+  /** Number of recorded perturbations. */
+  protected int size = 0;
+  /** Number of recorded perturbations after each move, from index 0
+   * to depth-1. */
+  protected int[] marks = new int[16];
+  /** Number of moves. */
+  protected int depth = 0;
+
+  /** Reserve an entry for an old perturbation. The subclass stores
+   * the half segment at the same index.
+   * @param value the old perturbation
+   * @return the index of the entry */
+  protected int add(float value)
+  {
+    if (size==values.length)
+      values = java.util.Arrays.copyOf(values, 2*size);
+    values[size] = value;
+    return size++;
+  }
+
+  /** Set again the perturbation of the half segment of the given entry
+   * (and of its opposite), and forget the half segment.
+   * @param i index of an entry */
+  protected abstract void restore(int i);
+
+  /** Return the number of recorded perturbations.
+   * @return the number of entries */
+  public int size()  {  return size;  }
+
+  /** Return the number of moves marked.
+   * @return the number of marks */
+  public int depth()  {  return depth;  }
+
+  /** Mark the end of a move: the values recorded so far belong to it
+   * or to the previous moves. */
+  public void mark()
+  {
+    if (depth==marks.length)
+      marks = java.util.Arrays.copyOf(marks, 2*depth);
+    marks[depth++] = size;
+  }
+
+  /** Undo the last marked move: restore the values recorded after the
+   * mark of the previous move, last first.
+   * @return the number of restored values, 0 if there is no move */
+  public int undo()
+  {
+    if (depth==0) return 0;
+    depth--;
+    int m = (depth>0) ? marks[depth-1] : 0;
+    int n = size-m;
+    while (size>m) restore(--size);
+    return n;
+  }
+
+  /** Forget all recorded values, keeping the moves: to be called when
+   * all perturbations are changed at once (e.g., by
+   * PathChecker.normalizePerturbations), since older values cannot be
+   * restored consistently with the new ones. */
+  public void forget()
+  {
+    size = 0;
+    java.util.Arrays.fill(marks, 0, depth, 0);
+  }
+
+  /** Forget all recorded values and moves. */
+  public void clear()
+  {
+    forget();
+    depth = 0;
+  }
+}
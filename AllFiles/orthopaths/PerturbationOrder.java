@@ -0,0 +1,194 @@
+package orthopaths;
+
+/** <P>Order of the segments lying on the same edge of the grid, from
+ * the one with the lowest perturbation to the one with the highest.
+ * The half segments of these segments are the ones having the same
+ * starting point and direction (at either endpoint of the edge), whose
+ * relative order is given by perturbations (see class HalfSegment).</P>
+ * <P>Each segment has an integer label, and labels increase with
+ * perturbations, so comparing two segments takes a single comparison
+ * of integers, and no precision is ever lost (order-maintenance list).
+ * A new segment takes the label halfway between the labels of its
+ * neighbors; at the ends of the list, the labels go on by STEP. When
+ * there is no room left, the labels of a range around the insertion
+ * point are spread evenly: the range is the smallest aligned range of
+ * 2^i labels containing at most 2^i/T^i segments, so that only
+ * a few segments are relabelled on average (Bender, Cole, Demaine,
+ * Farach-Colton, Zito, "Two simplified algorithms for maintaining
+ * order in a list", ESA 2002).</P>
+ * <P>The perturbations used for drawing are computed on demand from
+ * the ranks of the segments in the list: the segment in the middle
+ * has perturbation 0, and consecutive segments differ by 1, as after
+ * HalfSegmentSkipList.adjustPerturbations.</P>
+ */
+public class PerturbationOrder
+{
+  /** Labels are from 0 (included) to 2^BITS (excluded). */
+  protected static final int BITS = 62;
+  /** Difference between the labels of consecutive segments added at
+   * the ends of the list. */
+  protected static final long STEP = 1L<<32;
+  /** Maximum density 1/T^i of a range of 2^i labels after relabelling. */
+  protected static final double T = 1.5;
+
+  /** Label of a segment, shared by its two half segments. */
+  public static class Label
+  {
+    /** The list containing this label. */
+    protected final PerturbationOrder order;
+    /** Value of the label. */
+    protected long value;
+    /** Labels of the segments with the previous and next perturbation,
+     * null if none. */
+    protected Label prev, next;
+    /** Position in the list, valid if the list is ranked. */
+    protected int rank;
+
+    /** Create a label in the given list, not linked yet.
+     * @param order the list
+     * @param value the value of the label */
+    protected Label(PerturbationOrder order, long value)
+    {
+      this.order = order;
+      this.value = value;
+    }
+
+    /** Return the value of this label.
+     * @return the value of this label */
+    public long value()  {  return value;  }
+
+    /** Return the perturbation for drawing the segment with this label.
+     * @return the perturbation */
+    public float perturbation()  {  return order.perturbation(this);  }
+
+    /** Return a string representing this label.
+     * @return a string representing this label */
+    public String toString()  {  return Long.toString(value);  }
+  }
+
+  /** Labels with the lowest and the highest perturbation. */
+  protected Label lowest, highest;
+  /** Number of labels in the list. */
+  protected int size = 0;
+  /** True iff the ranks of the labels are up to date. */
+  protected boolean ranked = false;
+
+  /** Create a list containing only one label, and return it.
+   * @return the label of the first segment on an edge */
+  public static Label first()
+  {
+    PerturbationOrder order = new PerturbationOrder();
+    Label x = new Label(order, 1L<<(BITS-1));
+    order.lowest = order.highest = x;
+    order.size = 1;
+    return x;
+  }
+
+  /** Return the number of labels in this list.
+   * @return the size of this list */
+  public int size()  {  return size;  }
+
+  /** Link a new label between two consecutive labels.
+   * @param x the new label
+   * @param p the label before x, or null
+   * @param q the label after x, or null */
+  protected void link(Label x, Label p, Label q)
+  {
+    x.prev = p;
+    x.next = q;
+    if (p==null) lowest = x; else p.next = x;
+    if (q==null) highest = x; else q.prev = x;
+    size++;
+    ranked = false;
+  }
+
+  /** Add a label immediately after the given one.
+   * @param p a label of this list
+   * @return the new label */
+  public Label insertAfter(Label p)
+  {
+    while (true)
+    {
+      Label q = p.next;
+      long room = (q==null) ? (1L<<BITS)-p.value : q.value-p.value;
+      if (room>=2)
+      {
+        long d = (q==null) ? Math.min(STEP, room/2) : room/2;
+        Label x = new Label(this, p.value+d);
+        link(x, p, q);
+        return x;
+      }
+      relabel(p);
+    }
+  }
+
+  /** Add a label immediately before the given one.
+   * @param q a label of this list
+   * @return the new label */
+  public Label insertBefore(Label q)
+  {
+    Label p = q.prev;
+    if (p!=null) return insertAfter(p);
+    while (q.value<2) relabel(q);
+    Label x = new Label(this, q.value-Math.min(STEP, q.value/2));
+    link(x, null, q);
+    return x;
+  }
+
+  /** Remove a label from this list.
+   * @param x a label of this list */
+  public void remove(Label x)
+  {
+    if (x.prev==null) lowest = x.next; else x.prev.next = x.next;
+    if (x.next==null) highest = x.prev; else x.next.prev = x.prev;
+    x.prev = x.next = null;
+    size--;
+    ranked = false;
+  }
+
+  /** Spread evenly the labels of the smallest aligned range around
+   * label p which is sparse enough, leaving at least 2 between
+   * consecutive labels and at the ends of the range.
+   * @param p a label of this list */
+  protected void relabel(Label p)
+  {
+    Label lo = p, hi = p;
+    int count = 1;
+    for (int i=1; ; i++)
+    {
+      long range = 1L<<i;
+      long base = p.value & -range;
+      while ((lo.prev!=null) && (lo.prev.value>=base)) {  lo = lo.prev; count++;  }
+      while ((hi.next!=null) && (hi.next.value<base+range)) {  hi = hi.next; count++;  }
+      long gap = range/(count+1);
+      if ((i==BITS) || ((gap>=2) && ((count+1)*Math.pow(T,i)<=range)))
+      {
+        long v = base;
+        for (Label x = lo; ; x = x.next)
+        {
+          v += gap;
+          x.value = v;
+          if (x==hi) break;
+        }
+        return;
+      }
+    }
+  }
+
+  /** Return the perturbation for drawing the segment with the given
+   * label: its rank minus the rank of the middle segment. The ranks
+   * are computed again if the list has changed.
+   * @param x a label of this list
+   * @return the perturbation */
+  public float perturbation(Label x)
+  {
+    if (!ranked)
+    {
+      int r = 0;
+      for (Label y = lowest; y!=null; y = y.next) y.rank = r++;
+      ranked = true;
+    }
+    return x.rank-size/2;
+  }
+
+}
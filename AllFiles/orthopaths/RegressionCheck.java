@@ -0,0 +1,267 @@
+package orthopaths;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/** <P>This class runs checks of the path checkers on inputs that broke
+ * them in the past, and prints one line for each check, with "ok" or
+ * "FAILED" and the reason. The program exits with status 1 if some
+ * check failed, so that it can be run after every change.</P>
+ * <P>The checks run on the three engines of class CheckerBenchmark.</P>
+ * <UL>
+ * <LI>undo: a crossing-free path is checked, partly undone with
+ * rollbackTo and extended again, several times, with and without the
+ * journal of the perturbations. No crossing may be reported; with the
+ * journal, the perturbations must be the same as those of a check
+ * of the whole path without undo.</LI>
+ * <LI>nested: the motif of figure12_*.dat repeated many times, where
+ * most moves are inserted in the middle of a large group of segments
+ * on the same edge. The path must be crossing-free, and checking four
+ * times as many moves may take at most SCALING times as long, so that
+ * the check fails if rebalancing becomes quadratic again. The column
+ * engine is not measured, since it scans the radial lists.</LI>
+ * <LI>enumeration: the numbers of paths counted by PathEnumerator, on
+ * the object and column engines, must be those found by checking every
+ * path without U-turns and with a leftmost start, one by one, with a
+ * new checker, and for up to 3 moves (no crossing is possible yet) the
+ * numbers of such paths in the lattice. No "ERR" line may be printed,
+ * as when a path came back to its start along the fake mate.</LI>
+ * </UL>
+ */
+public class RegressionCheck
+{
+  /** Number of moves of the shorter path of the nested check. */
+  public static int NESTED_MOVES = 100000;
+  /** Maximum ratio between the times of the nested check on 4*NESTED_MOVES
+   * and on NESTED_MOVES moves (16 for a quadratic check). */
+  public static double SCALING = 8;
+  /** Number of measures of each length, the fastest one is kept. */
+  public static int REPEAT = 3;
+  /** Maximum number of moves of the enumeration check. */
+  public static int ENUMERATION_MOVES = 9;
+  /** Number of paths without U-turns from (0,0) with no point at a
+   * negative x, with i moves at index i: all of them are crossing-free
+   * up to 3 moves. */
+  protected static final long[] LATTICE = { 1, 3, 7, 19 };
+
+  /** Number of checks which failed. */
+  protected int failures = 0;
+
+  /** Print the outcome of a check.
+   * @param name name of the check
+   * @param engine index in CheckerBenchmark.ENGINES
+   * @param error null if the check passed, otherwise the reason */
+  protected void report(String name, int engine, String error)
+  {
+    System.out.printf("%-12s %-8s %s%n", name, CheckerBenchmark.ENGINES[engine],
+                      (error==null) ? "ok" : "FAILED: "+error);
+    if (error!=null) failures++;
+  }
+
+  /** Check the moves of a path from index from to index to (excluded),
+   * continuing the current path of the checker.
+   * @param checker a path checker, with a path of from moves
+   * @param path a string of directions
+   * @param from index of the first move to check
+   * @param to index after the last move to check
+   * @return the index of the first crossing move, or -1 if none */
+  protected static int extend(PathChecker checker, String path, int from, int to)
+  {
+    for (int i=from; i<to; i++)
+      if (!checker.continueTest(Direction.decodDir(path.charAt(i)))) return i;
+    return -1;
+  }
+
+  /** Check a crossing-free path, then go back to each of the given
+   * numbers of moves with rollbackTo and check the path again up to
+   * the given end.
+   * @param engine index in CheckerBenchmark.ENGINES
+   * @param journal true to keep the journal of the perturbations
+   * @param path a crossing-free path
+   * @param steps pairs (number of moves kept, end of the extension)
+   * @return null if the check passed, otherwise the reason */
+  protected static String undo(int engine, boolean journal, String path,
+                               int[] steps)
+  {
+    PathChecker checker = CheckerBenchmark.newChecker(engine, path.length());
+    checker.keepJournal(journal);
+    checker.startTest(0,0, Direction.decodDir(path.charAt(0)), true);
+    int cross = extend(checker, path, 1, path.length());
+    for (int i=0; (i<steps.length) && (cross<0); i+=2)
+    {
+      checker.rollbackTo(steps[i]);
+      cross = extend(checker, path, steps[i], steps[i+1]);
+    }
+    if (cross>=0) return "false crossing at move "+cross;
+    if (!journal) return null;
+    PathChecker.CheckedPath cp = checker.getCheckedPath();
+    PathChecker.CheckedPath ref =
+        CheckerBenchmark.newChecker(engine, 0).check(0,0, path, true);
+    for (int i=0; i<ref.length(); i++)
+      if (cp.getPerturbation(i)!=ref.getPerturbation(i))
+        return "perturbation of move "+i+" differs after undo";
+    return null;
+  }
+
+  /** Check undo on the motif of figure12_*.dat, where the perturbations
+   * are rescaled often, and on random crossing-free paths.
+   * A rescaled half segment whose edge has been emptied by an undo
+   * must keep its perturbation when the path enters its endpoint
+   * again. */
+  public void checkUndo()
+  {
+    String motif = Workloads.repeat(Workloads.MOTIF_12, 60);
+    int[] motifSteps = { 3, 329, 22, motif.length() };
+    Random rnd = new Random(1);
+    String[] random = new String[20];
+    int[][] randomSteps = new int[random.length][];
+    for (int k=0; k<random.length; k++)
+    {
+      random[k] = Workloads.randomCrossingFree(rnd, 2000);
+      int length = random[k].length();
+      int end = length;
+      randomSteps[k] = new int[6];
+      for (int i=0; i<6; i+=2)
+      {
+        int keep = 1+rnd.nextInt(end);
+        end = (i==4) ? length : keep+rnd.nextInt(length-keep+1);
+        randomSteps[k][i] = keep;
+        randomSteps[k][i+1] = end;
+      }
+    }
+    for (int e=0; e<CheckerBenchmark.ENGINES.length; e++)
+      for (int j=0; j<2; j++)
+      {
+        String error = undo(e, j==1, motif, motifSteps);
+        for (int k=0; (k<random.length) && (error==null); k++)
+          error = undo(e, j==1, random[k], randomSteps[k]);
+        report((j==1) ? "undo-journal" : "undo", e, error);
+      }
+  }
+
+  /** Check the motif of figure12_*.dat with the given number of moves
+   * REPEAT times, and return the shortest time taken, so that a garbage
+   * collection does not decide the outcome.
+   * @param engine index in CheckerBenchmark.ENGINES
+   * @param moves number of moves
+   * @return the time in seconds, or -1 if a crossing is reported */
+  protected static double nested(int engine, int moves)
+  {
+    String path = Workloads.repeat(Workloads.MOTIF_12,
+                                   moves/Workloads.MOTIF_12.length());
+    double best = Double.MAX_VALUE;
+    for (int r=0; r<REPEAT; r++)
+    {
+      System.gc();
+      PathChecker checker = CheckerBenchmark.newChecker(engine, path.length());
+      long t0 = System.nanoTime();
+      boolean crossing = checker.check(0,0, path, true).hasIntersection();
+      double seconds = (System.nanoTime()-t0)/1e9;
+      if (crossing) return -1;
+      best = Math.min(best, seconds);
+    }
+    return best;
+  }
+
+  /** Check that the time taken on deeply nested paths grows about
+   * linearly with the number of moves. */
+  public void checkNested()
+  {
+    for (int e=0; e<CheckerBenchmark.ENGINES.length; e++)
+    {
+      if (e==1) continue; // column engine
+      nested(e, NESTED_MOVES); // warm up
+      double t1 = nested(e, NESTED_MOVES);
+      double t4 = nested(e, 4*NESTED_MOVES);
+      String error = null;
+      if ((t1<0) || (t4<0)) error = "false crossing";
+      else if (t4>SCALING*t1)
+        error = String.format("%.3f s for %d moves, %.3f s for %d moves",
+                              t1, NESTED_MOVES, t4, 4*NESTED_MOVES);
+      report("nested", e, error);
+    }
+  }
+
+  /** Count the crossing-free paths without U-turns extending a path,
+   * with no point at a negative x, checking each of them from scratch
+   * by a new checker.
+   * @param engine index in CheckerBenchmark.ENGINES
+   * @param path the path, crossing-free
+   * @param x x of the last point of the path
+   * @param counts array where the paths are counted by number of moves */
+  protected static void bruteForce(int engine, StringBuilder path, int x,
+                                   long[] counts)
+  {
+    counts[path.length()]++;
+    if (path.length()==counts.length-1) return;
+    int last = (path.length()==0) ? -1
+               : Direction.decodDir(path.charAt(path.length()-1));
+    for (int d=0; d<4; d++)
+    {
+      if ((last>=0) && (d==Direction.oppositeDir(last))) continue;
+      if (x+Direction.xDir(d)<0) continue;
+      path.append(Direction.letterDir[d]);
+      if (!CheckerBenchmark.newChecker(engine, path.length())
+          .check(0,0, path.toString(), true).hasIntersection())
+        bruteForce(engine, path, x+Direction.xDir(d), counts);
+      path.setLength(path.length()-1);
+    }
+  }
+
+  /** Check the numbers of paths counted by PathEnumerator, with prefix
+   * depths 1 and 4 and two threads, against the lattice for short paths
+   * and against bruteForce. */
+  public void checkEnumeration()
+  {
+    for (int e=0; e<2; e++)
+    {
+      long[] expected = new long[ENUMERATION_MOVES+1];
+      bruteForce(e, new StringBuilder(), 0, expected);
+      String error = null;
+      for (int i=1; (i<LATTICE.length) && (error==null); i++)
+        if (expected[i]!=LATTICE[i])
+          error = expected[i]+" paths of "+i+" moves checked one by one, "+
+                  LATTICE[i]+" in the lattice";
+      ForkJoinPool pool = new ForkJoinPool(2);
+      PrintStream out = System.out;
+      ByteArrayOutputStream printed = new ByteArrayOutputStream();
+      System.setOut(new PrintStream(printed, true));
+      try
+      {
+        for (int depth=1; (depth<=4) && (error==null); depth+=3)
+        {
+          PathEnumerator.Result res =
+              new PathEnumerator(pool, e==1, depth).enumerate(ENUMERATION_MOVES);
+          for (int i=1; (i<=ENUMERATION_MOVES) && (error==null); i++)
+            if (res.count(i)!=expected[i])
+              error = res.count(i)+" paths of "+i+" moves enumerated, "+
+                      expected[i]+" checked one by one";
+        }
+      }
+      finally
+      {
+        System.setOut(out);
+        pool.shutdown();
+      }
+      if ((error==null) && printed.toString().contains("ERR"))
+        error = "the checker printed an error";
+      report("enumeration", e, error);
+    }
+  }
+
+  /** MAIN PROGRAM.
+   * Run all checks and exit with status 1 if some of them failed.
+   * @param arg command line, not used */
+  public static void main(String[] arg)
+  {
+    RegressionCheck rc = new RegressionCheck();
+    rc.checkUndo();
+    rc.checkNested();
+    rc.checkEnumeration();
+    System.out.println((rc.failures==0) ? "All checks passed" :
+                       rc.failures+" checks FAILED");
+    if (rc.failures>0) System.exit(1);
+  }
+
+}
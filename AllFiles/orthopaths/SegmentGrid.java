@@ -0,0 +1,155 @@
+package orthopaths;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** <P>Spatial index of the moves of a path which grows and shrinks at
+ * its end, as the path drawn by VisualCheck, to find the moves which
+ * may be visible in a rectangle. Unlike SegmentIndex, which is built
+ * once for a complete path, moves are appended and removed at constant
+ * cost.</P>
+ * <P>The plane is divided into square cells of CELL units. Each move
+ * belongs to the cell containing the lower left end of its unit
+ * segment, and each cell containing some moves has an array of their
+ * indices, in increasing order, in a hash map. The moves removed from
+ * the end of the path are the last ones of their cells.</P>
+ */
+public class SegmentGrid
+{
+  /** Side of the cells, in grid units. */
+  public static int CELL = 16;
+
+  /** Coordinates of the vertices of the path: vertex i is the starting
+   * point of move i, vertex n is the end of the path. */
+  protected int[] xs, ys;
+  /** Number of moves. */
+  protected int n;
+  /** Moves of each non empty cell: element 0 of the array is the number
+   * of moves, which follow. */
+  protected final HashMap<Long,int[]> cells = new HashMap<Long,int[]>();
+
+  /** Create an index of a path with no moves.
+   * @param x x of the starting point
+   * @param y y of the starting point */
+  public SegmentGrid(int x, int y)
+  {
+    xs = new int[16];
+    ys = new int[16];
+    xs[0] = x;
+    ys[0] = y;
+  }
+
+  /** Return the key of a cell.
+   * @param cx column of the cell
+   * @param cy row of the cell
+   * @return the key of the cell in the hash map */
+  protected static long key(int cx, int cy)
+  {  return (((long)cx)<<32) | (cy & 0xffffffffL);  }
+
+  /** Return the key of the cell of a move.
+   * @param i index of a move
+   * @return the key of the cell containing the lower left end of its
+   * unit segment */
+  protected long cellOf(int i)
+  {
+    return key(Math.floorDiv(Math.min(xs[i], xs[i+1]), CELL),
+               Math.floorDiv(Math.min(ys[i], ys[i+1]), CELL));
+  }
+
+  /** Add a move at the end of the path.
+   * @param dir the direction of the move */
+  public void append(int dir)
+  {
+    if (n+2>xs.length)
+    {
+      xs = Arrays.copyOf(xs, 2*xs.length);
+      ys = Arrays.copyOf(ys, 2*ys.length);
+    }
+    xs[n+1] = xs[n]+Direction.xDir(dir);
+    ys[n+1] = ys[n]+Direction.yDir(dir);
+    Long k = cellOf(n);
+    int[] list = cells.get(k);
+    if (list==null)
+    {
+      list = new int[4];
+      cells.put(k, list);
+    }
+    else if (list[0]+1==list.length)
+    {
+      list = Arrays.copyOf(list, 2*list.length);
+      cells.put(k, list);
+    }
+    list[++list[0]] = n;
+    n++;
+  }
+
+  /** Remove the moves at the end of the path, keeping the first ones.
+   * @param moves number of moves to keep */
+  public void truncate(int moves)
+  {
+    while (n>moves)
+    {
+      n--;
+      Long k = cellOf(n);
+      int[] list = cells.get(k);
+      if (--list[0]==0) cells.remove(k);
+    }
+  }
+
+  /** Visit the moves whose curve with perturbations may intersect the
+   * given rectangle (which is enlarged by one unit, see SegmentIndex).
+   * If the rectangle covers more cells than those in the hash map,
+   * the hash map is scanned instead.
+   * @param x1 minimum x of the rectangle
+   * @param y1 minimum y of the rectangle
+   * @param x2 maximum x of the rectangle
+   * @param y2 maximum y of the rectangle
+   * @param v the visitor */
+  public void visitMoves(float x1, float y1, float x2, float y2,
+                         SegmentIndex.Visitor v)
+  {
+    double cx1 = Math.floor((x1-1)/CELL), cx2 = Math.floor((x2+1)/CELL);
+    double cy1 = Math.floor((y1-1)/CELL), cy2 = Math.floor((y2+1)/CELL);
+    if ((cx2-cx1+1)*(cy2-cy1+1)>cells.size())
+    {
+      for (Map.Entry<Long,int[]> e : cells.entrySet())
+      {
+        long k = e.getKey();
+        int cx = (int)(k>>32), cy = (int)k;
+        if ((cx>=cx1) && (cx<=cx2) && (cy>=cy1) && (cy<=cy2))
+          visit(e.getValue(), v);
+      }
+      return;
+    }
+    for (int cy=(int)cy1; cy<=cy2; cy++)
+      for (int cx=(int)cx1; cx<=cx2; cx++)
+      {
+        int[] list = cells.get(key(cx, cy));
+        if (list!=null) visit(list, v);
+      }
+  }
+
+  /** Visit the moves of a cell.
+   * @param list the moves of the cell
+   * @param v the visitor */
+  protected static void visit(int[] list, SegmentIndex.Visitor v)
+  {
+    for (int j=1; j<=list[0]; j++) v.visit(list[j]);
+  }
+
+  /** Return the number of moves.
+   * @return the number of moves */
+  public int size()  {  return n;  }
+
+  /** Return the x coordinate of a vertex of the path.
+   * @param i index of the vertex, from 0 (starting point) to size()
+   * @return x coordinate of the starting point of move i */
+  public int getX(int i)  {  return xs[i];  }
+
+  /** Return the y coordinate of a vertex of the path.
+   * @param i index of the vertex, from 0 (starting point) to size()
+   * @return y coordinate of the starting point of move i */
+  public int getY(int i)  {  return ys[i];  }
+
+}
@@ -0,0 +1,254 @@
+package orthopaths;
+
+import java.util.Arrays;
+
+/** <P>Spatial index over the moves of a checked path, to find the
+ * moves that may be drawn inside a rectangle without scanning the
+ * whole path.</P>
+ * <P>The plane is divided into square cells of the same size, chosen so
+ * that there are about MOVES_PER_CELL moves per cell on average. Each
+ * move belongs to the cell containing the lower left end of its unit
+ * segment; the moves of all cells are kept in a single array, sorted by
+ * cell (counting sort) and, within a cell, by index, as in a compressed
+ * sparse row matrix. Since the curve with perturbations (see
+ * VisualCheck.drawCurve) never goes farther than 1/2 from the unit
+ * segments, a query enlarges the rectangle by one unit.</P>
+ * <P>For drawings at low resolution, where perturbations are not
+ * visible, the index keeps also the distinct unit segments of the grid
+ * used by the path, each one represented by the first move going
+ * through it: a segment traversed by many moves is drawn only once.</P>
+ */
+public class SegmentIndex
+{
+  /** Average number of moves per cell. */
+  public static int MOVES_PER_CELL = 8;
+
+  /** Visitor of the moves (or of the unit segments) found by a query. */
+  public interface Visitor
+  {
+    /** Called on each move found.
+     * @param i index of the move in the checked path */
+    void visit(int i);
+  }
+
+  /** The indexed path. */
+  protected final CheckedMoves path;
+  /** Number of moves. */
+  protected final int n;
+  /** Coordinates of the vertices of the path: vertex i is the starting
+   * point of move i, vertex n is the end of the path. */
+  protected final int[] xs, ys;
+  /** Bounding box of the vertices. */
+  protected int minX, minY, maxX, maxY;
+  /** Side of the cells, in grid units. */
+  protected int cell;
+  /** Number of columns and rows of cells. */
+  protected int cols, rows;
+  /** Moves of cell c are moves[moveStart[c]] ... moves[moveStart[c+1]-1],
+   * cells are numbered by row. */
+  protected int[] moveStart, moves;
+  /** Unit segments of cell c, as first moves going through them, are
+   * edges[edgeStart[c]] ... edges[edgeStart[c+1]-1]. */
+  protected int[] edgeStart, edges;
+
+  /** Build the index of a checked path.
+   * @param path a checked path
+   * @param x x of the starting point
+   * @param y y of the starting point */
+  public SegmentIndex(CheckedMoves path, int x, int y)
+  {
+    this.path = path;
+    n = path.length();
+    xs = new int[n+1];
+    ys = new int[n+1];
+    minX = maxX = xs[0] = x;
+    minY = maxY = ys[0] = y;
+    for (int i=0; i<n; i++)
+    {
+      int d = path.getDir(i);
+      x += Direction.xDir(d);
+      y += Direction.yDir(d);
+      xs[i+1] = x;
+      ys[i+1] = y;
+      if (x<minX) minX = x;
+      if (x>maxX) maxX = x;
+      if (y<minY) minY = y;
+      if (y>maxY) maxY = y;
+    }
+    double area = (maxX-minX+1.0)*(maxY-minY+1.0);
+    cell = (int)Math.ceil(Math.sqrt(area/(n/MOVES_PER_CELL+1)));
+    if (cell<1) cell = 1;
+    cols = (maxX-minX)/cell+1;
+    rows = (maxY-minY)/cell+1;
+    sortMoves();
+    findEdges();
+  }
+
+  /** Return the cell of a move.
+   * @param i index of a move
+   * @return the number of the cell containing the lower left end of
+   * its unit segment */
+  protected int cellOf(int i)
+  {
+    int cx = (Math.min(xs[i], xs[i+1])-minX)/cell;
+    int cy = (Math.min(ys[i], ys[i+1])-minY)/cell;
+    return cy*cols+cx;
+  }
+
+  /** Fill moveStart and moves, by counting sort. */
+  protected void sortMoves()
+  {
+    moveStart = new int[cols*rows+1];
+    for (int i=0; i<n; i++) moveStart[cellOf(i)+1]++;
+    for (int c=0; c<cols*rows; c++) moveStart[c+1] += moveStart[c];
+    int[] next = Arrays.copyOf(moveStart, cols*rows);
+    moves = new int[n];
+    for (int i=0; i<n; i++) moves[next[cellOf(i)]++] = i;
+  }
+
+  /** Fill edgeStart and edges: in each cell, the moves are sorted by
+   * unit segment (and then by index) and the first move of each segment
+   * is kept. */
+  protected void findEdges()
+  {
+    int cells = cols*rows;
+    edgeStart = new int[cells+1];
+    int max = 0;
+    for (int c=0; c<cells; c++)
+      max = Math.max(max, moveStart[c+1]-moveStart[c]);
+    long[] keys = new long[max];
+    int[] found = new int[n];
+    int k = 0;
+    for (int c=0; c<cells; c++)
+    {
+      int m = 0;
+      for (int j=moveStart[c]; j<moveStart[c+1]; j++)
+      {
+        int i = moves[j];
+        long key = ((Math.min(xs[i], xs[i+1])-minX)%cell)*(long)cell+
+                   (Math.min(ys[i], ys[i+1])-minY)%cell;
+        key = 2*key + (xs[i]==xs[i+1] ? 1 : 0);
+        keys[m++] = (key<<32) | i;
+      }
+      Arrays.sort(keys, 0, m);
+      for (int j=0; j<m; j++)
+        if ((j==0) || ((keys[j]>>>32)!=(keys[j-1]>>>32)))
+          found[k++] = (int)keys[j];
+      edgeStart[c+1] = k;
+    }
+    edges = Arrays.copyOf(found, k);
+  }
+
+  /** Visit the moves whose curve with perturbations may intersect
+   * the given rectangle, cell by cell.
+   * @param x1 minimum x of the rectangle
+   * @param y1 minimum y of the rectangle
+   * @param x2 maximum x of the rectangle
+   * @param y2 maximum y of the rectangle
+   * @param v the visitor */
+  public void visitMoves(float x1, float y1, float x2, float y2, Visitor v)
+  {  visit(moveStart, moves, x1, y1, x2, y2, v);  }
+
+  /** Visit the distinct unit segments which may intersect the given
+   * rectangle, as the first moves going through them.
+   * @param x1 minimum x of the rectangle
+   * @param y1 minimum y of the rectangle
+   * @param x2 maximum x of the rectangle
+   * @param y2 maximum y of the rectangle
+   * @param v the visitor */
+  public void visitEdges(float x1, float y1, float x2, float y2, Visitor v)
+  {  visit(edgeStart, edges, x1, y1, x2, y2, v);  }
+
+  /** Test if some move may intersect the given rectangle. The test is
+   * made on cells, so it may return true for a rectangle close to the
+   * curve but not intersecting it.
+   * @param x1 minimum x of the rectangle
+   * @param y1 minimum y of the rectangle
+   * @param x2 maximum x of the rectangle
+   * @param y2 maximum y of the rectangle
+   * @return false if no move intersects the rectangle */
+  public boolean hasMoves(float x1, float y1, float x2, float y2)
+  {
+    int[] r = cells(x1, y1, x2, y2);
+    if (r==null) return false;
+    for (int cy=r[1]; cy<=r[3]; cy++)
+      if (moveStart[cy*cols+r[2]+1]>moveStart[cy*cols+r[0]]) return true;
+    return false;
+  }
+
+  /** Return the range of cells intersecting the rectangle enlarged by
+   * one unit.
+   * @param x1 minimum x of the rectangle
+   * @param y1 minimum y of the rectangle
+   * @param x2 maximum x of the rectangle
+   * @param y2 maximum y of the rectangle
+   * @return minimum column, minimum row, maximum column, maximum row,
+   * or null if the rectangle is outside of the cells */
+  protected int[] cells(float x1, float y1, float x2, float y2)
+  {
+    double cx1 = Math.floor((x1-1-minX)/cell), cx2 = Math.floor((x2+1-minX)/cell);
+    double cy1 = Math.floor((y1-1-minY)/cell), cy2 = Math.floor((y2+1-minY)/cell);
+    if ((cx2<0) || (cy2<0) || (cx1>=cols) || (cy1>=rows)) return null;
+    return new int[] {  (int)Math.max(cx1, 0), (int)Math.max(cy1, 0),
+                        (int)Math.min(cx2, cols-1), (int)Math.min(cy2, rows-1)  };
+  }
+
+  /** Visit the elements of the cells intersecting a rectangle.
+   * @param start positions where the elements of each cell start
+   * @param elements the elements of all cells
+   * @param x1 minimum x of the rectangle
+   * @param y1 minimum y of the rectangle
+   * @param x2 maximum x of the rectangle
+   * @param y2 maximum y of the rectangle
+   * @param v the visitor */
+  protected void visit(int[] start, int[] elements,
+                       float x1, float y1, float x2, float y2, Visitor v)
+  {
+    int[] r = cells(x1, y1, x2, y2);
+    if (r==null) return;
+    for (int cy=r[1]; cy<=r[3]; cy++)
+    {
+      int end = start[cy*cols+r[2]+1];
+      for (int j=start[cy*cols+r[0]]; j<end; j++) v.visit(elements[j]);
+    }
+  }
+
+  /** Return the number of moves.
+   * @return the number of moves */
+  public int length()  {  return n;  }
+
+  /** Return the number of distinct unit segments used by the path.
+   * @return the number of distinct unit segments */
+  public int edgeCount()  {  return edges.length;  }
+
+  /** Return the x coordinate of a vertex of the path.
+   * @param i index of the vertex, from 0 (starting point) to length()
+   * @return x coordinate of the starting point of move i */
+  public int getX(int i)  {  return xs[i];  }
+
+  /** Return the y coordinate of a vertex of the path.
+   * @param i index of the vertex, from 0 (starting point) to length()
+   * @return y coordinate of the starting point of move i */
+  public int getY(int i)  {  return ys[i];  }
+
+  /** Return the minimum x of the vertices.
+   * @return the minimum x */
+  public int getMinX()  {  return minX;  }
+
+  /** Return the minimum y of the vertices.
+   * @return the minimum y */
+  public int getMinY()  {  return minY;  }
+
+  /** Return the maximum x of the vertices.
+   * @return the maximum x */
+  public int getMaxX()  {  return maxX;  }
+
+  /** Return the maximum y of the vertices.
+   * @return the maximum y */
+  public int getMaxY()  {  return maxY;  }
+
+  /** Return the indexed path.
+   * @return the checked path */
+  public CheckedMoves getPath()  {  return path;  }
+
+}
@@ -0,0 +1,974 @@
+package orthopaths;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <P>Storage engine keeping half segments and vertices as columns of
+ * primitive arrays, instead of HalfSegment, HalfSegmentSkipList.Node
+ * and Vertex objects linked by references.</P>
+ * <P>A half segment is identified by an integer index. Its columns are:
+ * starting vertex, direction (2 bits), opposite and mate half segments,
+ * perturbation, and the links of the radially sorted circular list
+ * around its starting vertex (next, prev, matepos). A half segment is
+ * contained in at most one radial list, therefore the index of a
+ * half segment is also the index of its node in the list.
+ * The value -1 plays the role of the null reference.</P>
+ * <P>A vertex is identified by an integer index. Its columns are the
+ * coordinates, the first node and the size of its radial list.
+ * An open-addressing hash table maps coordinates to vertex indices.</P>
+ * <P>The operations repeat, on indices, the ones of classes HalfSegment
+ * and HalfSegmentSkipList, and give the same results. Arrays double
+ * their size when full, no other memory is allocated.</P>
+ */
+public class SegmentStore
+{
+  /** Conventional constant meaning undefined perturbation. */
+  public static final float UNDEF = HalfSegment.UNDEF;
+  /** Conventional index meaning no half segment or no vertex. */
+  public static final int NONE = -1;
+
+  /** Number of half segments. */
+  protected int size;
+  /** Starting vertex of each half segment. */
+  protected int[] start;
+  /** Directions of the half segments, four per byte. */
+  protected byte[] dirs;
+  /** Opposite half segment of each half segment. */
+  protected int[] opposite;
+  /** Mate half segment of each half segment. */
+  protected int[] mate;
+  /** Perturbation of each half segment. */
+  protected float[] perturb;
+  /** Next node in the radial list, NONE if not in a list. */
+  protected int[] next;
+  /** Previous node in the radial list. */
+  protected int[] prev;
+  /** Node containing the mate, if it is in the radial list. */
+  protected int[] matepos;
+
+  /** Number of vertices. */
+  protected int numVertices;
+  /** X coordinate of each vertex. */
+  protected int[] vx;
+  /** Y coordinate of each vertex. */
+  protected int[] vy;
+  /** First node of the radial list of each vertex. */
+  protected int[] first;
+  /** Number of nodes in the radial list of each vertex. */
+  protected int[] num;
+
+  /** Packed coordinates of the vertex in each slot of the hash table. */
+  protected long[] slotKeys;
+  /** Vertex index plus one in each slot, 0 if the slot is empty. */
+  protected int[] slotVertex;
+  /** Bit mask giving the slot from a hash value. */
+  protected int slotMask;
+
+  /** Work array used when rescaling perturbations. */
+  protected int[] aux = new int[16];
+
+  /** Create an empty store, with room for the half segments and
+   * vertices of a path with the given number of moves.
+   * @param moves expected number of moves */
+  public SegmentStore(int moves)
+  {
+    if (moves<8) moves = 8;
+    allocateSegments(2*moves+2);
+    allocateVertices(moves+1);
+    allocateSlots(moves+1);
+  }
+
+  /** Remove all half segments and vertices, keeping the arrays. */
+  public void clear()
+  {
+    size = 0;
+    numVertices = 0;
+    Arrays.fill(slotVertex, 0);
+  }
+
+  /** Allocate the columns of the half segments.
+   * @param capacity number of half segments */
+  protected void allocateSegments(int capacity)
+  {
+    start = new int[capacity];
+    dirs = new byte[(capacity+3)/4];
+    opposite = new int[capacity];
+    mate = new int[capacity];
+    perturb = new float[capacity];
+    next = new int[capacity];
+    prev = new int[capacity];
+    matepos = new int[capacity];
+  }
+
+  /** Allocate the columns of the vertices.
+   * @param capacity number of vertices */
+  protected void allocateVertices(int capacity)
+  {
+    vx = new int[capacity];
+    vy = new int[capacity];
+    first = new int[capacity];
+    num = new int[capacity];
+  }
+
+  /** Allocate the hash table, with at least twice the slots
+   * of the given number of vertices.
+   * @param vertices number of vertices */
+  protected void allocateSlots(int vertices)
+  {
+    int capacity = 16;
+    while (capacity < 2*vertices) capacity *= 2;
+    slotKeys = new long[capacity];
+    slotVertex = new int[capacity];
+    slotMask = capacity-1;
+  }
+
+  /** Double the capacity of the half segment columns. */
+  protected void growSegments()
+  {
+    int capacity = 2*start.length;
+    start = Arrays.copyOf(start, capacity);
+    dirs = Arrays.copyOf(dirs, (capacity+3)/4);
+    opposite = Arrays.copyOf(opposite, capacity);
+    mate = Arrays.copyOf(mate, capacity);
+    perturb = Arrays.copyOf(perturb, capacity);
+    next = Arrays.copyOf(next, capacity);
+    prev = Arrays.copyOf(prev, capacity);
+    matepos = Arrays.copyOf(matepos, capacity);
+  }
+
+  /** Double the capacity of the vertex columns and of the hash table. */
+  protected void growVertices()
+  {
+    int capacity = 2*vx.length;
+    vx = Arrays.copyOf(vx, capacity);
+    vy = Arrays.copyOf(vy, capacity);
+    first = Arrays.copyOf(first, capacity);
+    num = Arrays.copyOf(num, capacity);
+    allocateSlots(capacity);
+    for (int v=0; v<numVertices; v++)
+    {
+      long key = HashVertexSet.pack(vx[v], vy[v]);
+      int i = slot(key);
+      while (slotVertex[i]!=0) i = (i+1) & slotMask;
+      slotKeys[i] = key;
+      slotVertex[i] = v+1;
+    }
+  }
+
+  /** Return the initial slot of the hash table for the given key.
+   * @param key packed coordinates
+   * @return a slot index */
+  protected int slot(long key)
+  {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int)(h ^ (h>>>32)) & slotMask;
+  }
+
+  /** Return the index of vertex (x,y), inserting the vertex if it is
+   * not already present (with an empty radial list).
+   * @param x x coordinate
+   * @param y y coordinate
+   * @return index of the vertex */
+  public int vertexOf(int x, int y)
+  {
+    long key = HashVertexSet.pack(x,y);
+    int i = slot(key);
+    while (slotVertex[i]!=0)
+    {
+      if (slotKeys[i]==key) return slotVertex[i]-1; // found
+      i = (i+1) & slotMask;
+    }
+    if (numVertices==vx.length)
+    {
+      growVertices();
+      i = slot(key);
+      while (slotVertex[i]!=0) i = (i+1) & slotMask;
+    }
+    int v = numVertices++;
+    vx[v] = x;
+    vy[v] = y;
+    first[v] = NONE;
+    num[v] = 0;
+    slotKeys[i] = key;
+    slotVertex[i] = v+1;
+    return v;
+  }
+
+  /** Return the vertex with coordinates (x,y), without creating it.
+   * @param x x coordinate
+   * @param y y coordinate
+   * @return the vertex, or NONE if it does not exist */
+  public int findVertex(int x, int y)
+  {
+    long key = HashVertexSet.pack(x,y);
+    for (int i = slot(key); slotVertex[i]!=0; i = (i+1) & slotMask)
+      if (slotKeys[i]==key) return slotVertex[i]-1;
+    return NONE;
+  }
+
+  /** Return the number of half segments.
+   * @return number of half segments */
+  public int size()  {  return size;  }
+
+  /** Return the number of vertices.
+   * @return number of vertices */
+  public int numVertices()  {  return numVertices;  }
+
+  /** Return the direction of half segment s.
+   * @param s a half segment
+   * @return its direction */
+  public int dir(int s)
+  {  return (dirs[s>>2] >> ((s&3)<<1)) & 3;  }
+
+  /** Set the direction of half segment s.
+   * @param s a half segment
+   * @param d a direction in {0,1,2,3} */
+  protected void setDir(int s, int d)
+  {
+    int shift = (s&3)<<1;
+    dirs[s>>2] = (byte)((dirs[s>>2] & ~(3<<shift)) | (d<<shift));
+  }
+
+  /** Return the perturbation of half segment s.
+   * @param s a half segment
+   * @return its perturbation */
+  public float perturbation(int s)  {  return perturb[s];  }
+
+  /** Return the starting vertex of half segment s.
+   * @param s a half segment
+   * @return its starting vertex */
+  public int startVertex(int s)  {  return start[s];  }
+
+  /** Return the x coordinate of vertex v.
+   * @param v a vertex
+   * @return its x coordinate */
+  public int x(int v)  {  return vx[v];  }
+
+  /** Return the y coordinate of vertex v.
+   * @param v a vertex
+   * @return its y coordinate */
+  public int y(int v)  {  return vy[v];  }
+
+  /** Return the number of half segments around vertex v.
+   * @param v a vertex
+   * @return size of its radial list */
+  public int starSize(int v)  {  return num[v];  }
+
+  /** Create a new half segment, given starting vertex and direction.
+   * It is not inserted in any radial list.
+   * @param v the starting vertex
+   * @param d the direction, it must be in {0,1,2,3}
+   * @return the new half segment */
+  public int newSegment(int v, int d)
+  {
+    if (size==start.length) growSegments();
+    int s = size++;
+    start[s] = v;
+    setDir(s, d);
+    opposite[s] = mate[s] = NONE;
+    next[s] = prev[s] = matepos[s] = NONE;
+    perturb[s] = UNDEF;
+    return s;
+  }
+
+  /** Create the other half of the same segment as s, starting at
+   * vertex v, see HalfSegment.makeOpposite.
+   * @param s a half segment
+   * @param v the starting vertex of the opposite half segment
+   * @return the opposite half segment */
+  public int makeOpposite(int s, int v)
+  {
+    int o = newSegment(v, Direction.oppositeDir(dir(s)));
+    opposite[o] = s;
+    opposite[s] = o;
+    perturb[o] = perturb[s];
+    return o;
+  }
+
+  /** Create the mate of s in the same vertex, with the given direction,
+   * see HalfSegment.makeMate.
+   * @param s a half segment
+   * @param d the direction of the mate
+   * @return the mate half segment */
+  public int makeMate(int s, int d)
+  {
+    int m = newSegment(start[s], d);
+    mate[m] = s;
+    mate[s] = m;
+    return m;
+  }
+
+  /** Test if half segment a lies before b, which has the same starting
+   * point and direction, see HalfSegment.equalBefore.
+   * @param a a half segment
+   * @param b another half segment
+   * @return true iff a is before b */
+  public boolean equalBefore(int a, int b)
+  {  return equalBefore(dir(a), perturb[a], perturb[b]);  }
+
+  /** Test if a half segment with perturbation pa lies before one with
+   * perturbation pb, both with direction d, see HalfSegment.equalBefore.
+   * @param d the direction
+   * @param pa a perturbation
+   * @param pb another perturbation
+   * @return true iff the first half segment is before the other one */
+  protected static boolean equalBefore(int d, float pa, float pb)
+  {
+    if (pa==pb)
+      System.out.println("ERR equal perturbation="+pa);
+    if ((pa==UNDEF) || (pb==UNDEF)) return false;
+    if ((d==0) || (d==3)) return pb>pa; // EAST or SOUTH
+    else return pb<pa; // NORTH or WEST
+  }
+
+  /** Test if half segment s lies in the radial sector from s1 to s2
+   * in counterclockwise order, possibly setting its perturbation,
+   * see HalfSegment.isBetween.
+   * @param s a half segment
+   * @param s1 a half segment with same starting point as s
+   * @param s2 a half segment with same starting point as s
+   * @param change true iff the perturbation of s is still to be set
+   * @return true iff s can be after s1 and before s2 */
+  public boolean isBetween(int s, int s1, int s2, boolean change)
+  {
+    int d1 = dir(s1), d2 = dir(s2), d = dir(s);
+    if (d1==d2)
+    {   if (d!=d1) return false;
+        if (change) return updatePerturb(s, s1, s2);
+        return equalBefore(s1, s) && equalBefore(s, s2);
+    }
+    if (d1<d2)
+    {   if ((d<d1) || (d>d2)) return false;
+    }
+    else
+    {   if ((d<d1) && (d>d2)) return false;
+    }
+    if (change) return updatePerturb(s, s1, s2);
+    if ((d==d1) && !equalBefore(s1, s)) return false;
+    if ((d==d2) && !equalBefore(s, s2)) return false;
+    return true;
+  }
+
+  /** Set the perturbation of s in such a way that it lies between
+   * prec and succ, see HalfSegment.updatePerturb.
+   * @param s a half segment
+   * @param prec a half segment with same starting point, or NONE
+   * @param succ a half segment with same starting point, or NONE
+   * @return true iff the perturbation has been set */
+  public boolean updatePerturb(int s, int prec, int succ)
+  {
+    int d = dir(s);
+    if ((prec!=NONE) && (dir(prec)!=d)) prec = NONE;
+    if ((succ!=NONE) && (dir(succ)!=d)) succ = NONE;
+    if ((prec==NONE) && (succ==NONE))
+    {  perturb[s] = 0.0f; return true;
+    }
+    float incr;
+    if ((d==0) || (d==3)) incr = 1; else incr = -1;
+    if (prec==NONE) perturb[s] = perturb[succ]-incr;
+    else if (succ==NONE) perturb[s] = perturb[prec]+incr;
+    else
+    {
+      if ((incr==1) && (perturb[succ]<perturb[prec])) return false;
+      if ((incr==-1) && (perturb[succ]>perturb[prec])) return false;
+      perturb[s] = 0.5f*(perturb[prec]+perturb[succ]);
+    }
+    return true;
+  }
+
+  /** Make s the only node of the radial list of vertex v.
+   * @param v a vertex with empty radial list
+   * @param s a half segment
+   * @return s */
+  protected int addFirstNode(int v, int s)
+  {
+    next[s] = prev[s] = s;
+    first[v] = s;
+    num[v] = 1;
+    return s;
+  }
+
+  /** Add node s before node curr in the radial list of vertex v.
+   * @param v a vertex
+   * @param curr a node in the list of v
+   * @param s a half segment not in any list
+   * @return s */
+  protected int addBeforeNode(int v, int curr, int s)
+  {
+    int p = prev[curr];
+    prev[s] = p;
+    next[s] = curr;
+    next[p] = s;
+    prev[curr] = s;
+    num[v]++;
+    return s;
+  }
+
+  /** Add the first two nodes, containing two mate half segments,
+   * to the empty radial list of vertex v.
+   * @param v a vertex
+   * @param s1 a half segment
+   * @param s2 its mate */
+  public void addFirstPair(int v, int s1, int s2)
+  {
+    addFirstNode(v, s1);
+    addBeforeNode(v, s1, s2);
+    matepos[s1] = s2;
+    matepos[s2] = s1;
+  }
+
+  /** Insert the entering half segment s in the radial list of vertex v,
+   * see HalfSegmentSkipList.addEntering.
+   * @param v a vertex
+   * @param s a half segment with perturbation already set
+   * @return s, or NONE if no place was found */
+  public int addEntering(int v, int s)
+  {
+    if (first[v]==NONE) return addFirstNode(v, s);
+    int curr = first[v];
+    while (true)
+    {
+      if (isBetween(s, prev[curr], curr, false))
+        return addBeforeNode(v, curr, s);
+      curr = next[curr];
+      if (curr==first[v]) return NONE;
+    }
+  }
+
+  /** Insert the exiting half segment s in the radial list of vertex v,
+   * starting from the node containing its mate,
+   * see HalfSegmentSkipList.addExiting.
+   * @param v a vertex
+   * @param s a half segment whose perturbation is still to be set
+   * @param mateNode the node containing the mate of s
+   * @return s, or NONE if no correct position exists (crossing) */
+  public int addExiting(int v, int s, int mateNode)
+  {
+    int n = num[v];
+    if (n==1)
+    {
+      updatePerturb(s, NONE, NONE);
+      return addBeforeNode(v, first[v], s);
+    }
+    if (n<1) return NONE;
+    int curr = mateNode;
+    while (true)
+    {
+      curr = next[curr];
+      if (isBetween(s, prev[curr], curr, true))
+      {
+        addBeforeNode(v, curr, s);
+        matepos[mateNode] = s;
+        matepos[s] = mateNode;
+        return s;
+      }
+      if (n==2) return NONE;
+      if (isBetween(s, curr, mate[curr], false)) return NONE; // forbidden sector
+      curr = matepos[curr];
+    }
+  }
+
+  /** Test if a half segment with direction d and perturbation p, not
+   * stored, lies in the radial sector from s1 to s2 in counterclockwise
+   * order, as isBetween(s, s1, s2, false).
+   * @param d a direction
+   * @param p a perturbation
+   * @param s1 a half segment
+   * @param s2 a half segment with the same starting point as s1
+   * @return true iff the half segment is after s1 and before s2 */
+  protected boolean isBetween(int d, float p, int s1, int s2)
+  {
+    int d1 = dir(s1), d2 = dir(s2);
+    if (d1==d2)
+      return (d==d1) && equalBefore(d, perturb[s1], p) &&
+             equalBefore(d, p, perturb[s2]);
+    if (d1<d2)
+    {   if ((d<d1) || (d>d2)) return false;
+    }
+    else
+    {   if ((d<d1) && (d>d2)) return false;
+    }
+    if ((d==d1) && !equalBefore(d, perturb[s1], p)) return false;
+    if ((d==d2) && !equalBefore(d, p, perturb[s2])) return false;
+    return true;
+  }
+
+  /** Test if a new half segment with direction d can be placed between
+   * two half segments, as isBetween(s, s1, s2, true) would find,
+   * see HalfSegment.fits.
+   * @param d a direction
+   * @param d1 direction of the first half segment
+   * @param p1 perturbation of the first half segment
+   * @param d2 direction of the second half segment
+   * @param p2 perturbation of the second half segment
+   * @return true iff a perturbation placing it there exists */
+  protected static boolean fits(int d, int d1, float p1, int d2, float p2)
+  {
+    if (d1==d2)
+      return (d==d1) && (((d==0) || (d==3)) ? (p2>=p1) : (p2<=p1));
+    if (d1<d2) return (d>=d1) && (d<=d2);
+    return (d>=d1) || (d<=d2);
+  }
+
+  /** Return the directions in which a path entering vertex v with a
+   * half segment of direction e and perturbation p can go on without
+   * crossing, without changing anything,
+   * see HalfSegmentSkipList.exitDirections.
+   * @param v a vertex whose list contains only pairs of mates
+   * @param e direction of the entering half segment
+   * @param p perturbation of the entering half segment
+   * @return a mask with bit d set iff the path can go on in direction d */
+  public int exitDirections(int v, int e, float p)
+  {
+    int todo = 15 & ~(1<<e);
+    if (first[v]==NONE) return todo;
+    // place of the entering half segment, see addEntering
+    int succ = first[v];
+    while (!isBetween(e, p, prev[succ], succ))
+    {
+      succ = next[succ];
+      if (succ==first[v]) return 0;
+    }
+    // walk of addExiting, from the gap after the entering half segment
+    // to the gap before it (curr NONE)
+    int ok = 0, bd = e, curr = succ;
+    float bp = p;
+    while (true)
+    {
+      int ad = (curr==NONE) ? e : dir(curr);
+      float ap = (curr==NONE) ? p : perturb[curr];
+      for (int d=0; d<4; d++)
+        if (((todo>>d)&1)!=0 && fits(d, bd, bp, ad, ap))
+        {  ok |= 1<<d; todo &= ~(1<<d);  }
+      if ((todo==0) || (curr==NONE)) break;
+      for (int d=0; d<4; d++)
+        if (((todo>>d)&1)!=0 && HalfSegment.inside(d, dir(curr), dir(mate[curr])))
+          todo &= ~(1<<d);
+      if (todo==0) break;
+      curr = matepos[curr];
+      bd = dir(curr);
+      bp = perturb[curr];
+      curr = next[curr];
+      if (curr==succ) curr = NONE;
+    }
+    return ok;
+  }
+
+  /** Return true iff half segment s is contained in a radial list.
+   * @param s a half segment
+   * @return true iff s is in the radial list of its starting vertex */
+  public boolean inList(int s)  {  return next[s]!=NONE;  }
+
+  /** Remove node s from the radial list of its starting vertex.
+   * @param s a node in a radial list */
+  protected void auxRemove(int s)
+  {
+    int v = start[s];
+    if (num[v]==1)
+    {
+      first[v] = NONE;
+      num[v] = 0;
+    }
+    else
+    {
+      next[prev[s]] = next[s];
+      prev[next[s]] = prev[s];
+      if (s==first[v]) first[v] = next[s];
+      num[v]--;
+    }
+    next[s] = prev[s] = NONE;
+  }
+
+  /** Remove half segment s, together with its mate if they are paired,
+   * from the radial list of its starting vertex. Since the node of
+   * a half segment is the half segment itself, no search is needed,
+   * see HalfSegmentSkipList.searchRemove.
+   * @param s a half segment
+   * @return true if s was in a list and has been removed */
+  public boolean remove(int s)
+  {
+    if (!inList(s)) return false;
+    int m = matepos[s];
+    auxRemove(s);
+    matepos[s] = NONE;
+    if ((m!=NONE) && inList(m))
+    {
+      auxRemove(m);
+      matepos[m] = NONE;
+    }
+    return true;
+  }
+
+  /** Delete the half segments with index greater or equal to n,
+   * which must not be contained in any radial list. Used when undoing.
+   * @param n the new number of half segments */
+  public void truncate(int n)  {  size = n;  }
+
+  /** Rescale the perturbations of the half segments aux[0..len-1] to
+   * consecutive integers, see HalfSegmentSkipList.rescaleValues.
+   * @param len number of half segments */
+  protected void rescaleValues(int len)
+  {
+    int pos = len/2;
+    for (int i=-pos; i+pos<len; i++)
+    {
+      int s = aux[i+pos];
+      perturb[s] = i;
+      if (opposite[s]!=NONE) perturb[opposite[s]] = i;
+    }
+  }
+
+  /** Rescale the perturbations of the half segments with direction d
+   * around vertex v, if they are too close,
+   * see HalfSegmentSkipList.adjustPerturbations(int).
+   * @param v a vertex
+   * @param d a direction */
+  protected void adjustPerturbations(int v, int d)
+  {
+    int f = first[v];
+    int nod = f;
+    if (dir(nod)==d)
+    { while (dir(prev[nod])==d)
+      {  nod = prev[nod];
+         if (nod==f) break;
+      }
+    }
+    else
+    { while (dir(nod)!=d)
+      {  nod = next[nod];
+         if (nod==f) break;
+      }
+    }
+    if (dir(nod)!=d) return;
+    if (aux.length<num[v]) aux = new int[2*num[v]];
+    int i = 0, j;
+    do
+    {
+      aux[i++] = nod;
+      nod = next[nod];
+    }
+    while (dir(nod)==d);
+    if (i<2) return;
+    if (perturb[aux[0]]>perturb[aux[1]])
+    {
+      for (j=0; j<i/2; j++)
+      {  int temp = aux[j]; aux[j] = aux[i-j-1]; aux[i-j-1] = temp;
+      }
+    }
+    float minDist = perturb[aux[1]]-perturb[aux[0]];
+    for (j=2; j<i; j++)
+      if ((perturb[aux[j]]-perturb[aux[j-1]]) < minDist)
+         minDist = perturb[aux[j]]-perturb[aux[j-1]];
+    if (minDist>=1.0f) return;
+    rescaleValues(i);
+  }
+
+  /** Return the first node, in counterclockwise order, of the group of
+   * half segments with direction d around vertex v,
+   * see HalfSegmentSkipList.groupStart.
+   * @param v a vertex
+   * @param d a direction
+   * @return the first node with direction d, or NONE if there is none */
+  protected int groupStart(int v, int d)
+  {
+    int f = first[v];
+    if (f==NONE) return NONE;
+    int nod = f;
+    if (dir(nod)==d)
+    {
+      while ((dir(prev[nod])==d) && (prev[nod]!=f)) nod = prev[nod];
+      return nod;
+    }
+    while (dir(nod)!=d)
+    {
+      nod = next[nod];
+      if (nod==f) return NONE;
+    }
+    return nod;
+  }
+
+  /** Rescale to consecutive integers the perturbations of the group of
+   * half segments with the same direction starting at node nod of
+   * vertex v, and of their opposite half segments,
+   * see HalfSegmentSkipList.rescaleGroup.
+   * @param v a vertex
+   * @param nod the first node of a group
+   * @return the number of half segments in the group */
+  protected int rescaleGroup(int v, int nod)
+  {  return rescaleGroup(v, nod, null);  }
+
+  /** Rescale the perturbations of a group as rescaleGroup(int,int),
+   * recording in the journal the old perturbations which change.
+   * @param v a vertex
+   * @param nod the first node of a group
+   * @param journal the journal, or null if it is not kept
+   * @return the number of half segments in the group */
+  protected int rescaleGroup(int v, int nod, Journal journal)
+  {
+    int d = dir(nod);
+    int len = 0;
+    for (int n = nod; (dir(n)==d) && (len<num[v]); n = next[n]) len++;
+    boolean ccw = (d==0) || (d==3);
+    for (int k=0; k<len; k++, nod = next[nod])
+    {
+      float val = (ccw ? k : len-1-k) - len/2;
+      if ((journal!=null) && (perturb[nod]!=val)) journal.record(nod);
+      perturb[nod] = val;
+      if (opposite[nod]!=NONE) perturb[opposite[nod]] = val;
+    }
+    return len;
+  }
+
+  /** Rescale the perturbations of the half segments on the edge of s
+   * if the perturbation of s, just added to the radial list of vertex v,
+   * is too close to the one of a neighbor,
+   * see HalfSegmentSkipList.rebalance.
+   * @param v a vertex
+   * @param s a node in the list of v
+   * @return true iff the perturbations have been rescaled */
+  public boolean rebalance(int v, int s)
+  {  return rebalance(v, s, null);  }
+
+  /** Rescale the perturbations on the edge of s if needed, as
+   * rebalance(int,int), recording the old perturbations in the journal.
+   * @param v a vertex
+   * @param s a node in the list of v
+   * @param journal the journal, or null if it is not kept
+   * @return true iff the perturbations have been rescaled */
+  public boolean rebalance(int v, int s, Journal journal)
+  {
+    int d = dir(s);
+    int p = prev[s], q = next[s];
+    if (!((dir(p)==d) && HalfSegment.tooClose(perturb[s], perturb[p])) &&
+        !((dir(q)==d) && HalfSegment.tooClose(perturb[s], perturb[q])))
+      return false;
+    relabel(v, s, journal);
+    return true;
+  }
+
+  /** Spread the perturbations of the smallest range of half segments
+   * around node s of vertex v, in its group of half segments with the
+   * same direction, which is sparse enough, and set the same
+   * perturbations to their opposite half segments,
+   * see HalfSegmentSkipList.relabel.
+   * @param v a vertex
+   * @param s a node in the list of v
+   * @param journal the journal recording the old perturbations,
+   * or null if it is not kept
+   * @return the number of relabelled half segments */
+  protected int relabel(int v, int s, Journal journal)
+  {
+    int d = dir(s);
+    // perturbations increase counterclockwise for EAST and SOUTH
+    float sign = ((d==0) || (d==3)) ? 1 : -1;
+    int lo = s, hi = s;
+    int count = 1;
+    for (int i=1; ; i++)
+    {
+      int half = 1<<(i-1);
+      boolean loEnd = false, hiEnd = false;
+      for (int k=0; k<half; k++)
+      {
+        loEnd = (dir(prev[lo])!=d) || (prev[lo]==hi);
+        if (loEnd) break;
+        lo = prev[lo]; count++;
+      }
+      for (int k=0; k<half; k++)
+      {
+        hiEnd = (dir(next[hi])!=d) || (next[hi]==lo);
+        if (hiEnd) break;
+        hi = next[hi]; count++;
+      }
+      loEnd = (dir(prev[lo])!=d) || (prev[lo]==hi);
+      hiEnd = (dir(next[hi])!=d) || (next[hi]==lo);
+      if (loEnd && hiEnd) return rescaleGroup(v, lo, journal);
+      float from, step;
+      if (loEnd) // spread down from the half segment after the range
+      {
+        step = 1;
+        from = sign*perturb[next[hi]] - count;
+      }
+      else if (hiEnd) // spread up from the half segment before the range
+      {
+        step = 1;
+        from = sign*perturb[prev[lo]] + 1;
+      }
+      else
+      {
+        float low = sign*perturb[prev[lo]];
+        float high = sign*perturb[next[hi]];
+        step = (high-low)/(count+1);
+        float m = Math.max(Math.abs(low), Math.abs(high));
+        if (step < Math.pow(PerturbationOrder.T, i)*HalfSegment.minSpacing(m))
+          continue;
+        from = low+step;
+      }
+      int k = 0;
+      for (int n = lo; ; n = next[n], k++)
+      {
+        float val = sign*(from+k*step);
+        if ((journal!=null) && (perturb[n]!=val)) journal.record(n);
+        perturb[n] = val;
+        if (opposite[n]!=NONE) perturb[opposite[n]] = val;
+        if (n==hi) break;
+      }
+      return count;
+    }
+  }
+
+  /** Journal of the perturbations changed by rebalance, keeping the
+   * half segments as indices (see class PerturbationJournal). */
+  public class Journal extends PerturbationJournal
+  {
+    /** Half segments of the entries. */
+    protected int[] segs = new int[16];
+
+    /** Record the current perturbation of a half segment, which is
+     * going to change.
+     * @param s a half segment */
+    public void record(int s)
+    {
+      int i = add(perturb[s]);
+      if (i==segs.length) segs = java.util.Arrays.copyOf(segs, values.length);
+      segs[i] = s;
+    }
+
+    /** Set again the recorded perturbation of a half segment, and of
+     * its opposite.
+     * @param i index of an entry */
+    protected void restore(int i)
+    {
+      int s = segs[i];
+      perturb[s] = values[i];
+      if (opposite[s]!=NONE) perturb[opposite[s]] = values[i];
+    }
+  }
+
+  /** Rescale to consecutive integers the perturbations of the half
+   * segments in directions EAST and NORTH around vertex v, and of their
+   * opposite half segments, see HalfSegmentSkipList.normalize().
+   * @param v a vertex */
+  protected void normalizeStar(int v)
+  {
+    for (int d=0; d<2; d++) // EAST and NORTH
+    {
+      int nod = groupStart(v, d);
+      if (nod!=NONE) rescaleGroup(v, nod);
+    }
+  }
+
+  /** Rescale to consecutive integers the perturbations of the half
+   * segments with the same direction as s around its starting vertex,
+   * and of their opposite half segments.
+   * @param s a half segment
+   * @return true iff s is in a radial list */
+  public boolean normalize(int s)
+  {
+    if (!inList(s)) return false;
+    int nod = s;
+    while ((dir(prev[nod])==dir(s)) && (prev[nod]!=s)) nod = prev[nod];
+    rescaleGroup(start[s], nod);
+    return true;
+  }
+
+  /** Rescale the perturbations of all segments to consecutive integers,
+   * one vertex after the other, see VertexSet.normalizePerturbations. */
+  public void normalizePerturbations()
+  {
+    for (int v=0; v<numVertices; v++) normalizeStar(v);
+  }
+
+  /** Rescale the perturbations of all segments to consecutive integers,
+   * with the vertices split among the tasks of the given pool,
+   * see VertexSet.normalizePerturbations(ForkJoinPool).
+   * @param pool the pool running the tasks */
+  public void normalizePerturbations(ForkJoinPool pool)
+  {
+    pool.invoke(new Normalization(0, numVertices));
+  }
+
+  /** Task normalizing the perturbations around a range of vertices. */
+  protected class Normalization extends RecursiveAction
+  {
+    /** Version of the serialized form (tasks are never serialized). */
+    private static final long serialVersionUID = 1L;
+
+    /** Range of the vertices of this task, from (included) and
+     * to (excluded). */
+    protected final int from, to;
+
+    /** Create a task for the vertices from (included) to to (excluded).
+     * @param from first vertex of the range
+     * @param to last vertex of the range plus one */
+    protected Normalization(int from, int to)
+    {
+      this.from = from;
+      this.to = to;
+    }
+
+    /** Normalize the range, or split it in two halves if it is large. */
+    protected void compute()
+    {
+      if (to-from<=VertexSet.NORMALIZE_GRAIN)
+      {
+        for (int v=from; v<to; v++) normalizeStar(v);
+        return;
+      }
+      int mid = (from+to)>>>1;
+      invokeAll(new Normalization(from, mid), new Normalization(mid, to));
+    }
+  }
+
+  /** Rescale the perturbations around all vertices where they are too
+   * close, see VertexSet.adjustPerturbations. The vertices are visited
+   * in lexicographic order, as in VertexSet, since the result depends
+   * on the order (see HashVertexSet.adjustPerturbations). */
+  public void adjustPerturbations()
+  {
+    long[] lex = new long[numVertices];
+    for (int v=0; v<numVertices; v++) lex[v] = VertexSet.lexKey(vx[v], vy[v]);
+    Arrays.sort(lex);
+    for (int i=0; i<lex.length; i++)
+    {
+      int v = vertexOf(VertexSet.lexX(lex[i]), VertexSet.lexY(lex[i]));
+      if ((num[v]<5) || (num[v]%2==1)) continue;
+      for (int d=0; d<4; d++) adjustPerturbations(v, d);
+    }
+  }
+
+  /** Return the number of bytes used by the arrays of this store
+   * (allocated capacity, including the unused part).
+   * @return memory footprint in bytes */
+  public long footprint()
+  {
+    long bytes = 4L*(start.length+opposite.length+mate.length+next.length
+                     +prev.length+matepos.length) + 4L*perturb.length
+               + dirs.length;
+    bytes += 4L*(vx.length+vy.length+first.length+num.length);
+    bytes += 8L*slotKeys.length + 4L*slotVertex.length;
+    return bytes + 4L*aux.length;
+  }
+
+  /** Return a string representing the radial list of vertex v.
+   * @param v a vertex
+   * @return string listing the half segments around v */
+  public String toString(int v)
+  {
+    if (first[v]==NONE) return "Empty list";
+    StringBuilder sb = new StringBuilder();
+    int curr = first[v];
+    do
+    {
+      sb.append("\nHalfSegment ").append(curr).append(": (").append(vx[v])
+        .append(",").append(vy[v]).append(") dir ")
+        .append(Direction.letterDir[dir(curr)]).append(", pert ")
+        .append(perturb[curr]);
+      curr = next[curr];
+    }
+    while (curr!=first[v]);
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,459 @@
+package orthopaths;
+
+import java.awt.*;
+import java.awt.image.*;
+import javax.imageio.*;
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** <P>Renderer of the curve with perturbations as a deep zoom tile
+ * pyramid, for curves too large to fit in a single image. The output is
+ * in Deep Zoom (DZI) format: a descriptor NAME.dzi and a directory
+ * NAME_files containing a directory for each level, with tiles named
+ * COLUMN_ROW.png. Level maxLevel is the full drawing, where a unit
+ * segment is scale pixels long; each lower level halves width and
+ * height, down to level 0 having a single pixel.</P>
+ * <P>Tiles are rendered in parallel on a fork-join pool. Each tile
+ * draws only the moves found by a SegmentIndex query on its rectangle;
+ * tiles where the index finds no move are not written (viewers show the
+ * background there). Lower levels are simplified:<UL>
+ * <LI> with at least DETAIL_SCALE pixels per unit, the curve with
+ * perturbations is drawn as in VisualCheck.drawCurve, plus the grid if
+ * there are at least GRID_SCALE pixels per unit</LI>
+ * <LI> with at least one pixel per unit, perturbations are not visible
+ * and each unit segment used by the path is drawn once, however many
+ * moves go through it</LI>
+ * <LI> below one pixel per unit, each unit segment used by the path
+ * just sets the pixel of its midpoint.</LI></UL></P>
+ * <P>The pixels of the levels below one pixel per unit are found once,
+ * when the pyramid is created: those of the highest of these levels
+ * from the unit segments, and those of each lower level by halving the
+ * coordinates of the pixels of the level above, which gives the same
+ * pixels since scales are powers of 2 apart. Thus the unit segments are
+ * visited only by the few levels with at least one pixel per unit, and
+ * not again by each of the (many more) lower levels.</P>
+ */
+public class TilePyramid
+{
+  /** Side of the tiles, in pixels. */
+  public static int TILE = 256;
+  /** Minimum number of pixels per unit to draw perturbations. */
+  public static float DETAIL_SCALE = 8.0f;
+  /** Minimum number of pixels per unit to draw the grid. */
+  public static float GRID_SCALE = 16.0f;
+  /** Maximum number of tiles rendered sequentially by one task. */
+  public static int THRESHOLD = 16;
+
+  /** Colors of the tiles: background, curve and grid. Tiles are drawn
+   * in RGB, which is faster, and then copied to two bits per pixel,
+   * which makes png encoding much faster. */
+  protected static final IndexColorModel PALETTE = new IndexColorModel(2, 3,
+     new byte[] {  (byte)255, 0, (byte)200  },
+     new byte[] {  (byte)255, 0, (byte)200  },
+     new byte[] {  (byte)255, 0, (byte)200  });
+
+  /** Index of the moves of the path. */
+  protected final SegmentIndex index;
+  /** The path. */
+  protected final CheckedMoves path;
+  /** Number of pixels per unit at the highest level. */
+  protected final float scale;
+  /** Factor applied to perturbations, as VisualCheck.PERTURB, chosen
+   * so that the largest perturbation is drawn within OFFSET. */
+  protected final float perturbFactor;
+  /** Grid coordinates of the upper left corner of the drawing. */
+  protected final float originX, originY;
+  /** Size of the drawing at the highest level, in pixels. */
+  protected final int width, height;
+  /** Highest level. */
+  protected final int maxLevel;
+  /** Pixels of the midpoints of the unit segments at each level below
+   * one pixel per unit, null at the other levels: sorted keys
+   * (row<<32)|column, without repetitions. */
+  protected final long[][] midpoints;
+
+  /** Create the renderer of a checked path.
+   * @param path a checked path
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param scale number of pixels of a unit segment at the highest level */
+  public TilePyramid(CheckedMoves path, int x, int y, float scale)
+  {
+    this.path = path;
+    this.scale = scale;
+    index = new SegmentIndex(path, x, y);
+    float max = 0.0f;
+    for (int i=0; i<path.length(); i++)
+      max = Math.max(max, Math.abs(path.getPerturbation(i)));
+    perturbFactor = VisualCheck.OFFSET / (max+1.0f);
+    // one unit of margin on each side, as in VisualCheck
+    originX = index.getMinX()-1;
+    originY = index.getMaxY()+1;
+    width = (int)Math.ceil(scale*(index.getMaxX()-index.getMinX()+2));
+    height = (int)Math.ceil(scale*(index.getMaxY()-index.getMinY()+2));
+    int l = 0;
+    while ((1L<<l)<Math.max(width, height)) l++;
+    maxLevel = l;
+    midpoints = new long[maxLevel+1][];
+    while ((l>=0) && (levelScale(l)>=1.0f)) l--;
+    if (l<0) return;
+    midpoints[l] = findMidpoints(l);
+    for (l--; l>=0; l--) midpoints[l] = halve(midpoints[l+1]);
+  }
+
+  /** Return the pixels of the midpoints of the unit segments used by
+   * the path at a level, as renderTile draws them. Pixels are sorted
+   * by column and then by row with two counting sorts, as moves in
+   * SegmentIndex.
+   * @param level a level
+   * @return the sorted keys (row<<32)|column of the pixels */
+  protected long[] findMidpoints(int level)
+  {
+    final PathDrawing dr = drawing(level);
+    final int[] xi = new int[index.edgeCount()], yi = new int[index.edgeCount()];
+    final int[] k = {  0  };
+    index.visitEdges(originX, index.getMinY()-1, index.getMaxX()+1, originY,
+                     new SegmentIndex.Visitor()
+    {
+      public void visit(int i)
+      {
+        xi[k[0]] = dr.mapX(0.5f*(index.getX(i)+index.getX(i+1)));
+        yi[k[0]++] = dr.mapY(0.5f*(index.getY(i)+index.getY(i+1)));
+      }
+    });
+    int[] order = new int[k[0]];
+    for (int i=0; i<order.length; i++) order[i] = i;
+    order = sortBy(yi, sortBy(xi, order, levelWidth(level)), levelHeight(level));
+    long[] keys = new long[order.length];
+    int m = 0;
+    for (int i : order)
+    {
+      long key = ((long)yi[i]<<32) | xi[i];
+      if ((m==0) || (keys[m-1]!=key)) keys[m++] = key;
+    }
+    return Arrays.copyOf(keys, m);
+  }
+
+  /** Sort indices by a coordinate, keeping the order of the indices
+   * with the same coordinate (counting sort).
+   * @param coord coordinates, from 0 to size-1
+   * @param order the indices to sort
+   * @param size number of possible coordinates
+   * @return the sorted indices */
+  protected static int[] sortBy(int[] coord, int[] order, int size)
+  {
+    int[] start = new int[size+1];
+    for (int i : order) start[coord[i]+1]++;
+    for (int c=0; c<size; c++) start[c+1] += start[c];
+    int[] sorted = new int[order.length];
+    for (int i : order) sorted[start[coord[i]]++] = i;
+    return sorted;
+  }
+
+  /** Return the pixels of the level below a level, each of them being
+   * set if one of the four pixels it covers is set. The two rows
+   * covered by each row of the level below are merged by column, so
+   * that the keys need not be sorted again.
+   * @param keys sorted keys (row<<32)|column of the pixels of a level
+   * @return the sorted keys of the pixels of the level below */
+  protected static long[] halve(long[] keys)
+  {
+    long[] half = new long[keys.length];
+    int m = 0;
+    for (int a=0, b, c; a<keys.length; a=c)
+    {
+      long y = keys[a]>>>32;
+      for (b=a; (b<keys.length) && ((keys[b]>>>32)==y); b++);
+      c = b;
+      if ((y&1)==0)
+        for (; (c<keys.length) && ((keys[c]>>>32)==y+1); c++);
+      long line = (y>>>1)<<32;
+      for (int i=a, j=b; (i<b) || (j<c); )
+      {
+        long x;
+        if ((j==c) || ((i<b) && ((keys[i]&0xffffffffL)<=(keys[j]&0xffffffffL))))
+          x = keys[i++]&0xffffffffL;
+        else x = keys[j++]&0xffffffffL;
+        long k = line | (x>>>1);
+        if ((m==0) || (half[m-1]!=k)) half[m++] = k;
+      }
+    }
+    return Arrays.copyOf(half, m);
+  }
+
+  /** Return the highest level.
+   * @return the level of the full drawing */
+  public int getMaxLevel()  {  return maxLevel;  }
+
+  /** Return the width of a level, in pixels.
+   * @param level a level, from 0 to getMaxLevel()
+   * @return the width */
+  public int levelWidth(int level)
+  {  return (int)((width+(1L<<(maxLevel-level))-1)>>(maxLevel-level));  }
+
+  /** Return the height of a level, in pixels.
+   * @param level a level, from 0 to getMaxLevel()
+   * @return the height */
+  public int levelHeight(int level)
+  {  return (int)((height+(1L<<(maxLevel-level))-1)>>(maxLevel-level));  }
+
+  /** Return the number of pixels per unit at a level.
+   * @param level a level, from 0 to getMaxLevel()
+   * @return the scale of the level */
+  public float levelScale(int level)
+  {  return (float)(scale/(double)(1L<<(maxLevel-level)));  }
+
+  /** Write the pyramid: descriptor name.dzi and tiles in directory
+   * name_files.
+   * @param name name of the pyramid, possibly with a directory
+   * @param pool the pool where tiles are rendered
+   * @throws IOException if writing fails */
+  public void write(String name, ForkJoinPool pool) throws IOException
+  {
+    File dir = new File(name+"_files");
+    for (int level=maxLevel; level>=0; level--)
+    {
+      File levelDir = new File(dir, Integer.toString(level));
+      if (!levelDir.isDirectory() && !levelDir.mkdirs())
+        throw new IOException("Cannot create directory "+levelDir);
+      long cols = (levelWidth(level)+TILE-1)/TILE;
+      long rows = (levelHeight(level)+TILE-1)/TILE;
+      try
+      {  pool.invoke(new Task(levelDir, level, cols, 0, cols*rows));  }
+      catch (UncheckedIOException exc)
+      {  throw exc.getCause();  }
+    }
+    Writer w = new FileWriter(name+".dzi");
+    try
+    {
+      w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"+
+        "<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\""+
+        " Format=\"png\" Overlap=\"0\" TileSize=\""+TILE+"\">\n"+
+        "  <Size Width=\""+width+"\" Height=\""+height+"\"/>\n</Image>\n");
+    }
+    finally
+    {  w.close();  }
+  }
+
+  /** Task rendering and writing the tiles of a level from lo to hi-1,
+   * numbered by row. */
+  protected class Task extends RecursiveAction
+  {
+    /** Version of the serialized form (tasks are never serialized). */
+    private static final long serialVersionUID = 1L;
+
+    /** Directory of the level. */
+    protected final File levelDir;
+    /** The level. */
+    protected final int level;
+    /** Number of columns of tiles of the level. */
+    protected final long cols;
+    /** Range of tiles. */
+    protected final long lo, hi;
+
+    /** Create a task.
+     * @param levelDir directory of the level
+     * @param level the level
+     * @param cols number of columns of tiles of the level
+     * @param lo first tile
+     * @param hi tile after the last one */
+    protected Task(File levelDir, int level, long cols, long lo, long hi)
+    {
+      this.levelDir = levelDir;
+      this.level = level;
+      this.cols = cols;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    /** Render the tiles, or split the range in two halves. */
+    protected void compute()
+    {
+      if (hi-lo<=THRESHOLD)
+      {
+        for (long t=lo; t<hi; t++)
+        {
+          int col = (int)(t%cols), row = (int)(t/cols);
+          BufferedImage tile = renderTile(level, col, row);
+          if (tile==null) continue;
+          try
+          {  ImageIO.write(tile, "png", new File(levelDir, col+"_"+row+".png"));  }
+          catch (IOException exc)
+          {  throw new UncheckedIOException(exc);  }
+        }
+      }
+      else
+      {
+        long mid = (lo+hi)>>>1;
+        invokeAll(new Task(levelDir, level, cols, lo, mid),
+                  new Task(levelDir, level, cols, mid, hi));
+      }
+    }
+  }
+
+  /** Render a tile.
+   * @param level the level
+   * @param col column of the tile
+   * @param row row of the tile
+   * @return the image of the tile, null if no move is in the tile */
+  public BufferedImage renderTile(int level, int col, int row)
+  {
+    final float s = levelScale(level);
+    final PathDrawing dr = drawing(level);
+    final int px = col*TILE, py = row*TILE;
+    int w = Math.min(TILE, levelWidth(level)-px);
+    int h = Math.min(TILE, levelHeight(level)-py);
+    float x1 = originX+px/s, x2 = originX+(px+w)/s;
+    float y1 = originY-(py+h)/s, y2 = originY-py/s;
+    if (!index.hasMoves(x1, y1, x2, y2)) return null;
+    BufferedImage imm = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D gr = imm.createGraphics();
+    gr.setColor(Color.white);
+    gr.fillRect(0, 0, w, h);
+    gr.translate(-px, -py);
+    gr.setColor(Color.black);
+    if (s<1.0f)
+    {
+      int[] pixels = ((DataBufferInt)imm.getRaster().getDataBuffer()).getData();
+      long[] keys = midpoints[level];
+      for (int y=0; y<h; y++)
+      {
+        long line = (long)(py+y)<<32;
+        int j = Arrays.binarySearch(keys, line|px);
+        if (j<0) j = -j-1;
+        for (; (j<keys.length) && (keys[j]<(line|(px+w))); j++)
+          pixels[y*w+(int)keys[j]-px] = 0;
+      }
+    }
+    else if (s<DETAIL_SCALE)
+      index.visitEdges(x1, y1, x2, y2, new SegmentIndex.Visitor()
+      {
+        public void visit(int i)
+        {
+          gr.drawLine(dr.mapX(index.getX(i)), dr.mapY(index.getY(i)),
+                      dr.mapX(index.getX(i+1)), dr.mapY(index.getY(i+1)));
+        }
+      });
+    else
+    {
+      if (s>=GRID_SCALE) drawGrid(gr, dr, x1, y1, x2, y2);
+      gr.setColor(Color.black);
+      gr.setStroke(new BasicStroke(2.0f));
+      index.visitMoves(x1, y1, x2, y2, new SegmentIndex.Visitor()
+      {
+        public void visit(int i)  {  drawMove(gr, i, dr);  }
+      });
+    }
+    gr.dispose();
+    return pack(imm);
+  }
+
+  /** Copy an RGB image, whose colors are in PALETTE, to an image with
+   * two bits per pixel. Pixels are packed directly, since drawing the
+   * image would look for the closest color of each pixel.
+   * @param imm an image of type TYPE_INT_RGB
+   * @return the same image, of type TYPE_BYTE_BINARY with PALETTE */
+  protected static BufferedImage pack(BufferedImage imm)
+  {
+    int w = imm.getWidth(), h = imm.getHeight();
+    BufferedImage tile = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY,
+                                           PALETTE);
+    int[] rgb = ((DataBufferInt)imm.getRaster().getDataBuffer()).getData();
+    byte[] packed = ((DataBufferByte)tile.getRaster().getDataBuffer()).getData();
+    int stride = (w+3)/4;
+    for (int y=0; y<h; y++)
+      for (int x=0; x<w; x++)
+      {
+        int c = rgb[y*w+x] & 0xff;
+        int k = (c==255) ? 0 : ((c==0) ? 1 : 2);
+        packed[y*stride+x/4] |= k << (6-2*(x%4));
+      }
+    return tile;
+  }
+
+  /** Return the drawing of a level, whose pixel (0,0) is the upper left
+   * corner of the drawing.
+   * @param level a level, from 0 to getMaxLevel()
+   * @return the drawing of the level */
+  public PathDrawing drawing(int level)
+  {
+    return new PathDrawing(levelScale(level), perturbFactor,
+                           originX, index.getMaxX()+1, index.getMinY()-1, originY);
+  }
+
+  /** Draw the unit grid lines crossing a rectangle.
+   * @param gr graphical context
+   * @param dr drawing of the level
+   * @param x1 minimum x of the rectangle
+   * @param y1 minimum y of the rectangle
+   * @param x2 maximum x of the rectangle
+   * @param y2 maximum y of the rectangle */
+  protected void drawGrid(Graphics2D gr, PathDrawing dr,
+                          float x1, float y1, float x2, float y2)
+  {
+    gr.setColor(new Color(200,200,200));
+    int top = dr.mapY(y2), bottom = dr.mapY(y1)+1;
+    int left = dr.mapX(x1), right = dr.mapX(x2)+1;
+    for (int x=(int)Math.ceil(x1); x<=x2; x++)
+      gr.drawLine(dr.mapX(x), top, dr.mapX(x), bottom);
+    for (int y=(int)Math.ceil(y1); y<=y2; y++)
+      gr.drawLine(left, dr.mapY(y), right, dr.mapY(y));
+  }
+
+  /** Draw a move of the curve with perturbations, as
+   * VisualCheck.drawCurve: from the end of the previous move to the
+   * perturbed start of this move, then to its perturbed end.
+   * @param gr graphical context
+   * @param i index of the move
+   * @param dr drawing of the level */
+  protected void drawMove(Graphics2D gr, int i, PathDrawing dr)
+  {
+    int x = index.getX(i), y = index.getY(i);
+    int xi = dr.mapX(x), yi = dr.mapY(y);
+    if (i>0)
+    {
+      int o = Direction.oppositeDir(path.getDir(i-1));
+      float p = path.getPerturbation(i-1);
+      xi = dr.mapX(dr.perturbX(x, o, p));
+      yi = dr.mapY(dr.perturbY(y, o, p));
+    }
+    int d = path.getDir(i);
+    float p = path.getPerturbation(i);
+    int xj = dr.mapX(dr.perturbX(x, d, p)), yj = dr.mapY(dr.perturbY(y, d, p));
+    gr.drawLine(xi, yi, xj, yj);
+    int o = Direction.oppositeDir(d);
+    x = index.getX(i+1);
+    y = index.getY(i+1);
+    gr.drawLine(xj, yj, dr.mapX(dr.perturbX(x, o, p)), dr.mapY(dr.perturbY(y, o, p)));
+  }
+
+  /** MAIN PROGRAM.
+   * Check the path read from a file (see PathUtils.pathFromFile),
+   * starting from (0,0), and write its pyramid on the common pool.
+   * Accept on the command line the name of the file, the name of the
+   * pyramid (default: the file name without extension) and the number
+   * of pixels per unit at the highest level (default
+   * VisualCheck.BIG_FACTOR).
+   * @param arg command line
+   * @throws IOException if reading or writing fails */
+  public static void main(String[] arg) throws IOException
+  {
+    String name = arg[0].replaceFirst("\\.[^./\\\\]*$", "");
+    float scale = VisualCheck.BIG_FACTOR;
+    if (arg.length>1) name = arg[1];
+    if (arg.length>2) scale = Float.parseFloat(arg[2]);
+    String p = PathUtils.pathFromFile(arg[0]);
+    long t0 = System.nanoTime();
+    PathChecker.CheckedPath cp =
+      new ColumnarPathChecker(p.length()).check(0, 0, p, true);
+    long t1 = System.nanoTime();
+    TilePyramid pyramid = new TilePyramid(cp, 0, 0, scale);
+    pyramid.write(name, ForkJoinPool.commonPool());
+    long t2 = System.nanoTime();
+    System.out.printf("%d moves checked in %.1f s, %d levels written to %s_files in %.1f s%n",
+       cp.length(), (t1-t0)/1e9, pyramid.getMaxLevel()+1, name, (t2-t1)/1e9);
+  }
+
+}
@@ -0,0 +1,369 @@
+package orthopaths;
+
+import java.io.*;
+
+/** <P>Export of the curve with perturbations to a vector format,
+ * SVG or EPS. The curve is the same polyline drawn by
+ * VisualCheck.drawCurve (points computed by PathDrawing.perturbX and
+ * perturbY, with a given perturbation factor), but coordinates are not
+ * rounded to pixels, so that the perturbations are visible at any
+ * zoom. The scale and the perturbation factor are given explicitly,
+ * so that figures with their own ones (see class Figure) are exported
+ * as they are drawn; by default they are VisualCheck.BIG_FACTOR and
+ * VisualCheck.PERTURB.</P>
+ * <P>Consecutive collinear segments are merged into a single path
+ * command, and the commands are written as they are produced through
+ * a buffered writer: the document is never kept in memory. The path
+ * is scanned twice, the first time to compute the bounding box needed
+ * by the header. Every CHUNK commands the path element is closed and a
+ * new one is started, because some viewers do not accept very long
+ * paths.</P>
+ */
+public class VectorExport
+{
+  /** Format: Scalable Vector Graphics. */
+  public static final int SVG = 0;
+  /** Format: Encapsulated PostScript. */
+  public static final int EPS = 1;
+
+  /** Number of decimal digits of the written coordinates. */
+  public static int DECIMALS = 3;
+  /** Maximum number of line commands in a path element. */
+  public static int CHUNK = 1000;
+  /** Width of the lines. */
+  public static float STROKE = 1.0f;
+  /** Empty space around the curve. */
+  public static float MARGIN = 4.0f;
+  /** Size of the buffer of the writer, in characters. */
+  public static int BUFFER = 1<<16;
+
+  /** The format, SVG or EPS. */
+  protected final int format;
+  /** Where the document is written, null while computing the
+   * bounding box. */
+  protected Writer out;
+  /** Factor from grid units to units of the document. */
+  protected final float scale;
+  /** Offset of a perturbation equal to 1, as VisualCheck.PERTURB. */
+  protected final float perturbFactor;
+  /** Bounding box of the curve, in grid units. */
+  protected float minX, minY, maxX, maxY;
+  /** Start point and end point of the segment being extended. */
+  protected float sx, sy, lx, ly;
+  /** True iff the segment from (sx,sy) to (lx,ly) has not been
+   * written yet. */
+  protected boolean pending;
+  /** Number of line commands in the current path element. */
+  protected int commands;
+  /** Work array for writing numbers. */
+  protected final char[] digits = new char[32];
+  /** Powers of ten. */
+  protected static final long[] TEN = new long[19];
+  static
+  {
+    TEN[0] = 1;
+    for (int i=1; i<TEN.length; i++) TEN[i] = 10*TEN[i-1];
+  }
+
+  /** Create an exporter.
+   * @param format SVG or EPS
+   * @param scale length, in the document, of a unit segment
+   * @param perturbFactor offset of a perturbation equal to 1 */
+  protected VectorExport(int format, float scale, float perturbFactor)
+  {
+    this.format = format;
+    this.scale = scale;
+    this.perturbFactor = perturbFactor;
+  }
+
+  /** Return the format corresponding to the extension of a file name.
+   * @param fileName a file name ending with .svg or .eps
+   * @return SVG or EPS */
+  public static int formatOf(String fileName)
+  {
+    String s = fileName.toLowerCase();
+    if (s.endsWith(".svg")) return SVG;
+    if (s.endsWith(".eps")) return EPS;
+    throw new IllegalArgumentException("Unknown vector format of "+fileName);
+  }
+
+  /** Write the curve with perturbations of a checked path to a file,
+   * in the format given by the extension of the file name, with the
+   * current values of VisualCheck.BIG_FACTOR and VisualCheck.PERTURB.
+   * @param path a checked path
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param fileName name of a file ending with .svg or .eps
+   * @throws IOException if writing fails */
+  public static void write(CheckedMoves path, int x, int y,
+                           String fileName) throws IOException
+  {  write(path, x, y, VisualCheck.BIG_FACTOR, VisualCheck.PERTURB, fileName);  }
+
+  /** Write the curve with perturbations of a checked path to a file,
+   * in the format given by the extension of the file name.
+   * @param path a checked path
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param scale length, in the document, of a unit segment
+   * @param perturbFactor offset of a perturbation equal to 1
+   * @param fileName name of a file ending with .svg or .eps
+   * @throws IOException if writing fails */
+  public static void write(CheckedMoves path, int x, int y,
+                           float scale, float perturbFactor,
+                           String fileName) throws IOException
+  {
+    Writer w = new BufferedWriter(new FileWriter(fileName), BUFFER);
+    try
+    {  write(path, x, y, scale, perturbFactor, formatOf(fileName), w);  }
+    finally
+    {  w.close();  }
+  }
+
+  /** Write the curve with perturbations of a checked path to a writer,
+   * with the current values of VisualCheck.BIG_FACTOR and
+   * VisualCheck.PERTURB.
+   * @param path a checked path
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param format SVG or EPS
+   * @param w the writer, which should be buffered
+   * @throws IOException if writing fails */
+  public static void write(CheckedMoves path, int x, int y,
+                           int format, Writer w) throws IOException
+  {  write(path, x, y, VisualCheck.BIG_FACTOR, VisualCheck.PERTURB, format, w);  }
+
+  /** Write the curve with perturbations of a checked path to a writer.
+   * @param path a checked path
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @param scale length, in the document, of a unit segment
+   * @param perturbFactor offset of a perturbation equal to 1
+   * @param format SVG or EPS
+   * @param w the writer, which should be buffered
+   * @throws IOException if writing fails */
+  public static void write(CheckedMoves path, int x, int y,
+                           float scale, float perturbFactor,
+                           int format, Writer w) throws IOException
+  {
+    VectorExport e = new VectorExport(format, scale, perturbFactor);
+    e.minX = e.maxX = x;
+    e.minY = e.maxY = y;
+    e.scan(path, x, y); // bounding box
+    e.out = w;
+    e.header();
+    e.scan(path, x, y);
+    e.trailer();
+    w.flush();
+  }
+
+  /** Produce the points of the curve, as VisualCheck.drawCurve.
+   * @param path a checked path
+   * @param x x of the starting point
+   * @param y y of the starting point
+   * @throws IOException if writing fails */
+  protected void scan(CheckedMoves path, int x, int y)
+      throws IOException
+  {
+    moveTo(x, y);
+    for (int i=0; i<path.length(); i++)
+    {
+      int d = path.getDir(i);
+      float p = path.getPerturbation(i);
+      int x2 = x+Direction.xDir(d), y2 = y+Direction.yDir(d);
+      lineTo(PathDrawing.perturbX(x,d,p,perturbFactor),
+             PathDrawing.perturbY(y,d,p,perturbFactor));
+      int o = Direction.oppositeDir(d);
+      lineTo(PathDrawing.perturbX(x2,o,p,perturbFactor),
+             PathDrawing.perturbY(y2,o,p,perturbFactor));
+      x = x2;
+      y = y2;
+    }
+    flush();
+  }
+
+  /** Start the curve at the given point.
+   * @param x x coordinate, in grid units
+   * @param y y coordinate, in grid units
+   * @throws IOException if writing fails */
+  protected void moveTo(float x, float y) throws IOException
+  {
+    sx = lx = x;
+    sy = ly = y;
+    pending = false;
+    commands = 0;
+    if (out!=null) startPath(x, y);
+  }
+
+  /** Continue the curve to the given point. If the segment from the
+   * last point is collinear with the segment being extended, and has
+   * the same orientation, it is merged with it, otherwise the segment
+   * being extended is written and a new one starts.
+   * @param x x coordinate, in grid units
+   * @param y y coordinate, in grid units
+   * @throws IOException if writing fails */
+  protected void lineTo(float x, float y) throws IOException
+  {
+    if ((x==lx) && (y==ly)) return;
+    if (pending)
+    {
+      float ax = lx-sx, ay = ly-sy, bx = x-lx, by = y-ly;
+      if ((ax*by==ay*bx) && (ax*bx+ay*by>0))
+      {
+        lx = x;
+        ly = y;
+        return;
+      }
+      flush();
+    }
+    lx = x;
+    ly = y;
+    pending = true;
+  }
+
+  /** Write the segment being extended, if any, and make its end point
+   * the start of the next one.
+   * @throws IOException if writing fails */
+  protected void flush() throws IOException
+  {
+    if (!pending) return;
+    pending = false;
+    if (out==null)
+    {
+      if (lx<minX) minX = lx;
+      if (lx>maxX) maxX = lx;
+      if (ly<minY) minY = ly;
+      if (ly>maxY) maxY = ly;
+    }
+    else
+    {
+      if (commands==CHUNK)
+      {
+        endPath();
+        startPath(sx, sy);
+        commands = 0;
+      }
+      line(sx, sy, lx, ly);
+      commands++;
+    }
+    sx = lx;
+    sy = ly;
+  }
+
+  /** Return the x coordinate in the document of a point.
+   * @param x x coordinate, in grid units
+   * @return x coordinate in the document */
+  protected float docX(float x)  {  return MARGIN+scale*(x-minX);  }
+
+  /** Return the y coordinate in the document of a point. In SVG the
+   * y axis goes down, in EPS it goes up.
+   * @param y y coordinate, in grid units
+   * @return y coordinate in the document */
+  protected float docY(float y)
+  {
+    if (format==SVG) return MARGIN+scale*(maxY-y);
+    return MARGIN+scale*(y-minY);
+  }
+
+  /** Write the header of the document.
+   * @throws IOException if writing fails */
+  protected void header() throws IOException
+  {
+    float w = 2*MARGIN+scale*(maxX-minX);
+    float h = 2*MARGIN+scale*(maxY-minY);
+    if (format==SVG)
+    {
+      out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+      out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+      number(w); out.write("\" height=\""); number(h);
+      out.write("\" viewBox=\"0 0 "); number(w); out.write(' '); number(h);
+      out.write("\">\n<g fill=\"none\" stroke=\"black\" stroke-width=\"");
+      number(STROKE);
+      out.write("\" stroke-linejoin=\"round\">\n");
+    }
+    else
+    {
+      out.write("%!PS-Adobe-3.0 EPSF-3.0\n%%BoundingBox: 0 0 ");
+      out.write(Integer.toString((int)Math.ceil(w)));
+      out.write(' ');
+      out.write(Integer.toString((int)Math.ceil(h)));
+      out.write("\n%%EndComments\n/m {moveto} bind def /l {lineto} bind def\n");
+      number(STROKE);
+      out.write(" setlinewidth 1 setlinejoin 0 setgray\n");
+    }
+  }
+
+  /** Write the end of the document.
+   * @throws IOException if writing fails */
+  protected void trailer() throws IOException
+  {
+    endPath();
+    if (format==SVG) out.write("</g>\n</svg>\n");
+    else out.write("showpage\n%%EOF\n");
+  }
+
+  /** Start a path element at the given point.
+   * @param x x coordinate, in grid units
+   * @param y y coordinate, in grid units
+   * @throws IOException if writing fails */
+  protected void startPath(float x, float y) throws IOException
+  {
+    if (format==SVG) out.write("<path d=\"M");
+    number(docX(x)); out.write(' '); number(docY(y));
+    if (format==EPS) out.write(" m");
+  }
+
+  /** Write a line command from (x1,y1) to (x2,y2), the current point.
+   * In SVG, horizontal and vertical lines give shorter commands.
+   * @param x1 x of the current point, in grid units
+   * @param y1 y of the current point, in grid units
+   * @param x2 x of the end point, in grid units
+   * @param y2 y of the end point, in grid units
+   * @throws IOException if writing fails */
+  protected void line(float x1, float y1, float x2, float y2)
+      throws IOException
+  {
+    if (format==SVG)
+    {
+      if (y1==y2) {  out.write('H'); number(docX(x2));  }
+      else if (x1==x2) {  out.write('V'); number(docY(y2));  }
+      else {  out.write('L'); number(docX(x2)); out.write(' '); number(docY(y2));  }
+    }
+    else
+    {
+      out.write((commands%8==0) ? '\n' : ' ');
+      number(docX(x2)); out.write(' '); number(docY(y2)); out.write(" l");
+    }
+  }
+
+  /** End the current path element.
+   * @throws IOException if writing fails */
+  protected void endPath() throws IOException
+  {
+    if (format==SVG) out.write("\"/>\n");
+    else out.write("\nstroke\n");
+  }
+
+  /** Write a number with at most DECIMALS decimal digits, without
+   * trailing zeros.
+   * @param f the number
+   * @throws IOException if writing fails */
+  protected void number(float f) throws IOException
+  {
+    long v = Math.round(f*(double)TEN[DECIMALS]);
+    int n = digits.length;
+    boolean negative = (v<0);
+    if (negative) v = -v;
+    int dec = DECIMALS;
+    while ((dec>0) && (v%10==0)) {  v /= 10; dec--;  }
+    do
+    {
+      digits[--n] = (char)('0'+v%10);
+      v /= 10;
+      if (--dec==0) digits[--n] = '.';
+    }
+    while ((v>0) || (dec>=0));
+    if (negative) digits[--n] = '-';
+    out.write(digits, n, digits.length-n);
+  }
+
+}
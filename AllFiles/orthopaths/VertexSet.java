@@ -1,5 +1,8 @@
 package orthopaths;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /** <P>A list of vertices, where a skip list of half segments is
  * associated with each vertex.
  * The list is intended to contain all the vertices of a curve, and stores 
@@ -7,9 +10,50 @@ package orthopaths;
  * <P>The class simulates a dictionary in which every point (x,y) is a key.
  * The associated value is a radially sorted list of half segments
  * implemented as a skip list (class HalfSegmentSkipList).</P>
+ * <P>Locating a vertex in the list takes time linear in the number of
+ * vertices. This class is kept as the reference implementation;
+ * subclasses provide faster dictionaries, see method create.</P>
  */
 public class VertexSet
 {
+  /** Kind of vertex set: linked list sorted by coordinates (this class). */
+  public static final int LIST = 0;
+  /** Kind of vertex set: hash table on packed coordinates
+   * (class HashVertexSet). */
+  public static final int HASH = 1;
+  /** Kind of vertex set: B+-tree ordered by the Morton code of the
+   * coordinates (class MortonVertexSet). */
+  public static final int MORTON = 2;
+
+  /** Maximum number of vertices normalized by a single task of the
+   * parallel normalization (see normalizePerturbations). */
+  public static int NORMALIZE_GRAIN = 4096;
+
+  /** Interface for an operation to be applied to the vertices of a set,
+   * see methods visit and visitRange. */
+  public interface Visitor
+  {
+    /** Operation applied to vertex (x,y).
+     * @param x x coordinate of the vertex
+     * @param y y coordinate of the vertex
+     * @param star skip list associated with the vertex */
+    void visit(int x, int y, HalfSegmentSkipList star);
+  }
+
+  /** Create an empty set of vertices of the given kind.
+   * @param kind one of LIST, HASH, MORTON
+   * @return an empty vertex set */
+  public static VertexSet create(int kind)
+  {
+    switch (kind)
+    {
+      case LIST: return new VertexSet();
+      case HASH: return new HashVertexSet();
+      case MORTON: return new MortonVertexSet();
+    }
+    throw new IllegalArgumentException("Unknown kind of vertex set "+kind);
+  }
+
   /** Inner class for an element (node) of the list of vertices.
    * The list is a simply connected linked list. */
   public class Element
@@ -107,6 +151,20 @@ public class VertexSet
     return added.star;
   }
   
+  /** Return the skip list associated with vertex (x,y), without
+   * inserting the vertex if it is not present.
+   * @param x x coordinate of the vertex
+   * @param y y coordinate of the vertex
+   * @return the skip list associated with (x,y), or null if the
+   * vertex is not in this set */
+  public HalfSegmentSkipList find(int x, int y)
+  {
+    Element curr = first;
+    while ((curr!=null) && (curr.lexBefore(x,y))) curr = curr.next;
+    if ((curr!=null)&&(curr.x==x)&&(curr.y==y)) return curr.star;
+    return null;
+  }
+
   /** Print this set of vertices.
    * @param newline true iff we want to go on new line after printing */
   public void print(boolean newline)
@@ -132,6 +190,123 @@ public class VertexSet
      el.star.adjustPerturbations();
      el = el.next;
    }
+   // perturbations changed also in other vertices
+   for (el = first; el!=null; el = el.next) el.star.dropTrees();
  }
+
+  /** Return the skip lists of all vertices of this set, in the order
+   * of method visit.
+   * @return an array with the skip lists of all vertices */
+  public HalfSegmentSkipList[] stars()
+  {
+    final HalfSegmentSkipList[] stars = new HalfSegmentSkipList[size()];
+    visit(new Visitor()
+    {
+      int i = 0;
+      public void visit(int x, int y, HalfSegmentSkipList star)
+      {  stars[i++] = star;  }
+    });
+    return stars;
+  }
+
+  /** Rescale the perturbations of all segments to consecutive integers
+   * (see HalfSegmentSkipList.normalize), one vertex after the other. */
+  public void normalizePerturbations()
+  {
+    for (HalfSegmentSkipList star : stars()) star.normalize();
+  }
+
+  /** Rescale the perturbations of all segments to consecutive integers,
+   * as normalizePerturbations() does, with the vertices split among
+   * the tasks of the given pool. Every segment is written by a single
+   * vertex (its west or south endpoint), so the tasks never write the
+   * same half segment and the result is the same as the sequential one.
+   * @param pool the pool running the tasks */
+  public void normalizePerturbations(ForkJoinPool pool)
+  {
+    HalfSegmentSkipList[] stars = stars();
+    pool.invoke(new Normalization(stars, 0, stars.length));
+  }
+
+  /** Task normalizing the perturbations around a range of vertices,
+   * see normalizePerturbations(ForkJoinPool). */
+  protected static class Normalization extends RecursiveAction
+  {
+    /** Version of the serialized form (tasks are never serialized). */
+    private static final long serialVersionUID = 1L;
+
+    /** Skip lists of the vertices. */
+    protected final HalfSegmentSkipList[] stars;
+    /** Range of the vertices of this task, from (included) and
+     * to (excluded). */
+    protected final int from, to;
+
+    /** Create a task for the vertices from (included) to to (excluded).
+     * @param stars the skip lists of the vertices
+     * @param from first vertex of the range
+     * @param to last vertex of the range plus one */
+    protected Normalization(HalfSegmentSkipList[] stars, int from, int to)
+    {
+      this.stars = stars;
+      this.from = from;
+      this.to = to;
+    }
+
+    /** Normalize the range, or split it in two halves if it is large. */
+    protected void compute()
+    {
+      if (to-from<=NORMALIZE_GRAIN)
+      {
+        for (int i=from; i<to; i++) stars[i].normalize();
+        return;
+      }
+      int mid = (from+to)>>>1;
+      invokeAll(new Normalization(stars, from, mid),
+                new Normalization(stars, mid, to));
+    }
+  }
+
+  /** Apply the given visitor to all vertices of this set, in 
+   * lexicographic order.
+   * @param v the visitor */
+  public void visit(Visitor v)
+  {
+    for (Element el = first; el!=null; el = el.next)
+      v.visit(el.x, el.y, el.star);
+  }
+
+  /** Apply the given visitor to all vertices of this set lying in the
+   * rectangle [x0,x1] x [y0,y1] (borders included).
+   * @param x0 minimum x of the rectangle
+   * @param y0 minimum y of the rectangle
+   * @param x1 maximum x of the rectangle
+   * @param y1 maximum y of the rectangle
+   * @param v the visitor */
+  public void visitRange(int x0, int y0, int x1, int y1, Visitor v)
+  {
+    for (Element el = first; (el!=null) && (el.x<=x1); el = el.next)
+      if ((el.x>=x0) && (el.y>=y0) && (el.y<=y1))
+        v.visit(el.x, el.y, el.star);
+  }
  
+  /** Return a key of vertex (x,y) such that the keys of two vertices
+   * are in the same order as the vertices in lexicographic order
+   * (see Element.lexBefore), which is the order of this list.
+   * @param x x coordinate
+   * @param y y coordinate
+   * @return x in the high 32 bits, y with flipped sign bit in the low
+   * 32 bits */
+  public static long lexKey(int x, int y)
+  {  return (((long)x)<<32) | ((y ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);  }
+
+  /** Return the x coordinate from a key obtained from lexKey.
+   * @param key a lexicographic key
+   * @return the x coordinate */
+  public static int lexX(long key)  {  return (int)(key>>32);  }
+
+  /** Return the y coordinate from a key obtained from lexKey.
+   * @param key a lexicographic key
+   * @return the y coordinate */
+  public static int lexY(long key)  {  return ((int)key) ^ Integer.MIN_VALUE;  }
+
 }
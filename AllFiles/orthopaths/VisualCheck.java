@@ -3,6 +3,8 @@ package orthopaths;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.*;
+import java.awt.image.*;
 import javax.swing.event.*;
 import java.io.*;
 
@@ -54,6 +56,10 @@ public class VisualCheck extends JPanel
    * square. After this everything will be amplified BIG_FACTOR times. */
   public static float OFFSET = 0.2f;
 
+  /** Minimum distance between two drawn lines of the grid, in pixels
+   * (see drawGrid). */
+  public static float GRID_SPACING = 8.0f;
+
   /** If true, draw just the raw curve. If false, draw the raw curve and
    * the curve without intersections. */
   protected boolean onlyRaw = false; 
@@ -115,6 +121,36 @@ public class VisualCheck extends JPanel
    * This is only for the case in which the path has been read
    * or inserted by the user. */
   protected String restPath = "";
+
+  /** Spatial index of the moves of rawPath, which are also the moves of
+   * the checked path plus possibly a crossing one, to draw only the
+   * moves which are visible (see updateCurves and drawCurves). */
+  protected SegmentGrid grid;
+  /** Segments of the raw curve and of the curve with perturbations
+   * which have not been drawn into the backing image yet, in pixels
+   * with respect to point (0,0) of the grid. */
+  protected Path2D.Float rawFresh = new Path2D.Float(),
+                         curveFresh = new Path2D.Float();
+  /** Number of moves of the checked path drawn into the backing image
+   * or added to curveFresh. */
+  protected int curveMoves;
+
+  /** Image of the two curves, transparent elsewhere, covering rectangle
+   * backingRect (in the coordinates of rawFresh and curveFresh). It is
+   * drawn again when the visible part of the panel is not inside it,
+   * or when the scale changes. */
+  protected BufferedImage backing;
+  /** Rectangle covered by the backing image. */
+  protected Rectangle backingRect;
+  /** Value of onlyRaw when the backing image was drawn. */
+  protected boolean backingRaw;
+  /** BIG_FACTOR and PERTURB when the backing image was drawn. */
+  protected float backingFactor, backingPerturb;
+  /** Checked path drawn into the backing image. */
+  protected PathChecker.CheckedPath backingPath;
+  /** Number of rescales of the checker (see PathChecker.getRescales)
+   * when the backing image was drawn. */
+  protected int backingRescales;
   
   /** If the string is a valid path, set the path to be processed and
    * return true. Otherwise return false.
@@ -131,15 +167,22 @@ public class VisualCheck extends JPanel
       if (k<=0) return false;
       String p2 = p.substring(k);
       p = p.substring(0,k);
-      int ok = JOptionPane.showConfirmDialog(window, 
+      if (window==null) // no window to ask, take the first part
+        System.err.println("Error at position "+k+": "+PathUtils.problem+
+             ", only the first part will be set");
+      else
+      {
+        int ok = JOptionPane.showConfirmDialog(window, 
              "Error at position "+k+": "+PathUtils.problem+"\n"
              +p+" [ "+p2+" ] only the first part will be set, agree?",
              "Confirm", JOptionPane.YES_NO_OPTION);
-      if (ok!=JOptionPane.YES_OPTION)
-          return false;
+        if (ok!=JOptionPane.YES_OPTION)
+            return false;
+      }
     }
     restPath = p;
     rawPath = "";
+    invalidateCurves(0);
     if (checker!=null) {  checker.reset(); path = null;  }
     num = 0;
     inputPath = true;
@@ -155,15 +198,21 @@ public class VisualCheck extends JPanel
     return true;
   }
   
+  /** Return the drawing of the panel, with the current window limits,
+   * BIG_FACTOR and PERTURB.
+   * @return the drawing */
+  public PathDrawing drawing()
+  {  return new PathDrawing(BIG_FACTOR, PERTURB, minX, maxX, minY, maxY);  }
+
   /** Return window coordinate, in pixels, for given x.
    * @param x the real value of x coordinate
    * @return the pixel coordinate for the real x */
-  public int mapX(float x) {  return (int)(BIG_FACTOR*(x-minX));  }
+  public int mapX(float x) {  return drawing().mapX(x);  }
 
   /** Return window coordinate, in pixels, for given y.
    * @param y the real value of x coordinate
    * @return the pixel coordinate for the real y */
-  public int mapY(float y) {  return (int)(BIG_FACTOR*(maxY-y));  }
+  public int mapY(float y) {  return drawing().mapY(y);  }
 
   /** Resize the window based on current window limints (minX, maxX,
    * (min, maxY). To be called when a new segment is added to the curve, 
@@ -213,33 +262,23 @@ public class VisualCheck extends JPanel
     return y;
   }
     
-  /** Apply perturbation to given x coordinate. The coordinate
-   * gets modified by the perturbation only if direction dir is 
-   * vertical. Otherswise it gets modified by the offset. 
+  /** Apply perturbation to given x coordinate, with PERTURB
+   * (see PathDrawing.perturbX).
    * @param x x coordinate
    * @param dir a direction
    * @param perturb perturbation to be applied
    * @return perturbed x coordinate */
   protected static float perturbX(float x, int dir, float perturb)
-  {
-    if (dir==0) return x+OFFSET; // east
-    if (dir==2) return x-OFFSET; // west
-    return x+PERTURB*perturb;
-  }
+  {  return PathDrawing.perturbX(x, dir, perturb, PERTURB);  }
   
-  /** Apply perturbation to given y coordinate. The coordinate
-   * gets modified by the perturbation only if direction dir is
-   * horizontal. Otherswise it gets modified by the offset.
+  /** Apply perturbation to given y coordinate, with PERTURB
+   * (see PathDrawing.perturbY).
    * @param y y coordinate
    * @param dir a direction
    * @param perturb perturbation to be applied
    * @return perturbed y coordinate */ 
   protected static float perturbY(float y, int dir, float perturb)
-  {
-    if (dir==1) return y+OFFSET; // north
-    if (dir==3) return y-OFFSET; // south
-    return y+PERTURB*perturb;
-  }
+  {  return PathDrawing.perturbY(y, dir, perturb, PERTURB);  }
   
   /** Update window limits (minX, minY, maxX, maxY) based on
    * lastPoint, and return true if something changed. 
@@ -263,70 +302,17 @@ public class VisualCheck extends JPanel
    * @param x x of the starting point
    * @param y y of the starting point */
   public void drawRawCurve(Graphics2D gr, int x, int y)
-  {
-     Vertex v1;
-     int lastXi, lastYi;
-     Vertex v2 = new Vertex(x,y);
-     int xi = mapX(x), yi = mapY(y);
-     gr.fillRect(xi, yi, 2,2);
-     gr.setStroke(new BasicStroke(2.0f));
-     for (int i=0; i<rawPath.length(); i++)
-     {
-       v1 = v2;
-       lastXi = xi;
-       lastYi = yi;
-       int d = Direction.decodDir(rawPath.charAt(i));
-       v2 = Direction.movePoint(v1, d);
-       xi = mapX(v2.x);
-       yi = mapY(v2.y);
-       gr.drawLine(lastXi, lastYi, xi, yi);  
-       gr.fillRect(xi, yi, 2,2);   
-     }
-  }
+  {  drawing().drawRawCurve(gr, rawPath, x, y);  }
   
   /** Draw the curve with perturbations, which avoid intersections.
-  * @param gr graphical context 
+   * @param gr graphical context 
    * @param x x of the starting point
    * @param y y of the starting point */
   public void drawCurve(Graphics2D gr, int x, int y)
   {
-     Vertex v1;
-     int lastXi, lastYi;
-     Vertex v2 = new Vertex(x,y);
-     int xi = mapX(x), yi = mapY(y);
-//     System.out.println("drawCurve rettangolo iniz centrato in "+xi+", "+yi);
-//     gr.fillRect(xi, yi, 2,2);
-     float p = 0.0f;
-     gr.setStroke(new BasicStroke(2.0f));
-     for (int i=0; i<path.length(); i++)
-     {
-       v1 = v2;
-       lastXi = xi;
-       lastYi = yi;
-       int d = path.getDir(i);
-       v2 = Direction.movePoint(v1, d);
-       p =  path.getPerturbation(i);
-//System.out.println("Disegno seg ("+v1.x+","+v1.y+")-("+v2.x+","+v2.y+") con pert= "+p);
-       // with previous point and new direction
-//       if (debug) System.out.println("   Ero a ("+v1.x+" "+v1.y+") vecchio");
-       xi = mapX(perturbX(v1.x,d,p));
-       yi = mapY(perturbY(v1.y,d,p));
-//       System.out.println("drawCurve p1: "+perturbX(v1.x,d,p)+","+
-//          perturbY(v1.y,d,p)+"--> "+xi+", "+yi);
-       gr.drawLine(lastXi, lastYi, xi, yi);
-//       gr.fillRect(xi, yi, 2,2);
-//       if (debug) System.out.println("Direzione "+d+": vado a ("+v2.x+" "+v2.y+")");
-//       if (debug) System.out.println("Direzione opposta "+opposite(d));
-       // with new point and opposite of new direction
-       lastXi = xi;
-       lastYi = yi;
-       xi = mapX(perturbX(v2.x,Direction.oppositeDir(d),p));
-       yi = mapY(perturbY(v2.y,Direction.oppositeDir(d),p));
-//       System.out.println("drawCurve p2: "+perturbX(v2.x,opposite(d),p)+","+
-//           perturbY(v2.y,opposite(d),p)+"--> "+xi+", "+yi);
-       gr.drawLine(lastXi, lastYi, xi, yi);
-      }
+     drawing().drawCurve(gr, path, x, y);
      // for next time, update maxPerturbation and recompute OFFEST
+     float p = (path.length()>0) ? path.getPerturbation(path.length()-1) : 0.0f;
      if (p<0.0f) p = -p;
      if (p>maxPerturbation)
      { 
@@ -335,33 +321,169 @@ public class VisualCheck extends JPanel
      }
   }
 
-  /** Draw the unit grid.
+  /** Draw the unit grid (see PathDrawing.drawGrid).
    * @param gr graphical context */
   public void drawGrid(Graphics2D gr)
+  {  drawing().drawGrid(gr);  }
+      
+  /** Forget the moves drawn after the given number (see updateCurves).
+   * To be called when the path is changed otherwise than by adding
+   * moves at its end (undo, reset, new path).
+   * @param moves number of moves at the beginning of the path which
+   * did not change */
+  protected void invalidateCurves(int moves)
   {
-    float x, y;
-    int lim1, lim2, i;
-    lim1 = mapY(minY); lim2 = mapY(maxY);
-    for (x=minX; x<=maxX; x++)
+    if (grid!=null) grid.truncate(Math.min(moves, grid.size()));
+    curveMoves = Math.min(curveMoves, moves);
+    backing = null;
+  }
+
+  /** Bring the spatial index up to date with rawPath, and add the new
+   * moves of rawPath and path to rawFresh and curveFresh, if there is a
+   * backing image where they have to be drawn. The backing image is
+   * dropped if the scale changed: BIG_FACTOR, or PERTURB because the
+   * largest perturbation grew beyond maxPerturbation, or the
+   * perturbations of the moves already drawn. */
+  protected void updateCurves()
+  {
+    if (grid==null) grid = new SegmentGrid(0, 0);
+    if (rawPath.length()<grid.size()) invalidateCurves(rawPath.length());
+    for (int i=grid.size(); i<rawPath.length(); i++)
     {
-      i = mapX(x);
-      gr.drawLine(i, lim1, i, lim2);
+      grid.append(Direction.decodDir(rawPath.charAt(i)));
+      if (backing!=null) addRawMove(rawFresh, i);
     }
-    gr.setStroke(new BasicStroke(1.0f));
-    gr.drawLine(mapX(0.0f), lim1, mapX(0.0f), lim2);
-    gr.setStroke(new BasicStroke(0.5f));
-    lim1 = mapX(minX); lim2 = mapX(maxX);
-    for (y=minY; y<=maxY; y++)
+    int n = (path==null) ? 0 : Math.min(path.length(), grid.size());
+    int rescales = (checker==null) ? 0 : checker.getRescales();
+    boolean changed = (path!=backingPath) || (rescales!=backingRescales);
+    if (n<curveMoves) curveMoves = n;
+    // the largest perturbation is doubled when exceeded, so that the
+    // drawing of a curve whose perturbations keep growing is done again
+    // only a few times
+    for (int i=(changed ? 0 : curveMoves); i<n; i++)
     {
-      i = mapY(y);
-      gr.drawLine(lim1, i, lim2, i); 
+      float p = Math.abs(path.getPerturbation(i));
+      if (p>maxPerturbation)
+      {
+        while (p>maxPerturbation) maxPerturbation *= 2;
+        PERTURB = OFFSET / (maxPerturbation+1.0f);
+      }
     }
-    gr.setStroke(new BasicStroke(3.0f));
-    gr.drawLine(lim1, mapY(0.0f), lim2, mapY(0.0f));
-    gr.setStroke(new BasicStroke(1.0f));
+    if (changed || (BIG_FACTOR!=backingFactor) || (PERTURB!=backingPerturb))
+      backing = null;
+    if (backing!=null)
+      for (int i=curveMoves; i<n; i++) addCurveMove(curveFresh, i);
+    curveMoves = n;
   }
-      
-  /** Draw the panel.
+
+  /** Add the segment of a move of the raw curve to a shape, in pixels
+   * with respect to point (0,0) of the grid.
+   * @param shape rawFresh or a shape being drawn
+   * @param i index of the move */
+  protected void addRawMove(Path2D.Float shape, int i)
+  {
+    shape.moveTo(BIG_FACTOR*grid.getX(i), -BIG_FACTOR*grid.getY(i));
+    shape.lineTo(BIG_FACTOR*grid.getX(i+1), -BIG_FACTOR*grid.getY(i+1));
+  }
+
+  /** Add the segments of a move of the curve with perturbations to a
+   * shape, as drawCurve: from the end of the previous move to the
+   * perturbed start of the move, then to its perturbed end.
+   * @param shape curveFresh or a shape being drawn
+   * @param i index of the move */
+  protected void addCurveMove(Path2D.Float shape, int i)
+  {
+    int x = grid.getX(i), y = grid.getY(i);
+    float xs = x, ys = y;
+    if (i>0)
+    {
+      int o = Direction.oppositeDir(path.getDir(i-1));
+      float p = path.getPerturbation(i-1);
+      xs = perturbX(x,o,p);
+      ys = perturbY(y,o,p);
+    }
+    int d = path.getDir(i);
+    float p = path.getPerturbation(i);
+    shape.moveTo(BIG_FACTOR*xs, -BIG_FACTOR*ys);
+    shape.lineTo(BIG_FACTOR*perturbX(x,d,p), -BIG_FACTOR*perturbY(y,d,p));
+    int o = Direction.oppositeDir(d);
+    x = grid.getX(i+1);
+    y = grid.getY(i+1);
+    shape.lineTo(BIG_FACTOR*perturbX(x,o,p), -BIG_FACTOR*perturbY(y,o,p));
+  }
+
+  /** Draw the curves by copying the backing image. If the visible part
+   * of the panel is not inside the backing image, a new one is drawn,
+   * with half the visible size of margin on each side, so that scrolling
+   * a little does not need to draw it again: only the moves found in it
+   * by the spatial index are drawn. Otherwise only the new segments are
+   * drawn into it.
+   * @param gr graphical context */
+  protected void drawCurves(Graphics2D gr)
+  {
+    Rectangle vis = getVisibleRect();
+    if (vis.isEmpty()) return;
+    // the curves have (0,0) in point (0,0) of the grid
+    int ox = Math.round(BIG_FACTOR*minX), oy = Math.round(-BIG_FACTOR*maxY);
+    Rectangle view = new Rectangle(vis.x+ox, vis.y+oy, vis.width, vis.height);
+    if ((backing==null) || (backingRaw!=onlyRaw) || !backingRect.contains(view))
+    {
+      backingRect = new Rectangle(view.x-view.width/2, view.y-view.height/2,
+                                  2*view.width, 2*view.height);
+      backing = new BufferedImage(backingRect.width, backingRect.height,
+                                  BufferedImage.TYPE_INT_ARGB_PRE);
+      backingRaw = onlyRaw;
+      backingFactor = BIG_FACTOR;
+      backingPerturb = PERTURB;
+      backingPath = path;
+      backingRescales = (checker==null) ? 0 : checker.getRescales();
+      final Path2D.Float raw = new Path2D.Float(), curve = new Path2D.Float();
+      grid.visitMoves(backingRect.x/BIG_FACTOR,
+                      -(backingRect.y+backingRect.height)/BIG_FACTOR,
+                      (backingRect.x+backingRect.width)/BIG_FACTOR,
+                      -backingRect.y/BIG_FACTOR, new SegmentIndex.Visitor()
+      {
+        public void visit(int i)
+        {
+          addRawMove(raw, i);
+          if (i<curveMoves) addCurveMove(curve, i);
+        }
+      });
+      drawShapes(raw, curve);
+    }
+    else if ((rawFresh.getCurrentPoint()!=null) || (curveFresh.getCurrentPoint()!=null))
+      drawShapes(rawFresh, curveFresh);
+    rawFresh.reset();
+    curveFresh.reset();
+    gr.drawImage(backing, backingRect.x-ox, backingRect.y-oy, null);
+  }
+
+  /** Draw the raw curve in yellow (in black if onlyRaw) and the curve
+   * with perturbations in black (not if onlyRaw) into the backing image.
+   * @param raw the raw curve, or part of it
+   * @param curve the curve with perturbations, or part of it */
+  protected void drawShapes(Shape raw, Shape curve)
+  {
+    Graphics2D gr = backing.createGraphics();
+    gr.translate(-backingRect.x, -backingRect.y);
+    gr.setStroke(new BasicStroke(2.0f));
+    gr.setColor(onlyRaw ? Color.black : Color.yellow);
+    // under what is already drawn, as if the whole raw curve were drawn
+    // before the whole curve with perturbations
+    gr.setComposite(AlphaComposite.DstOver);
+    gr.draw(raw);
+    gr.setComposite(AlphaComposite.SrcOver);
+    if (!onlyRaw)
+    {
+      gr.setColor(Color.black);
+      gr.draw(curve);
+    }
+    gr.dispose();
+  }
+
+  /** Draw the panel. The curves are drawn from a backing image, where
+   * only the new moves are added (see drawCurves), and only the visible
+   * part of the grid is drawn (see drawGrid).
    * @param gr graphical context */
   public void paintComponent(Graphics gr)
   {
@@ -385,25 +507,18 @@ public class VisualCheck extends JPanel
      // Draw the grid
      gr.setColor(new Color(200,200,200));
      drawGrid(gr2);
-     if ((rawPath!=null)&&(rawPath.length()>0))
-     {  // ------------- Draw the raw curve in yellow
-        if (debug) System.out.println("Curve:  "+rawPath.length()+" segments.");
-        if (onlyRaw) gr.setColor(Color.black);
-        else gr.setColor(Color.yellow);
-        drawRawCurve(gr2, 0,0);
-     }
-     if ((!onlyRaw) && (path!=null)&&(path.length()>0))
-     {  // ------------- Draw the curve 
-        if (debug) System.out.println("Curve: "+path.length()+" segments.");
-        gr.setColor(Color.black);
-        drawCurve(gr2, 0,0);
-     }
+     // ------------- Draw the raw curve in yellow and the curve
+     if (debug) System.out.println("Curve:  "+rawPath.length()+" segments.");
+     updateCurves();
+     drawCurves(gr2);
   }
   
   /** Enable or disable buttons according to the current status
-   * of the drawing process. */
+   * of the drawing process. Nothing to do if the window has not been
+   * created (see createWindow). */
   protected void enableDisable()
   {
+    if (window==null) return;
     numT.setText("Drawn moves: "+num);
     if (restPath.isEmpty())
          pathT.setText("Path: "+rawPath);
@@ -454,10 +569,14 @@ public class VisualCheck extends JPanel
 
 //System.out.println("lastPoint.x="+lastPoint.x+" lastPoint.y="+lastPoint.y);
 //System.out.println("moving="+moving);
-      eastB.setEnabled(moving && (lastMove!=Direction.WEST));
-      westB.setEnabled(moving && (lastMove!=Direction.EAST));
-      northB.setEnabled(moving && (lastMove!=Direction.SOUTH));
-      southB.setEnabled(moving && (lastMove!=Direction.NORTH));
+      // only the moves which do not make the path self-crossing
+      int legal = 15;
+      if (moving && (checker!=null) && (checker.getCheckedPath()==path))
+        legal = legalDirections(checker.legalMoves(), Direction.decodDir(lastMove));
+      eastB.setEnabled(moving && (lastMove!=Direction.WEST) && ((legal&(1<<Direction.E))!=0));
+      westB.setEnabled(moving && (lastMove!=Direction.EAST) && ((legal&(1<<Direction.W))!=0));
+      northB.setEnabled(moving && (lastMove!=Direction.SOUTH) && ((legal&(1<<Direction.N))!=0));
+      southB.setEnabled(moving && (lastMove!=Direction.NORTH) && ((legal&(1<<Direction.S))!=0));
     }
     else // num==0, lastPoint=(0,0)
     {
@@ -468,6 +587,19 @@ public class VisualCheck extends JPanel
     }
   }
   
+  /** Convert a mask of moves relative to the last direction, as given
+   * by PathChecker.legalMoves, into a mask of absolute directions.
+   * @param moves a mask of PathChecker.RIGHT, STRAIGHT and LEFT
+   * @param dir direction of the last move
+   * @return a mask with bit d set iff the move in direction d is legal */
+  protected static int legalDirections(int moves, int dir)
+  {
+    int legal = 0;
+    for (int k=0; k<3; k++)
+      if (((moves>>k)&1)!=0) legal |= 1<<PathChecker.turn(dir, 1<<k);
+    return legal;
+  }
+
   /** Auxiliary function to create a panel containing 
    * a label with the given string, and the given text field.
    * @param s string for the label
@@ -698,6 +830,7 @@ else System.out.println("seleziono userB");
               rawPath = rawPath.substring(0,num);
               restPath = ""+m+restPath;
             }
+            invalidateCurves(num);
 //System.out.println("Undo, ora rawPath="+rawPath+" e restPath="+restPath);
             // not necessary path = checker.getCheckedPath();
             // because checker did not update the path after the intersection
@@ -720,6 +853,7 @@ else System.out.println("seleziono userB");
             rawPath = "";
           }
           lastPoint = null;
+          invalidateCurves(0);
           enableDisable();
           repaint();
         }
@@ -743,7 +877,7 @@ else System.out.println("seleziono userB");
     redoPerturb.addActionListener(new ActionListener()
     {   public void actionPerformed(ActionEvent ev)
         {
-           checker.global_dict.adjustPerturbations();
+           checker.adjustPerturbations();
            repaint();
         }
     });
@@ -777,7 +911,11 @@ else System.out.println("seleziono userB");
    * @param dir direction of the next move */
   protected void performMove(int dir)
   {
-      if (checker==null) checker = new PathChecker();
+      if (checker==null)
+      {
+        checker = new PathChecker();
+        checker.keepJournal(true); // undo restores the perturbations
+      }
       if (num==0)  checker.startTest(0,0, dir);
       else  checker.continueTest(dir);
       path = checker.getCheckedPath();
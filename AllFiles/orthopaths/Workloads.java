@@ -0,0 +1,242 @@
+package orthopaths;
+
+import java.util.Random;
+
+/** <P>This class generates paths used as workloads to measure the
+ * performance of the path checker (see class CheckerBenchmark):<UL>
+ * <LI>random walks without U-turns, as in creaFig_a.py, which are
+ * usually self-crossing after a few moves;</LI>
+ * <LI>random crossing-free walks, extended with a random legal move
+ * at each step: they tend to get trapped and to wind around some
+ * vertex, whose degree becomes very high;</LI>
+ * <LI>repetitions of a closed motif, as in figure12_*.dat, where
+ * the degree of the vertices of the motif grows with the number of
+ * repetitions;</LI>
+ * <LI>the fractal of figure14_*.dat, at any level;</LI>
+ * <LI>square spirals, where no vertex is traversed twice;</LI>
+ * <LI>coils winding many times around the same square, where the
+ * degree of the corner vertices grows with the length of the path.
+ * </LI></UL>
+ * All the generated paths start with a move in direction EAST.</P>
+ */
+public class Workloads
+{
+  /** Motif repeated in figure12_*.dat, after a first move EAST.
+   * It is a closed loop, so each repetition passes again through
+   * the same vertices. */
+  public static final String MOTIF_12 = "NNNESWSESW";
+
+  /** Path of figure14_a.dat, the first level of the fractal. */
+  public static final String FRACTAL_14 = "ESENWNESE";
+
+  /** Return a random path without U-turns.
+   * @param rnd random generator
+   * @param moves number of moves
+   * @return a string of directions */
+  public static String randomWalk(Random rnd, int moves)
+  {
+    char[] path = new char[moves];
+    int dir = Direction.E;
+    for (int i=0; i<moves; i++)
+    {
+      path[i] = Direction.letterDir[dir];
+      dir = (dir+3+rnd.nextInt(3))%4; // turn right, go straight, turn left
+    }
+    return new String(path);
+  }
+
+  /** Return a random crossing-free path. At each step, the next
+   * direction is chosen at random among the ones which do not make
+   * a U-turn, do not cross the path and do not go back to the start.
+   * The path may be shorter than requested if no move is possible.
+   * @param rnd random generator
+   * @param moves number of moves
+   * @return a string of directions */
+  public static String randomCrossingFree(Random rnd, int moves)
+  {
+    ColumnarPathChecker checker = new ColumnarPathChecker(moves);
+    StringBuilder sb = new StringBuilder(moves);
+    int dir = Direction.E;
+    checker.startTest(0,0, dir, true);
+    sb.append(Direction.letterDir[dir]);
+    int x = 1, y = 0;
+    while (sb.length()<moves)
+    {
+      int turn = rnd.nextInt(3);
+      int next = -1;
+      for (int k=0; (k<3) && (next<0); k++)
+      {
+        int d = (dir+3+(turn+k)%3)%4;
+        if ((x+Direction.xDir(d)==0) && (y+Direction.yDir(d)==0)) continue;
+        if (checker.continueTest(d)) next = d;
+        else checker.undoTest();
+      }
+      if (next<0) break;
+      dir = next;
+      x += Direction.xDir(dir);
+      y += Direction.yDir(dir);
+      sb.append(Direction.letterDir[dir]);
+    }
+    return sb.toString();
+  }
+
+  /** Return a path as in figure12_*.dat: a first move EAST followed
+   * by a motif repeated the given number of times.
+   * @param motif a string of directions
+   * @param times number of repetitions
+   * @return a string of directions */
+  public static String repeat(String motif, int times)
+  {
+    StringBuilder sb = new StringBuilder(1+motif.length()*times);
+    sb.append(Direction.EAST);
+    for (int i=0; i<times; i++) sb.append(motif);
+    return sb.toString();
+  }
+
+  /** Rotate a direction counterclockwise by the angle from EAST to
+   * another direction.
+   * @param d a direction
+   * @param by the direction giving the rotation
+   * @return the rotated direction */
+  protected static int rotate(int d, int by)
+  {  return (d+by)%4;  }
+
+  /** Return the fractal of figure14_*.dat at the given level: level 1
+   * is FRACTAL_14, and level k+1 is obtained by replacing each move
+   * of level k with FRACTAL_14 rotated to the direction of the move.
+   * Level k has 9^k moves.
+   * @param level level of the fractal, at least 1
+   * @return a string of directions */
+  public static String fractal(int level)
+  {
+    String path = FRACTAL_14;
+    for (int k=1; k<level; k++)
+    {
+      StringBuilder sb = new StringBuilder(path.length()*FRACTAL_14.length());
+      for (int i=0; i<path.length(); i++)
+      {
+        int by = Direction.decodDir(path.charAt(i));
+        for (int j=0; j<FRACTAL_14.length(); j++)
+          sb.append(Direction.letterDir[rotate(
+                    Direction.decodDir(FRACTAL_14.charAt(j)), by)]);
+      }
+      path = sb.toString();
+    }
+    return path;
+  }
+
+  /** Return a square spiral turning counterclockwise, with sides
+   * of length 1,1,2,2,3,3,... and the given number of moves.
+   * @param moves number of moves
+   * @return a string of directions */
+  public static String spiral(int moves)
+  {
+    StringBuilder sb = new StringBuilder(moves);
+    int dir = Direction.E;
+    for (int side=1; sb.length()<moves; side++)
+      for (int k=0; k<2; k++)
+      {
+        for (int i=0; (i<side) && (sb.length()<moves); i++)
+          sb.append(Direction.letterDir[dir]);
+        dir = (dir+1)%4;
+      }
+    return sb.toString();
+  }
+
+  /** Return a coil: after a first move, the path winds counterclockwise
+   * around the same square the given number of times. Each loop lies
+   * inside the previous one, so the path is crossing-free, and the
+   * degree of the corners of the square is proportional to the number
+   * of loops.
+   * @param loops number of loops
+   * @param side side of the square
+   * @return a string of directions, of length 1+4*side*loops */
+  public static String coil(int loops, int side)
+  {
+    StringBuilder sb = new StringBuilder(1+4*side*loops);
+    sb.append(Direction.EAST);
+    for (int i=0; i<loops; i++)
+      for (int d=0; d<4; d++)
+        for (int k=0; k<side; k++)
+          sb.append(Direction.letterDir[d]);
+    return sb.toString();
+  }
+
+  /** Degrees of the vertices of a path, computed as in creaFig_a.py:
+   * the degree of a vertex is the number of times the path reaches it
+   * (the starting point included), and each time the path reaches a
+   * vertex its degree so far is added to the sum of degrees.
+   * Vertices are counted in a hash table with open addressing,
+   * as in HashVertexSet. */
+  public static class Degrees
+  {
+    /** Sum of vertex degrees. */
+    public long sum = 0;
+    /** Maximum vertex degree. */
+    public int max = 0;
+
+    /** Packed coordinates of the vertices. */
+    protected long[] keys = new long[64];
+    /** Degrees, 0 for empty slots. */
+    protected int[] counts = new int[64];
+    /** Number of vertices. */
+    protected int size = 0;
+
+    /** Compute the degrees of the vertices of the given path.
+     * @param path a string of directions */
+    public Degrees(String path)
+    {
+      int x = 0, y = 0;
+      reach(x,y);
+      for (int i=0; i<path.length(); i++)
+      {
+        int d = Direction.decodDir(path.charAt(i));
+        x += Direction.xDir(d);
+        y += Direction.yDir(d);
+        reach(x,y);
+      }
+    }
+
+    /** Return the slot where the search for the given key starts.
+     * @param key packed coordinates
+     * @return a slot index */
+    protected int slot(long key)
+    {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int)(h ^ (h>>>32)) & (keys.length-1);
+    }
+
+    /** The path reaches vertex (x,y): increment its degree.
+     * @param x x of the vertex
+     * @param y y of the vertex */
+    protected void reach(int x, int y)
+    {
+      if (2*(size+1)>keys.length) grow();
+      long key = HashVertexSet.pack(x,y);
+      int i = slot(key);
+      while ((counts[i]!=0) && (keys[i]!=key)) i = (i+1) & (keys.length-1);
+      if (counts[i]==0) {  keys[i] = key; size++;  }
+      int deg = ++counts[i];
+      sum += deg;
+      if (deg>max) max = deg;
+    }
+
+    /** Double the capacity of the table. */
+    protected void grow()
+    {
+      long[] oldKeys = keys;
+      int[] oldCounts = counts;
+      keys = new long[2*oldKeys.length];
+      counts = new int[2*oldKeys.length];
+      for (int j=0; j<oldKeys.length; j++)
+        if (oldCounts[j]!=0)
+        {
+          int i = slot(oldKeys[j]);
+          while (counts[i]!=0) i = (i+1) & (keys.length-1);
+          keys[i] = oldKeys[j];
+          counts[i] = oldCounts[j];
+        }
+    }
+  }
+
+}
@@ -1,5 +1,6 @@
 echo "This script must be run in folder sources_and_manifest"
-echo "It creates the Java program  orthopaths.CommandCheck"
+echo "It compiles all the Java classes in folder orthopaths, including"
+echo "the programs  orthopaths.CommandCheck  and  orthopaths.FigureBatch"
 echo "Then, run script script_fig to create the images"
 echo "corresponding to figures 11, 12, 14 of the paper"
-javac orthopaths/CommandCheck.java
\ No newline at end of file
+javac orthopaths/*.java
\ No newline at end of file